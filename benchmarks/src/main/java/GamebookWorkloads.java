@@ -0,0 +1,226 @@
+import benchmarks.Workload;
+import benchmarks.Workloads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Sets up the benchmarked operations on generated books, next to the gamebook classes in the unnamed package. Loaded
+ * by Workloads.load().
+ */
+public class GamebookWorkloads implements Workloads {
+    private static final int LINKS_PER_PAGE = 3;
+    private static final int BODY_WORDS = 40;
+    // Bodies don't matter for traversal, so keep them short to fit large books in memory
+    private static final int GRAPH_BODY_WORDS = 2;
+    private static final int MAX_SIMULATION_HOPS = 1000;
+    private static final int SAVE_GAME_PAGES = 100_000;
+
+    public Workload constructPage() {
+        int[] counter = {0};
+        return () -> {
+            int pageId = ++counter[0];
+            ArrayList<Link> links = new ArrayList<>(LINKS_PER_PAGE);
+            for (int i = 0; i < LINKS_PER_PAGE; i++) {
+                links.add(new Link(pageId * LINKS_PER_PAGE + i, pageId, pageId + i + 1, "Val " + i));
+            }
+            Page page = new Page(pageId, "Du vaknar i ett instängt utrymme.", links, false);
+            return page.getId() + page.getLinks().size();
+        };
+    }
+
+    public Workload goToPageInMemory(int pages) {
+        PlayerSession session = new PlayerSession(SyntheticBookGenerator.generate(pages, LINKS_PER_PAGE, BODY_WORDS,
+                SEED));
+        session.restart();
+        SplittableRandom random = new SplittableRandom(SEED);
+        return () -> step(session, random);
+    }
+
+    public Workload searchQuery(int pages) {
+        SearchIndex index = buildSearchIndex(SyntheticBookGenerator.generate(pages, LINKS_PER_PAGE, BODY_WORDS, SEED));
+        String[] queries = {"svan", "sk", "ankan skogen", "natten hem"};
+        int[] counter = {0};
+        return () -> index.search(queries[counter[0]++ % queries.length]).length;
+    }
+
+    public Workload searchUpdatePage(int pages) {
+        BookSnapshot book = SyntheticBookGenerator.generate(pages, LINKS_PER_PAGE, BODY_WORDS, SEED);
+        SearchIndex index = buildSearchIndex(book);
+        SplittableRandom random = new SplittableRandom(SEED);
+        return () -> {
+            Page page = book.getPage(book.getPageId(random.nextInt(book.getPageCount())));
+            index.updatePage(page);
+            return page.getId();
+        };
+    }
+
+    public StoreWorkloads openStore(String store, int pages) throws Exception {
+        switch (store) {
+            case "local":
+                Path directory = Files.createTempDirectory("gamebook-benchmark");
+                LocalGamebookStore localStore = LocalGamebookStore.open(directory);
+                BookSnapshot book = SyntheticBookGenerator.generate(pages, LINKS_PER_PAGE, BODY_WORDS, SEED);
+                localStore.importFrom(book::streamPages, book::streamLinks);
+                return new Store(localStore, directory);
+            case "mysql":
+                return new Store(new DatabaseModel(), null);
+            default:
+                throw new IllegalArgumentException("Unknown store: " + store);
+        }
+    }
+
+    public SaveGameWorkloads openSaveGames(int sessions) throws Exception {
+        Path directory = Files.createTempDirectory("gamebook-benchmark");
+        SaveGameJournal saveGames = SaveGameJournal.open(directory);
+        SplittableRandom random = new SplittableRandom(SEED);
+
+        return new SaveGameWorkloads() {
+            public Workload recordVisit() {
+                return () -> {
+                    int pageId = random.nextInt(SAVE_GAME_PAGES) + 1;
+                    saveGames.recordVisit(random.nextInt(sessions), pageId);
+                    return pageId;
+                };
+            }
+
+            public Workload restore() {
+                return () -> {
+                    SaveGameJournal.SaveGame saveGame = saveGames.restore(random.nextInt(sessions));
+                    return saveGame == null ? 0 : saveGame.getPageId();
+                };
+            }
+
+            public void close() throws IOException {
+                saveGames.close();
+                delete(directory);
+            }
+        };
+    }
+
+    public GraphWorkloads generateGraph(int pages) {
+        BookSnapshot book = SyntheticBookGenerator.generate(pages, LINKS_PER_PAGE, GRAPH_BODY_WORDS, SEED);
+        BookGraph graph = BookGraph.of(book);
+        int[] sources = {graph.indexOf(GraphAnalyzer.START_PAGE_ID)};
+
+        return new GraphWorkloads() {
+            public Workload reachability() {
+                int[] queue = new int[book.getPageCount()];
+                boolean[] visited = new boolean[book.getPageCount()];
+
+                return () -> {
+                    Arrays.fill(visited, false);
+                    int head = 0;
+                    int tail = 0;
+                    int start = book.indexOf(GraphAnalyzer.START_PAGE_ID);
+                    if (start == -1) return 0;
+
+                    visited[start] = true;
+                    queue[tail++] = start;
+                    while (head < tail) {
+                        int index = queue[head++];
+                        int end = book.getFirstLink(index) + book.getLinkCount(index);
+                        for (int link = book.getFirstLink(index); link < end; link++) {
+                            int target = book.indexOf(book.getLinkTarget(link));
+                            if (target != -1 && !visited[target]) {
+                                visited[target] = true;
+                                queue[tail++] = target;
+                            }
+                        }
+                    }
+                    return tail;
+                };
+            }
+
+            public Workload parallelReachability() {
+                return () -> sources[0] == -1 ? 0 :
+                        GraphAnalyzer.breadthFirst(graph.offsets(), graph.targets(), graph.getPageCount(),
+                                sources).length;
+            }
+
+            public Workload analyze() {
+                return () -> GraphAnalyzer.analyze(graph).getComponentCount();
+            }
+
+            public Workload endings() {
+                return () -> EndingCalculator.calculate(graph).getReachableEndingPageIds().length;
+            }
+
+            public Workload simulate(int threads, int playthroughs) {
+                PlaythroughSimulator simulator = new PlaythroughSimulator(graph, threads);
+                return () -> simulator.simulate(playthroughs, MAX_SIMULATION_HOPS, SEED).getEndedCount();
+            }
+        };
+    }
+
+    /**
+     * Operations on a store, which is deleted when it is closed if it is in a temporary directory.
+     */
+    private static class Store implements StoreWorkloads {
+        private final GamebookStore store;
+        private final Path directory;
+        private final int maxPageId;
+        private final SplittableRandom random;
+
+        Store(GamebookStore store, Path directory) {
+            this.store = store;
+            this.directory = directory;
+            maxPageId = store.getMaxPageId();
+            random = new SplittableRandom(SEED);
+        }
+
+        public Workload getPage() {
+            return () -> {
+                Page page = store.getPage(1 + random.nextInt(maxPageId));
+                return page == null ? 0 : page.getLinks().size();
+            };
+        }
+
+        public Workload getAllPages() {
+            return () -> store.getAllPages().size();
+        }
+
+        public Workload goToPage() {
+            PlayerSession session = new PlayerSession(store);
+            session.restart();
+            return () -> step(session, random);
+        }
+
+        public void close() throws IOException {
+            store.closeConnection();
+            if (directory != null) delete(directory);
+        }
+    }
+
+    private static SearchIndex buildSearchIndex(BookSnapshot book) {
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < book.getPageCount(); i++) index.updatePage(book.getPage(book.getPageId(i)));
+        return index;
+    }
+
+    /**
+     * Takes one step of a random playthrough: follows a random link, or starts over at an ending or a dead end.
+     * @return id of the page the player is on afterwards
+     */
+    private static long step(PlayerSession session, SplittableRandom random) {
+        Page page = session.getCurrentPage();
+        if (session.isFinished() || page == null || page.getLinks().isEmpty()) {
+            session.restart();
+        } else {
+            session.choose(random.nextInt(page.getLinks().size()));
+        }
+        return session.getCurrentPageId();
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk traversal of generated books: breadth-first search from page 1 over every link, sequentially and on every
+ * core, the full structural analysis and the exact ending probabilities.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int pages;
+
+    private Workload reachability;
+    private Workload parallelReachability;
+    private Workload analyze;
+    private Workload endings;
+
+    @Setup
+    public void setUp() {
+        Workloads.GraphWorkloads workloads = Workloads.load().generateGraph(pages);
+        reachability = workloads.reachability();
+        parallelReachability = workloads.parallelReachability();
+        analyze = workloads.analyze();
+        endings = workloads.endings();
+    }
+
+    @Benchmark
+    public long reachability() throws Exception {
+        return reachability.run();
+    }
+
+    @Benchmark
+    public long parallelReachability() throws Exception {
+        return parallelReachability.run();
+    }
+
+    @Benchmark
+    public long analyze() throws Exception {
+        return analyze.run();
+    }
+
+    @Benchmark
+    public long endings() throws Exception {
+        return endings.run();
+    }
+}
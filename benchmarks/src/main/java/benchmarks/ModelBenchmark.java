@@ -0,0 +1,28 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the model objects that every store builds for every page it returns.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModelBenchmark {
+    private Workload constructPage;
+
+    @Setup
+    public void setUp() {
+        constructPage = Workloads.load().constructPage();
+    }
+
+    @Benchmark
+    public long constructPage() throws Exception {
+        return constructPage.run();
+    }
+}
@@ -0,0 +1,32 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random playthroughs of a book held in memory with PlayerSession, which is what PlayerController.goToPage() does
+ * without the UI.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NavigationBenchmark {
+    @Param({"100000"})
+    public int pages;
+
+    private Workload goToPage;
+
+    @Setup
+    public void setUp() {
+        goToPage = Workloads.load().goToPageInMemory(pages);
+    }
+
+    @Benchmark
+    public long goToPage() throws Exception {
+        return goToPage.run();
+    }
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording moves in the save game journal from many sessions, as the play server does, and restoring them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SaveGameBenchmark {
+    @Param({"10000"})
+    public int sessions;
+
+    private Workloads.SaveGameWorkloads workloads;
+    private Workload recordVisit;
+    private Workload restore;
+
+    @Setup
+    public void setUp() throws Exception {
+        workloads = Workloads.load().openSaveGames(sessions);
+        recordVisit = workloads.recordVisit();
+        restore = workloads.restore();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workloads.close();
+    }
+
+    @Benchmark
+    public long recordVisit() throws Exception {
+        return recordVisit.run();
+    }
+
+    @Benchmark
+    public long restore() throws Exception {
+        return restore.run();
+    }
+}
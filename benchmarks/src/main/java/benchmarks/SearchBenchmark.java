@@ -0,0 +1,39 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches as the Editor's search field does them, and re-indexing a page as after saving it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    @Param({"100000"})
+    public int pages;
+
+    private Workload query;
+    private Workload updatePage;
+
+    @Setup
+    public void setUp() {
+        Workloads workloads = Workloads.load();
+        query = workloads.searchQuery(pages);
+        updatePage = workloads.searchUpdatePage(pages);
+    }
+
+    @Benchmark
+    public long query() throws Exception {
+        return query.run();
+    }
+
+    @Benchmark
+    public long updatePage() throws Exception {
+        return updatePage.run();
+    }
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random playthroughs of generated books. Each operation plays PLAYTHROUGHS playthroughs, so the score times
+ * PLAYTHROUGHS is playthroughs per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimulationBenchmark {
+    public static final int PLAYTHROUGHS = 100_000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int pages;
+
+    /**
+     * Number of threads to simulate on, where 0 means one per available processor.
+     */
+    @Param({"1", "0"})
+    public int threads;
+
+    private Workload simulate;
+
+    @Setup
+    public void setUp() {
+        int simulationThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        simulate = Workloads.load().generateGraph(pages).simulate(simulationThreads, PLAYTHROUGHS);
+    }
+
+    @Benchmark
+    public long simulate() throws Exception {
+        return simulate.run();
+    }
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page reads and headless navigation against a store: an embedded LocalGamebookStore holding a generated book, or
+ * with -p store=mysql the database in the DatabaseLoginData class, which is only read from.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+    @Param({"local"})
+    public String store;
+
+    @Param({"10000"})
+    public int pages;
+
+    private Workloads.StoreWorkloads workloads;
+    private Workload getPage;
+    private Workload getAllPages;
+    private Workload goToPage;
+
+    @Setup
+    public void setUp() throws Exception {
+        workloads = Workloads.load().openStore(store, pages);
+        getPage = workloads.getPage();
+        getAllPages = workloads.getAllPages();
+        goToPage = workloads.goToPage();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workloads.close();
+    }
+
+    @Benchmark
+    public long getPage() throws Exception {
+        return getPage.run();
+    }
+
+    @Benchmark
+    public long getAllPages() throws Exception {
+        return getAllPages.run();
+    }
+
+    @Benchmark
+    public long goToPage() throws Exception {
+        return goToPage.run();
+    }
+}
@@ -0,0 +1,12 @@
+package benchmarks;
+
+/**
+ * An operation under benchmark, set up by Workloads.
+ */
+public interface Workload {
+    /**
+     * Runs the operation once.
+     * @return any value derived from the work, which JMH consumes so that the work can't be optimized away
+     */
+    long run() throws Exception;
+}
@@ -0,0 +1,148 @@
+package benchmarks;
+
+import java.io.IOException;
+
+/**
+ * Sets up the operations that the benchmarks measure. JMH doesn't accept benchmarks in the unnamed package, and code
+ * in a named package can't refer to the gamebook classes in the unnamed package, so the benchmarks reach them through
+ * this interface, which GamebookWorkloads implements next to them.
+ */
+public interface Workloads {
+    /**
+     * Seed of every generated book and random choice, so that runs are comparable.
+     */
+    long SEED = 42;
+
+    /**
+     * Operations on a store holding a generated book.
+     */
+    interface StoreWorkloads extends AutoCloseable {
+        /**
+         * @return reads a random page with its links, as the Editor does
+         */
+        Workload getPage();
+
+        /**
+         * @return reads every page without links, as the Editor's full refresh does
+         */
+        Workload getAllPages();
+
+        /**
+         * @return takes one step of a random playthrough through the store's page cache, as the Player does
+         */
+        Workload goToPage();
+
+        /**
+         * Closes the store and deletes it if it is in a temporary directory.
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * Operations on a save game journal.
+     */
+    interface SaveGameWorkloads extends AutoCloseable {
+        /**
+         * @return records a move of a random session, as the play server does
+         */
+        Workload recordVisit();
+
+        /**
+         * @return restores the save game of a random session
+         */
+        Workload restore();
+
+        /**
+         * Closes the journal and deletes its directory.
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * Operations on the link graph of a generated book.
+     */
+    interface GraphWorkloads {
+        /**
+         * @return breadth-first search from page 1 over the book's arrays on one thread
+         */
+        Workload reachability();
+
+        /**
+         * @return level-synchronous breadth-first search from page 1 over the book's graph on every core
+         */
+        Workload parallelReachability();
+
+        /**
+         * @return full structural analysis, as the Editor's analyze button runs it
+         */
+        Workload analyze();
+
+        /**
+         * @return exact ending probabilities
+         */
+        Workload endings();
+
+        /**
+         * @param threads number of threads to simulate on
+         * @param playthroughs number of random playthroughs per run
+         * @return random playthroughs
+         */
+        Workload simulate(int threads, int playthroughs);
+    }
+
+    /**
+     * @return builds a page with three links, as every store does for every page it returns
+     */
+    Workload constructPage();
+
+    /**
+     * @param pages number of pages in the generated book
+     * @return takes one step of a random playthrough of an in-memory book, which is what PlayerController.goToPage()
+     *         does without the UI
+     */
+    Workload goToPageInMemory(int pages);
+
+    /**
+     * @param pages number of pages in the indexed book
+     * @return searches as the Editor's search field does them
+     */
+    Workload searchQuery(int pages);
+
+    /**
+     * @param pages number of pages in the indexed book
+     * @return re-indexes a random page, as after saving it
+     */
+    Workload searchUpdatePage(int pages);
+
+    /**
+     * Opens a store for the store benchmarks.
+     * @param store "local" for an embedded LocalGamebookStore in a temporary directory, holding a generated book of the
+     *              given size, or "mysql" for the database in the DatabaseLoginData class, which is only read from
+     * @param pages number of pages in the generated book; ignored for the database
+     * @return operations on the store, which must be closed
+     */
+    StoreWorkloads openStore(String store, int pages) throws Exception;
+
+    /**
+     * @param sessions number of sessions that moves are recorded for
+     * @return operations on a save game journal in a temporary directory, which must be closed
+     */
+    SaveGameWorkloads openSaveGames(int sessions) throws Exception;
+
+    /**
+     * @param pages number of pages in the generated book
+     * @return operations on the book's link graph
+     */
+    GraphWorkloads generateGraph(int pages);
+
+    /**
+     * @return the implementation next to the gamebook classes
+     */
+    static Workloads load() {
+        try {
+            return (Workloads) Class.forName("GamebookWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("GamebookWorkloads is missing from the class path", ex);
+        }
+    }
+}
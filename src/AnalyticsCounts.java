@@ -0,0 +1,128 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Total counts of a PlayAnalytics file: how many times each page was visited and left without reaching an ending, and
+ * how many times each link was chosen.
+ */
+public class AnalyticsCounts {
+    private final HashMap<Integer, Long> pageVisits;
+    private final HashMap<Integer, Long> pageExits;
+    private final HashMap<Integer, Long> linkChoices;
+    private long maxPageVisits;
+    private long maxLinkChoices;
+
+    private AnalyticsCounts() {
+        pageVisits = new HashMap<>();
+        pageExits = new HashMap<>();
+        linkChoices = new HashMap<>();
+    }
+
+    /**
+     * Adds up every batch in a file. A line is only counted once its line break has been written, so that a batch
+     * that a player is appending while the file is read can't add a count that is cut off mid-number. A line that
+     * can't be parsed is skipped.
+     * @param file file written by PlayAnalytics
+     * @return the counts, which are all 0 if the file doesn't exist
+     * @throws IOException if the file couldn't be read
+     */
+    public static AnalyticsCounts load(Path file) throws IOException {
+        AnalyticsCounts counts = new AnalyticsCounts();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            char[] buffer = new char[8192];
+            int length;
+            while ((length = reader.read(buffer)) != -1) {
+                for (int i = 0; i < length; i++) {
+                    if (buffer[i] != '\n') {
+                        line.append(buffer[i]);
+                        continue;
+                    }
+                    counts.add(line);
+                    line.setLength(0);
+                }
+            }
+            // Whatever is left after the last line break is still being written
+        } catch (NoSuchFileException ex) {
+            // Nothing has been played yet
+        }
+
+        counts.maxPageVisits = counts.pageVisits.values().stream().mapToLong(Long::longValue).max().orElse(0);
+        counts.maxLinkChoices = counts.linkChoices.values().stream().mapToLong(Long::longValue).max().orElse(0);
+        return counts;
+    }
+
+    /**
+     * Adds the count on a complete line of the file, unless the line can't be parsed.
+     * @param line line without its line break
+     */
+    private void add(CharSequence line) {
+        String[] parts = line.toString().trim().split(" ");
+        if (parts.length != 3) return;
+
+        int id;
+        long count;
+        try {
+            id = Integer.parseInt(parts[1]);
+            count = Long.parseLong(parts[2]);
+        } catch (NumberFormatException ex) {
+            return;
+        }
+
+        switch (parts[0]) {
+            case "visit":
+                pageVisits.merge(id, count, Long::sum);
+                break;
+            case "exit":
+                pageExits.merge(id, count, Long::sum);
+                break;
+            case "link":
+                linkChoices.merge(id, count, Long::sum);
+                break;
+        }
+    }
+
+    /**
+     * @param pageId id of a page
+     * @return number of times players entered the page
+     */
+    public long getPageVisits(int pageId) {
+        return pageVisits.getOrDefault(pageId, 0L);
+    }
+
+    /**
+     * @param pageId id of a page
+     * @return number of times players stopped playing on the page without having reached an ending
+     */
+    public long getPageExits(int pageId) {
+        return pageExits.getOrDefault(pageId, 0L);
+    }
+
+    /**
+     * @param linkId id of a link
+     * @return number of times players chose the link
+     */
+    public long getLinkChoices(int linkId) {
+        return linkChoices.getOrDefault(linkId, 0L);
+    }
+
+    /**
+     * @return highest number of visits of any page
+     */
+    public long getMaxPageVisits() {
+        return maxPageVisits;
+    }
+
+    /**
+     * @return highest number of times any link was chosen
+     */
+    public long getMaxLinkChoices() {
+        return maxLinkChoices;
+    }
+}
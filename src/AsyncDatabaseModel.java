@@ -0,0 +1,139 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous facade over a GamebookStore that runs all storage work on a background worker thread, so that the
+ * Swing event dispatch thread never waits for a query. Work runs in the order it was submitted, which keeps a
+ * mutation and the refresh that follows it from being reordered.
+ */
+public class AsyncDatabaseModel {
+    /**
+     * Executor that runs tasks on the Swing event dispatch thread. Use it with the *Async methods of
+     * CompletableFuture to update the UI with the result of a query.
+     */
+    public static final Executor SWING_EXECUTOR = SwingUtilities::invokeLater;
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncDatabaseModel.class.getName());
+
+    private final GamebookStore store;
+    private final ExecutorService executor;
+    private final AtomicInteger pendingTasks;
+    private volatile Consumer<Boolean> loadingListener;
+
+    /**
+     * Constructs a facade with its own background worker thread.
+     * @param store model that handles reading from and writing to the gamebook's storage
+     */
+    public AsyncDatabaseModel(GamebookStore store) {
+        this.store = store;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "database-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pendingTasks = new AtomicInteger();
+    }
+
+    /**
+     * @return the wrapped store, for work that is already running off the event dispatch thread
+     */
+    public GamebookStore getStore() {
+        return store;
+    }
+
+    /**
+     * Sets a listener that is told on the event dispatch thread when the facade starts and stops having work in
+     * flight. Used to show a loading state in the UI.
+     * @param loadingListener listener that receives true while work is in flight and false when all work is done
+     */
+    public void setLoadingListener(Consumer<Boolean> loadingListener) {
+        this.loadingListener = loadingListener;
+    }
+
+    /**
+     * Runs work that produces a result on the background worker thread.
+     * @param work work to run with the wrapped store
+     * @param <T> type of the result
+     * @return future that completes with the result on the background worker thread
+     */
+    public <T> CompletableFuture<T> supply(Function<GamebookStore, T> work) {
+        if (pendingTasks.getAndIncrement() == 0) notifyLoadingListener();
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return work.apply(store);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Background database work failed", ex);
+                throw ex;
+            } finally {
+                if (pendingTasks.decrementAndGet() == 0) notifyLoadingListener();
+            }
+        }, executor);
+    }
+
+    /**
+     * Runs work without a result on the background worker thread.
+     * @param work work to run with the wrapped store
+     * @return future that completes on the background worker thread when the work is done
+     */
+    public CompletableFuture<Void> run(Consumer<GamebookStore> work) {
+        return supply(model -> {
+            work.accept(model);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous version of GamebookStore.getAllPages().
+     * @return future that completes with all pages in the database
+     */
+    public CompletableFuture<ArrayList<Page>> getAllPages() {
+        return supply(GamebookStore::getAllPages);
+    }
+
+    /**
+     * Asynchronous version of GamebookStore.getPage().
+     * @param pageId id of the desired page
+     * @return future that completes with the desired page, or null if it couldn't be fetched
+     */
+    public CompletableFuture<Page> getPage(int pageId) {
+        return supply(model -> model.getPage(pageId));
+    }
+
+    /**
+     * Asynchronous version of GamebookStore.getCachedPage().
+     * @param pageId id of the desired page
+     * @return future that completes with the desired page, or null if it couldn't be fetched
+     */
+    public CompletableFuture<Page> getCachedPage(int pageId) {
+        return supply(model -> model.getCachedPage(pageId));
+    }
+
+    /**
+     * Closes the store's connection once all previously submitted work has finished, and stops the worker thread.
+     * If the store fails to close, the worker thread keeps running, so that the facade can still be used.
+     * @return future that completes when the connection has been closed, or exceptionally if it couldn't be closed
+     */
+    public CompletableFuture<Void> close() {
+        return run(GamebookStore::closeConnection).thenRun(executor::shutdown);
+    }
+
+    /**
+     * Tells the loading listener on the event dispatch thread whether any work is in flight at that moment.
+     */
+    private void notifyLoadingListener() {
+        Consumer<Boolean> listener = loadingListener;
+        if (listener == null) return;
+
+        SwingUtilities.invokeLater(() -> listener.accept(pendingTasks.get() > 0));
+    }
+}
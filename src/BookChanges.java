@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+
+/**
+ * The pages and links that have changed in a store since a given revision. Changed pages only include the start of
+ * their body (see GamebookStore.PREVIEW_LENGTH) and no links.
+ */
+public class BookChanges {
+    private final long revision;
+    private final ArrayList<Page> changedPages;
+    private final ArrayList<Link> changedLinks;
+    private final ArrayList<Integer> deletedPageIds;
+    private final ArrayList<Integer> deletedLinkIds;
+
+    /**
+     * Constructs an empty set of changes.
+     * @param revision revision of the store that the changes bring a client up to
+     */
+    public BookChanges(long revision) {
+        this.revision = revision;
+        changedPages = new ArrayList<>();
+        changedLinks = new ArrayList<>();
+        deletedPageIds = new ArrayList<>();
+        deletedLinkIds = new ArrayList<>();
+    }
+
+    /**
+     * @return revision of the store that the changes bring a client up to
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return pages that were created or updated, with truncated bodies
+     */
+    public ArrayList<Page> getChangedPages() {
+        return changedPages;
+    }
+
+    /**
+     * @return links that were created or updated
+     */
+    public ArrayList<Link> getChangedLinks() {
+        return changedLinks;
+    }
+
+    /**
+     * @return ids of pages that were deleted, possibly including pages that were created after the given revision
+     */
+    public ArrayList<Integer> getDeletedPageIds() {
+        return deletedPageIds;
+    }
+
+    /**
+     * @return ids of links that were deleted, possibly including links that were created after the given revision
+     */
+    public ArrayList<Integer> getDeletedLinkIds() {
+        return deletedLinkIds;
+    }
+
+    /**
+     * @param pageId id of a page
+     * @return whether the page, or any link on it, was changed or deleted
+     */
+    public boolean affectsPage(int pageId) {
+        if (deletedPageIds.contains(pageId)) return true;
+        for (Page page : changedPages) {
+            if (page.getId() == pageId) return true;
+        }
+        for (Link link : changedLinks) {
+            if (link.getFromPageId() == pageId) return true;
+        }
+        // The page a deleted link pointed from isn't known, so any deleted link may affect the page
+        return !deletedLinkIds.isEmpty();
+    }
+
+    /**
+     * @return total number of changed and deleted pages and links
+     */
+    public int size() {
+        return changedPages.size() + changedLinks.size() + deletedPageIds.size() + deletedLinkIds.size();
+    }
+
+    /**
+     * @return whether nothing has changed
+     */
+    public boolean isEmpty() {
+        return changedPages.isEmpty() && changedLinks.isEmpty() && deletedPageIds.isEmpty()
+                && deletedLinkIds.isEmpty();
+    }
+}
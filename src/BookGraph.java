@@ -0,0 +1,258 @@
+import java.util.Arrays;
+
+/**
+ * The link structure of a gamebook in compressed sparse row form: pages are numbered by index in order of id, and the
+ * targets of the links on page i are targets[offsets[i]] to targets[offsets[i + 1] - 1]. Only primitive arrays are
+ * used, so a book with millions of pages fits in a few tens of megabytes and can be traversed without allocating.
+ */
+public class BookGraph {
+    private final int[] pageIds;
+    private final boolean[] endings;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] linkIds;
+    private final int[] linkTargetIds;
+
+    private BookGraph(int[] pageIds, boolean[] endings, int[] offsets, int[] targets, int[] linkIds,
+                      int[] linkTargetIds) {
+        this.pageIds = pageIds;
+        this.endings = endings;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.linkIds = linkIds;
+        this.linkTargetIds = linkTargetIds;
+    }
+
+    /**
+     * Streams the pages and links of a store into a graph. Page bodies are not kept.
+     * @param store store to read the book from
+     * @return graph of the book
+     */
+    public static BookGraph load(GamebookStore store) {
+        Builder builder = new Builder();
+        store.streamAllPages(page -> builder.addPage(page.getId(), page.isEnding()));
+        store.streamAllLinks(link -> builder.addLink(link.getId(), link.getFromPageId(), link.getToPageId()));
+        return builder.build();
+    }
+
+    /**
+     * Builds a graph of an in-memory snapshot.
+     * @param book snapshot to read the book from
+     * @return graph of the book
+     */
+    public static BookGraph of(BookSnapshot book) {
+        Builder builder = new Builder();
+        for (int index = 0; index < book.getPageCount(); index++) {
+            builder.addPage(book.getPageId(index), book.isEnding(index));
+        }
+        for (int index = 0; index < book.getPageCount(); index++) {
+            int end = book.getFirstLink(index) + book.getLinkCount(index);
+            for (int link = book.getFirstLink(index); link < end; link++) {
+                builder.addLink(book.getLinkId(link), book.getPageId(index), book.getLinkTarget(link));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return number of pages
+     */
+    public int getPageCount() {
+        return pageIds.length;
+    }
+
+    /**
+     * @return number of links, including dangling links
+     */
+    public int getLinkCount() {
+        return targets.length;
+    }
+
+    /**
+     * @param pageId id of a page
+     * @return index of the page, or -1 if there is no page with that id
+     */
+    public int indexOf(int pageId) {
+        int index = Arrays.binarySearch(pageIds, pageId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * @param index index of a page
+     * @return id of the page
+     */
+    public int getPageId(int index) {
+        return pageIds[index];
+    }
+
+    /**
+     * @param index index of a page
+     * @return whether the page is an ending of the gamebook
+     */
+    public boolean isEnding(int index) {
+        return endings[index];
+    }
+
+    /**
+     * @param index index of a page
+     * @return index of the first link of the page
+     */
+    public int getFirstLink(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @param index index of a page
+     * @return index after the last link of the page
+     */
+    public int getEndLink(int index) {
+        return offsets[index + 1];
+    }
+
+    /**
+     * @param link index of a link
+     * @return index of the page the link points to, or -1 if it points to a page that doesn't exist
+     */
+    public int getTarget(int link) {
+        return targets[link];
+    }
+
+    /**
+     * @param link index of a link
+     * @return id of the link
+     */
+    public int getLinkId(int link) {
+        return linkIds[link];
+    }
+
+    /**
+     * @param link index of a link
+     * @return id of the page the link points to, which may not exist
+     */
+    public int getTargetId(int link) {
+        return linkTargetIds[link];
+    }
+
+    /**
+     * @return first link of every page, followed by the link count; not copied, so must not be modified
+     */
+    int[] offsets() {
+        return offsets;
+    }
+
+    /**
+     * @return target page index of every link, or -1 for dangling links; not copied, so must not be modified
+     */
+    int[] targets() {
+        return targets;
+    }
+
+    /**
+     * Builds the reverse graph, where every link points from its target to its source. Dangling links are left out.
+     * @return offsets (length page count + 1) and sources of the reversed links, as {offsets, sources}
+     */
+    public int[][] reverse() {
+        int[] reverseOffsets = new int[pageIds.length + 1];
+        for (int target : targets) {
+            if (target != -1) reverseOffsets[target + 1]++;
+        }
+        for (int i = 0; i < pageIds.length; i++) reverseOffsets[i + 1] += reverseOffsets[i];
+
+        int[] next = Arrays.copyOf(reverseOffsets, pageIds.length);
+        int[] sources = new int[reverseOffsets[pageIds.length]];
+        for (int index = 0; index < pageIds.length; index++) {
+            for (int link = offsets[index]; link < offsets[index + 1]; link++) {
+                if (targets[link] != -1) sources[next[targets[link]]++] = index;
+            }
+        }
+        return new int[][] {reverseOffsets, sources};
+    }
+
+    /**
+     * Collects pages and links in any order and sorts them into a graph.
+     */
+    public static class Builder {
+        private int[] pageIds = new int[1024];
+        private boolean[] endings = new boolean[1024];
+        private int pageCount;
+        private int[] linkIds = new int[1024];
+        private int[] linkSources = new int[1024];
+        private int[] linkTargets = new int[1024];
+        private int linkCount;
+
+        /**
+         * @param id id of the page
+         * @param isEnding whether the page is an ending of the gamebook
+         */
+        public void addPage(int id, boolean isEnding) {
+            if (pageCount == pageIds.length) {
+                pageIds = Arrays.copyOf(pageIds, pageCount * 2);
+                endings = Arrays.copyOf(endings, pageCount * 2);
+            }
+            pageIds[pageCount] = id;
+            endings[pageCount] = isEnding;
+            pageCount++;
+        }
+
+        /**
+         * @param id id of the link
+         * @param fromPageId id of the page the link is on
+         * @param toPageId id of the page the link points to
+         */
+        public void addLink(int id, int fromPageId, int toPageId) {
+            if (linkCount == linkIds.length) {
+                linkIds = Arrays.copyOf(linkIds, linkCount * 2);
+                linkSources = Arrays.copyOf(linkSources, linkCount * 2);
+                linkTargets = Arrays.copyOf(linkTargets, linkCount * 2);
+            }
+            linkIds[linkCount] = id;
+            linkSources[linkCount] = fromPageId;
+            linkTargets[linkCount] = toPageId;
+            linkCount++;
+        }
+
+        /**
+         * Builds the graph. Links on pages that don't exist are dropped, since they can never be followed.
+         * @return the graph
+         */
+        public BookGraph build() {
+            // Sort pages by id, carrying the ending flags along
+            long[] keyed = new long[pageCount];
+            for (int i = 0; i < pageCount; i++) keyed[i] = (long) pageIds[i] << 32 | (endings[i] ? 1 : 0);
+            Arrays.parallelSort(keyed);
+            int[] sortedIds = new int[pageCount];
+            boolean[] sortedEndings = new boolean[pageCount];
+            for (int i = 0; i < pageCount; i++) {
+                sortedIds[i] = (int) (keyed[i] >> 32);
+                sortedEndings[i] = (keyed[i] & 1) != 0;
+            }
+
+            // Counting sort of the links by the index of the page they are on, keeping their order within a page
+            int[] sourceIndices = new int[linkCount];
+            int[] offsets = new int[pageCount + 1];
+            for (int i = 0; i < linkCount; i++) {
+                int index = Arrays.binarySearch(sortedIds, linkSources[i]);
+                sourceIndices[i] = index;
+                if (index >= 0) offsets[index + 1]++;
+            }
+            for (int i = 0; i < pageCount; i++) offsets[i + 1] += offsets[i];
+
+            int[] next = Arrays.copyOf(offsets, pageCount);
+            int keptLinks = offsets[pageCount];
+            int[] targets = new int[keptLinks];
+            int[] ids = new int[keptLinks];
+            int[] targetIds = new int[keptLinks];
+            for (int i = 0; i < linkCount; i++) {
+                if (sourceIndices[i] < 0) continue;
+
+                int slot = next[sourceIndices[i]]++;
+                int target = Arrays.binarySearch(sortedIds, linkTargets[i]);
+                targets[slot] = target >= 0 ? target : -1;
+                ids[slot] = linkIds[i];
+                targetIds[slot] = linkTargets[i];
+            }
+
+            return new BookGraph(sortedIds, sortedEndings, offsets, targets, ids, targetIds);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Immutable in-memory copy of a whole gamebook, stored as compact arrays instead of Page and Link objects. Pages are
+ * kept sorted by id, and the links of the page at index i are found at indexes linkOffsets[i] to
+ * linkOffsets[i + 1] - 1 of the link arrays. Used to play a read-only book without querying the database.
+ */
+public class BookSnapshot implements ReadOnlyBook {
+    private final int[] pageIds;
+    private final String[] bodies;
+    private final boolean[] endings;
+    private final int[] linkOffsets;
+    private final int[] linkIds;
+    private final int[] linkTargets;
+    private final String[] linkTexts;
+
+    private BookSnapshot(int[] pageIds, String[] bodies, boolean[] endings, int[] linkOffsets, int[] linkIds,
+                         int[] linkTargets, String[] linkTexts) {
+        this.pageIds = pageIds;
+        this.bodies = bodies;
+        this.endings = endings;
+        this.linkOffsets = linkOffsets;
+        this.linkIds = linkIds;
+        this.linkTargets = linkTargets;
+        this.linkTexts = linkTexts;
+    }
+
+    /**
+     * Loads all pages and links from a store with two streaming reads (two bulk queries for the database).
+     * @param store store to load the book from
+     * @return snapshot of the whole book
+     */
+    public static BookSnapshot load(GamebookStore store) {
+        Builder builder = new Builder();
+        store.streamAllPages(page -> builder.addPage(page.getId(), page.getBody(), page.isEnding()));
+        store.streamAllLinks(link ->
+                builder.addLink(link.getId(), link.getFromPageId(), link.getToPageId(), link.getText()));
+        return builder.build();
+    }
+
+    @Override
+    public int getPageCount() {
+        return pageIds.length;
+    }
+
+    /**
+     * @return number of links in the book whose source page exists
+     */
+    @Override
+    public int getLinkCount() {
+        return linkTargets.length;
+    }
+
+    /**
+     * Finds the index of a page in the snapshot's arrays.
+     * @param pageId id of the page
+     * @return index of the page, or -1 if there is no page with that id
+     */
+    public int indexOf(int pageId) {
+        int index = Arrays.binarySearch(pageIds, pageId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * @param index index of the page
+     * @return id of the page at the index
+     */
+    public int getPageId(int index) {
+        return pageIds[index];
+    }
+
+    /**
+     * @param index index of the page
+     * @return body text of the page at the index
+     */
+    public String getBody(int index) {
+        return bodies[index];
+    }
+
+    /**
+     * @param index index of the page
+     * @return whether the page at the index is an ending of the gamebook
+     */
+    public boolean isEnding(int index) {
+        return endings[index];
+    }
+
+    /**
+     * @param index index of the page
+     * @return index of the first link of the page at the index in the link arrays
+     */
+    public int getFirstLink(int index) {
+        return linkOffsets[index];
+    }
+
+    /**
+     * @param index index of the page
+     * @return number of links on the page at the index
+     */
+    public int getLinkCount(int index) {
+        return linkOffsets[index + 1] - linkOffsets[index];
+    }
+
+    /**
+     * @param link index of the link in the link arrays
+     * @return unique identifier of the link
+     */
+    public int getLinkId(int link) {
+        return linkIds[link];
+    }
+
+    /**
+     * @param link index of the link in the link arrays
+     * @return id of the page the link points to
+     */
+    public int getLinkTarget(int link) {
+        return linkTargets[link];
+    }
+
+    /**
+     * @param link index of the link in the link arrays
+     * @return text of the link, or null
+     */
+    public String getLinkText(int link) {
+        return linkTexts[link];
+    }
+
+    /**
+     * @param index index of the page
+     * @return ids of the pages that the links on the page at the index point to
+     */
+    public int[] getLinkTargets(int index) {
+        return Arrays.copyOfRange(linkTargets, linkOffsets[index], linkOffsets[index + 1]);
+    }
+
+    @Override
+    public Page getPage(int pageId) {
+        int index = indexOf(pageId);
+        if (index == -1) return null;
+
+        ArrayList<Link> links = new ArrayList<>(linkOffsets[index + 1] - linkOffsets[index]);
+        for (int i = linkOffsets[index]; i < linkOffsets[index + 1]; i++) {
+            links.add(new Link(linkIds[i], pageId, linkTargets[i], linkTexts[i]));
+        }
+
+        return new Page(pageId, bodies[index], links, endings[index]);
+    }
+
+    /**
+     * Streams all pages one by one, in order of id. Doesn't include links.
+     * @param consumer consumer that receives each page
+     */
+    public void streamPages(Consumer<Page> consumer) {
+        for (int index = 0; index < pageIds.length; index++) {
+            consumer.accept(new Page(pageIds[index], bodies[index], endings[index]));
+        }
+    }
+
+    /**
+     * Streams all links one by one, grouped by the page they point from in order of id.
+     * @param consumer consumer that receives each link
+     */
+    public void streamLinks(Consumer<Link> consumer) {
+        for (int index = 0; index < pageIds.length; index++) {
+            for (int i = linkOffsets[index]; i < linkOffsets[index + 1]; i++) {
+                consumer.accept(new Link(linkIds[i], pageIds[index], linkTargets[i], linkTexts[i]));
+            }
+        }
+    }
+
+    /**
+     * Estimates how much heap memory the snapshot occupies, counting shared strings once.
+     * @return estimated size in bytes
+     */
+    public long estimateSizeBytes() {
+        long size = 7 * 16L; // Array headers
+        size += 4L * pageIds.length + 4L * bodies.length + endings.length + 4L * linkOffsets.length;
+        size += 4L * linkIds.length + 4L * linkTargets.length + 4L * linkTexts.length;
+
+        IdentityHashMap<String, Boolean> counted = new IdentityHashMap<>();
+        for (String body : bodies) size += estimateStringSize(body, counted);
+        for (String text : linkTexts) size += estimateStringSize(text, counted);
+
+        return size;
+    }
+
+    /**
+     * Estimates the heap size of a string, or 0 if it has already been counted.
+     */
+    private static long estimateStringSize(String string, IdentityHashMap<String, Boolean> counted) {
+        if (string == null || counted.put(string, Boolean.TRUE) != null) return 0;
+
+        // Compact strings use one byte per character unless a character doesn't fit in Latin-1
+        int bytesPerChar = 1;
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+
+        return 24 + 16 + (long) string.length() * bytesPerChar;
+    }
+
+    /**
+     * Collects pages and links in any order and builds an immutable snapshot from them. Identical link texts are
+     * shared between links.
+     */
+    public static class Builder {
+        private int pageCount;
+        private int[] pageIds = new int[64];
+        private String[] bodies = new String[64];
+        private boolean[] endings = new boolean[64];
+
+        private int linkCount;
+        private int[] linkIds = new int[64];
+        private int[] linkFromPageIds = new int[64];
+        private int[] linkTargets = new int[64];
+        private String[] linkTexts = new String[64];
+        private final HashMap<String, String> textPool = new HashMap<>();
+
+        /**
+         * Adds a page to the snapshot.
+         * @param id unique identifier of the page
+         * @param body body text of the page
+         * @param isEnding whether the page is an ending of the gamebook
+         */
+        public void addPage(int id, String body, boolean isEnding) {
+            if (pageCount == pageIds.length) {
+                int capacity = pageCount * 2;
+                pageIds = Arrays.copyOf(pageIds, capacity);
+                bodies = Arrays.copyOf(bodies, capacity);
+                endings = Arrays.copyOf(endings, capacity);
+            }
+
+            pageIds[pageCount] = id;
+            bodies[pageCount] = body;
+            endings[pageCount] = isEnding;
+            pageCount++;
+        }
+
+        /**
+         * Adds a link to the snapshot. Links from pages that are never added are left out of the snapshot.
+         * @param id unique identifier of the link
+         * @param fromPageId id of the page on which the link appears
+         * @param toPageId id of the page to which the link points
+         * @param text text of the link, or null
+         */
+        public void addLink(int id, int fromPageId, int toPageId, String text) {
+            if (linkCount == linkIds.length) {
+                int capacity = linkCount * 2;
+                linkIds = Arrays.copyOf(linkIds, capacity);
+                linkFromPageIds = Arrays.copyOf(linkFromPageIds, capacity);
+                linkTargets = Arrays.copyOf(linkTargets, capacity);
+                linkTexts = Arrays.copyOf(linkTexts, capacity);
+            }
+
+            linkIds[linkCount] = id;
+            linkFromPageIds[linkCount] = fromPageId;
+            linkTargets[linkCount] = toPageId;
+            linkTexts[linkCount] = text == null ? null : textPool.computeIfAbsent(text, key -> key);
+            linkCount++;
+        }
+
+        /**
+         * Builds the snapshot. The builder shouldn't be used afterwards.
+         * @return immutable snapshot of the added pages and links
+         */
+        public BookSnapshot build() {
+            // Sort the pages by id, packing each id together with its original index to sort primitives
+            long[] order = new long[pageCount];
+            for (int i = 0; i < pageCount; i++) order[i] = ((long) pageIds[i] << 32) | i;
+            Arrays.sort(order);
+
+            int[] sortedIds = new int[pageCount];
+            String[] sortedBodies = new String[pageCount];
+            boolean[] sortedEndings = new boolean[pageCount];
+            for (int i = 0; i < pageCount; i++) {
+                int original = (int) order[i];
+                sortedIds[i] = pageIds[original];
+                sortedBodies[i] = bodies[original];
+                sortedEndings[i] = endings[original];
+            }
+
+            // Count the links of each page, then place every link in its page's slice of the link arrays
+            int[] fromIndexes = new int[linkCount];
+            int[] offsets = new int[pageCount + 1];
+            for (int i = 0; i < linkCount; i++) {
+                int fromIndex = Arrays.binarySearch(sortedIds, linkFromPageIds[i]);
+                fromIndexes[i] = fromIndex;
+                if (fromIndex >= 0) offsets[fromIndex + 1]++;
+            }
+            for (int i = 0; i < pageCount; i++) offsets[i + 1] += offsets[i];
+
+            int total = offsets[pageCount];
+            int[] sortedLinkIds = new int[total];
+            int[] sortedTargets = new int[total];
+            String[] sortedTexts = new String[total];
+            int[] next = Arrays.copyOf(offsets, pageCount);
+            for (int i = 0; i < linkCount; i++) {
+                if (fromIndexes[i] < 0) continue;
+                int position = next[fromIndexes[i]]++;
+                sortedLinkIds[position] = linkIds[i];
+                sortedTargets[position] = linkTargets[i];
+                sortedTexts[position] = linkTexts[i];
+            }
+
+            return new BookSnapshot(sortedIds, sortedBodies, sortedEndings, offsets, sortedLinkIds, sortedTargets,
+                    sortedTexts);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.sql.*;
+
+/**
+ * Microbenchmark that compares the throughput of page body updates built by string concatenation with updates that
+ * go through DatabaseModel's prepared statements. Runs against the database in the DatabaseLoginData class, using a
+ * scratch page that is deleted again afterwards.
+ */
+public class BulkEditBenchmark {
+    private static final int WARMUP_EDITS = 500;
+    private static final int DEFAULT_EDITS = 5000;
+
+    /**
+     * Entry point for the benchmark.
+     * @param args optional number of edits to measure per variant
+     */
+    public static void main(String[] args) throws SQLException {
+        int edits = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EDITS;
+
+        DatabaseModel databaseModel = new DatabaseModel();
+        try (Connection connection = DriverManager.getConnection(DatabaseModel.getConnectionUrl(),
+                DatabaseLoginData.username, DatabaseLoginData.password)) {
+            int pageId = createScratchPage(connection);
+
+            try {
+                runConcatenated(connection, pageId, WARMUP_EDITS);
+                double before = runConcatenated(connection, pageId, edits);
+
+                runPrepared(databaseModel, pageId, WARMUP_EDITS);
+                double after = runPrepared(databaseModel, pageId, edits);
+
+                System.out.printf("Concatenated statements: %,.0f edits/s%n", before);
+                System.out.printf("Prepared statements:     %,.0f edits/s%n", after);
+                System.out.printf("Speedup:                 %.2fx%n", after / before);
+            } finally {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("DELETE FROM pages WHERE page_id=" + pageId);
+                }
+            }
+        } finally {
+            databaseModel.closeConnection();
+        }
+    }
+
+    /**
+     * Inserts a page that the benchmark can freely edit.
+     * @param connection connection to insert the page with
+     * @return id of the inserted page
+     */
+    private static int createScratchPage(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO pages (body, is_ending) VALUES ('', 0)",
+                    Statement.RETURN_GENERATED_KEYS);
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Updates a page body repeatedly the way DatabaseModel used to, with a new concatenated statement per edit.
+     * @return edits per second
+     */
+    private static double runConcatenated(Connection connection, int pageId, int edits) throws SQLException {
+        long start = System.nanoTime();
+        for (int i = 0; i < edits; i++) {
+            Statement statement = connection.createStatement();
+            statement.executeUpdate("UPDATE pages SET body='Edit " + i + "' WHERE page_id=" + pageId);
+            statement.close();
+        }
+        return edits / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Updates a page body repeatedly through DatabaseModel, which reuses one prepared statement.
+     * @return edits per second
+     */
+    private static double runPrepared(DatabaseModel databaseModel, int pageId, int edits) {
+        long start = System.nanoTime();
+        for (int i = 0; i < edits; i++) {
+            databaseModel.updatePageBody(pageId, "Edit " + i);
+        }
+        return edits / ((System.nanoTime() - start) / 1e9);
+    }
+}
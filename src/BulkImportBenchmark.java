@@ -0,0 +1,42 @@
+import java.util.Map;
+
+/**
+ * Measures the throughput of DatabaseModel's bulk import by importing a generated book into the database in the
+ * DatabaseLoginData class. The imported pages and links are left in the database.
+ */
+public class BulkImportBenchmark {
+    private static final int DEFAULT_PAGES = 100_000;
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * Entry point for the benchmark.
+     * @param args optional number of pages to generate and optional number of rows per batch and transaction
+     */
+    public static void main(String[] args) {
+        int pageCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PAGES;
+        int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHUNK_SIZE;
+
+        BookSnapshot book = SyntheticBookGenerator.generate(pageCount, 3, 40, 42);
+        System.out.printf("Generated %,d pages and %,d links%n", book.getPageCount(), book.getLinkCount());
+
+        DatabaseModel databaseModel = new DatabaseModel();
+        try {
+            long start = System.nanoTime();
+            Map<Integer, Integer> newPageIds = databaseModel.importBook(book::streamPages, book::streamLinks,
+                    chunkSize);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            if (newPageIds == null) {
+                System.out.println("Import failed");
+                return;
+            }
+
+            int rows = book.getPageCount() + book.getLinkCount();
+            System.out.printf("Imported %,d rows in %.2f s with chunks of %,d: %,.0f rows/s%n",
+                    rows, seconds, chunkSize, rows / seconds);
+            System.out.printf("Page 1 of the generated book is page %d in the database%n", newPageIds.get(1));
+        } finally {
+            databaseModel.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the page cache of a DatabaseModel up to date with changes made by every program that uses the same database.
+ * The change tracking triggers log each change to the changes table in the same transaction as the change, together
+ * with the page it affects. Every gamebook.changeLogPollMillis milliseconds, the poller reads the entries after the
+ * last one it has seen with a range scan of the primary key, invalidates only the affected pages and tells its
+ * listeners which pages changed.
+ * <p>
+ * Entries are numbered by revision, which leaves no gaps, so a gap means that entries were pruned before they could
+ * be read; the whole cache is then invalidated. Entries older than gamebook.changeLogRetentionHours hours are pruned
+ * every few minutes.
+ */
+public class ChangeLogPoller {
+    private static final long DEFAULT_POLL_MILLIS = 1000;
+    private static final long DEFAULT_RETENTION_HOURS = 24;
+    private static final long PRUNE_INTERVAL_MILLIS = 10 * 60 * 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final Logger LOGGER = Logger.getLogger(ChangeLogPoller.class.getName());
+
+    private final DatabaseModel model;
+    private final PageCache pageCache;
+    private final CopyOnWriteArrayList<Listener> listeners;
+    private final long retentionHours;
+    private final ScheduledExecutorService poller;
+    private volatile long lastSeq;
+    private long lastPruneMillis;
+
+    /**
+     * Listener for changes read from the change log.
+     */
+    public interface Listener {
+        /**
+         * Called on the polling thread once the changed pages have been invalidated.
+         * @param pageIds ids of the pages that were created, changed or deleted, or whose links were, or null if
+         *                entries were missed and any page may have changed
+         */
+        void pagesChanged(Set<Integer> pageIds);
+    }
+
+    /**
+     * An entry of the change log.
+     */
+    public static class Entry {
+        private final long seq;
+        private final int pageId;
+
+        /**
+         * @param seq sequence number of the entry, which is the revision of the change
+         * @param pageId id of the page that the change affects, or 0 if it doesn't affect a page
+         */
+        public Entry(long seq, int pageId) {
+            this.seq = seq;
+            this.pageId = pageId;
+        }
+
+        /**
+         * @return sequence number of the entry, which is the revision of the change
+         */
+        public long getSeq() {
+            return seq;
+        }
+
+        /**
+         * @return id of the page that the change affects, or 0 if it doesn't affect a page
+         */
+        public int getPageId() {
+            return pageId;
+        }
+    }
+
+    /**
+     * Constructs a poller that starts after the model's current revision, and starts polling in the background unless
+     * the gamebook.changeLogPollMillis system property is 0.
+     * @param model model to read the change log from
+     */
+    public ChangeLogPoller(DatabaseModel model) {
+        this.model = model;
+        pageCache = model.getPageCache();
+        listeners = new CopyOnWriteArrayList<>();
+        retentionHours = Long.getLong("gamebook.changeLogRetentionHours", DEFAULT_RETENTION_HOURS);
+        lastSeq = model.getRevision();
+        lastPruneMillis = System.currentTimeMillis();
+
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-log-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long pollMillis = Long.getLong("gamebook.changeLogPollMillis", DEFAULT_POLL_MILLIS);
+        if (pollMillis > 0) {
+            poller.scheduleWithFixedDelay(this::pollInBackground, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param listener listener to call after each poll that found changes
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return sequence number of the last entry that has been read
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Reads all entries after the last one that has been read, invalidates the pages they affect and calls the
+     * listeners. Entries are read in batches, so a burst of changes doesn't have to be read in one query.
+     * @return number of entries read
+     */
+    public synchronized int poll() {
+        int count = 0;
+        ArrayList<Entry> entries;
+        do {
+            entries = model.getChangeLogAfter(lastSeq, BATCH_SIZE);
+            if (entries == null || entries.isEmpty()) break;
+
+            if (entries.get(0).getSeq() != lastSeq + 1) {
+                pageCache.invalidateAll();
+                for (Listener listener : listeners) listener.pagesChanged(null);
+            } else {
+                HashSet<Integer> pageIds = new HashSet<>();
+                for (Entry entry : entries) {
+                    if (entry.getPageId() > 0) pageIds.add(entry.getPageId());
+                }
+                for (int pageId : pageIds) pageCache.invalidate(pageId);
+                for (Listener listener : listeners) listener.pagesChanged(pageIds);
+            }
+
+            lastSeq = entries.get(entries.size() - 1).getSeq();
+            count += entries.size();
+        } while (entries.size() == BATCH_SIZE);
+
+        return count;
+    }
+
+    /**
+     * Stops polling in the background.
+     */
+    public void close() {
+        poller.shutdown();
+        try {
+            poller.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Polls on the background thread, and prunes old entries when it is time to.
+     */
+    private void pollInBackground() {
+        try {
+            poll();
+
+            long now = System.currentTimeMillis();
+            if (now - lastPruneMillis < PRUNE_INTERVAL_MILLIS) return;
+            lastPruneMillis = now;
+            while (model.pruneChangeLog(retentionHours, BATCH_SIZE) == BATCH_SIZE) {
+                if (poller.isShutdown()) return;
+            }
+        } catch (RuntimeException ex) {
+            // A failing listener mustn't stop the polling
+            LOGGER.log(Level.WARNING, "Polling the change log failed", ex);
+        }
+    }
+}
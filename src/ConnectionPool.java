@@ -0,0 +1,344 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Small pool of database connections. Keeps between a minimum and a maximum number of connections open, validates
+ * connections when they are borrowed, closes connections that have been idle for too long and replaces connections
+ * that the server has dropped.
+ */
+public class ConnectionPool {
+    /**
+     * Connections that were used less than this many milliseconds ago are handed out without validation.
+     */
+    private static final long VALIDATION_BYPASS_MILLIS = 1000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+
+    private final ArrayDeque<PooledConnection> idleConnections;
+    private final ScheduledExecutorService maintenanceExecutor;
+    private int totalConnections;
+    private boolean closed;
+
+    /**
+     * A pooled connection together with the prepared statements that belong to it.
+     */
+    public static class PooledConnection {
+        private final Connection connection;
+        private final StatementRegistry statements;
+        private long lastUsedMillis;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            statements = new StatementRegistry(connection);
+            lastUsedMillis = System.currentTimeMillis();
+        }
+
+        /**
+         * @return underlying JDBC connection
+         */
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * @return registry of prepared statements on this connection
+         */
+        public StatementRegistry getStatements() {
+            return statements;
+        }
+
+        /**
+         * Closes the prepared statements and the connection, ignoring errors since the connection may already be
+         * broken.
+         */
+        private void closeQuietly() {
+            statements.close();
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Constructs a pool and opens the minimum number of connections. If the database can't be reached yet, the pool
+     * keeps trying to reconnect in the background and when connections are borrowed.
+     * @param url JDBC URL of the database
+     * @param username database username
+     * @param password database password
+     * @param minSize number of connections to keep open even when they are idle
+     * @param maxSize maximum number of connections open at the same time
+     * @param idleTimeoutMillis how long a connection above the minimum may stay idle before it is closed
+     * @param borrowTimeoutMillis how long borrow() waits for a connection when all of them are in use
+     */
+    public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+                          long idleTimeoutMillis, long borrowTimeoutMillis) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Pool size must satisfy 0 <= minSize <= maxSize and maxSize >= 1");
+        }
+
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        idleConnections = new ArrayDeque<>();
+
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(idleTimeoutMillis / 2, 1000);
+        maintenanceExecutor.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+
+        try {
+            fillToMinimum();
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't open the minimum number of database connections", ex);
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool. Idle connections are validated before they are handed out and replaced
+     * with a new connection if the server has dropped them. Must be given back with release().
+     * @return a connection that is reserved for the caller
+     * @throws SQLException if no connection could be opened or none became available in time
+     */
+    public PooledConnection borrow() throws SQLException {
+        long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+
+        while (true) {
+            PooledConnection pooled = null;
+            boolean mayOpen = false;
+
+            synchronized (this) {
+                if (closed) throw new SQLException("Connection pool is closed");
+
+                if (!idleConnections.isEmpty()) {
+                    pooled = idleConnections.pollFirst();
+                } else if (totalConnections < maxSize) {
+                    // Reserve a slot so that other threads don't exceed the maximum while the connection opens
+                    totalConnections++;
+                    mayOpen = true;
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) throw new SQLException("Timed out waiting for a database connection");
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection", ex);
+                    }
+                    continue;
+                }
+            }
+
+            if (mayOpen) return openConnection();
+            if (isUsable(pooled)) return pooled;
+
+            // The connection has been dropped, so discard it and try again (possibly opening a new one)
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool. Does nothing if the connection is null.
+     * @param pooled connection that was returned by borrow()
+     */
+    public void release(PooledConnection pooled) {
+        release(pooled, false);
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool. A connection on which work failed is validated first, and closed
+     * instead of being handed out again if the server has dropped it, so that its slot can be filled with a new
+     * connection. Does nothing if the connection is null.
+     * @param pooled connection that was returned by borrow()
+     * @param failed whether work on the connection failed with an SQLException
+     */
+    public void release(PooledConnection pooled, boolean failed) {
+        if (pooled == null) return;
+
+        if (failed && !isValid(pooled)) {
+            discard(pooled);
+            return;
+        }
+
+        pooled.lastUsedMillis = System.currentTimeMillis();
+        synchronized (this) {
+            if (!closed) {
+                idleConnections.offerFirst(pooled);
+                notify();
+                return;
+            }
+        }
+
+        discard(pooled);
+    }
+
+    /**
+     * @return number of open connections, both idle and borrowed
+     */
+    public synchronized int getTotalConnections() {
+        return totalConnections;
+    }
+
+    /**
+     * @return number of open connections that are waiting to be borrowed
+     */
+    public synchronized int getIdleConnections() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Closes all idle connections and stops the pool. Connections that are still borrowed are closed when they are
+     * released.
+     */
+    public void close() {
+        ArrayDeque<PooledConnection> drained;
+        synchronized (this) {
+            closed = true;
+            drained = new ArrayDeque<>(idleConnections);
+            idleConnections.clear();
+            notifyAll();
+        }
+
+        maintenanceExecutor.shutdownNow();
+        for (PooledConnection pooled : drained) discard(pooled);
+    }
+
+    /**
+     * Opens a new connection in a slot that has already been counted in totalConnections.
+     */
+    private PooledConnection openConnection() throws SQLException {
+        try {
+            return new PooledConnection(DriverManager.getConnection(url, username, password));
+        } catch (SQLException ex) {
+            synchronized (this) {
+                totalConnections--;
+                notify();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Checks whether a connection can still be used, pinging the server if it has been idle for a while.
+     */
+    private boolean isUsable(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsedMillis < VALIDATION_BYPASS_MILLIS) return true;
+        return isValid(pooled);
+    }
+
+    /**
+     * Pings the server to check whether a connection still works. A connection that doesn't is logged, since every
+     * caller discards it.
+     */
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            if (pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) return true;
+            LOGGER.warning("Discarding a database connection that the server has dropped");
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "Discarding a database connection that couldn't be validated", ex);
+        }
+        return false;
+    }
+
+    /**
+     * Closes a connection and frees its slot in the pool.
+     */
+    private void discard(PooledConnection pooled) {
+        pooled.closeQuietly();
+        synchronized (this) {
+            totalConnections--;
+            notify();
+        }
+    }
+
+    /**
+     * Opens connections until the pool holds at least the minimum number.
+     */
+    private void fillToMinimum() throws SQLException {
+        while (true) {
+            synchronized (this) {
+                if (closed || totalConnections >= minSize) return;
+                totalConnections++;
+            }
+            release(openConnection());
+        }
+    }
+
+    /**
+     * Periodic maintenance: closes connections above the minimum that have been idle for too long, drops idle
+     * connections that are no longer valid and reconnects up to the minimum. Idle connections are validated one at a
+     * time, so that the others can be borrowed in the meantime.
+     */
+    private void maintain() {
+        ArrayDeque<PooledConnection> evicted = new ArrayDeque<>();
+        ArrayList<PooledConnection> toValidate;
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            int removable = totalConnections - minSize;
+            Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+            while (iterator.hasNext() && removable > 0) {
+                PooledConnection pooled = iterator.next();
+                if (now - pooled.lastUsedMillis > idleTimeoutMillis) {
+                    iterator.remove();
+                    evicted.add(pooled);
+                    removable--;
+                }
+            }
+            toValidate = new ArrayList<>(idleConnections);
+        }
+
+        for (PooledConnection pooled : evicted) discard(pooled);
+        for (PooledConnection pooled : toValidate) {
+            synchronized (this) {
+                // Skip connections that have been borrowed in the meantime; borrow() validates them itself
+                if (closed) return;
+                if (!idleConnections.remove(pooled)) continue;
+            }
+
+            if (isUsable(pooled)) {
+                synchronized (this) {
+                    if (!closed) {
+                        // Validation doesn't count as use, so put it at the least recently used end rather than
+                        // back where it was taken from. Connections are validated from the most recently used end,
+                        // so once all of them have been validated, they are back in their original order.
+                        idleConnections.offerLast(pooled);
+                        notify();
+                        continue;
+                    }
+                }
+            }
+            discard(pooled);
+        }
+
+        try {
+            fillToMinimum();
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't reconnect up to the minimum number of database connections", ex);
+        }
+    }
+}
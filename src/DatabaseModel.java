@@ -1,13 +1,107 @@
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Model that handles reading from and writing to a MySQL database.
  */
-public class DatabaseModel {
-    private Connection connection;
-    private ArrayList<Page> pagesCache;
-    private ArrayList<Link> linksCache;
+public class DatabaseModel implements GamebookStore {
+    private static final String SELECT_ALL_PAGES = "SELECT page_id, body, is_ending FROM pages";
+    private static final String COUNT_PAGES = "SELECT COUNT(*) FROM pages";
+    private static final String SELECT_PAGE_PREVIEWS_AFTER =
+            "SELECT page_id, LEFT(body, ?) AS body, is_ending FROM pages WHERE page_id > ? ORDER BY page_id LIMIT ?";
+    private static final String SELECT_PAGE_PREVIEWS_AT =
+            "SELECT page_id, LEFT(body, ?) AS body, is_ending FROM pages ORDER BY page_id LIMIT ? OFFSET ?";
+    private static final String SELECT_PAGE_EXISTS = "SELECT 1 FROM pages WHERE page_id = ?";
+    private static final String SELECT_MAX_PAGE_ID = "SELECT COALESCE(MAX(page_id), 0) FROM pages";
+    private static final String SELECT_REVISION = "SELECT revision FROM revision_counter WHERE id = 1";
+    private static final String SELECT_PAGES_CHANGED_SINCE =
+            "SELECT page_id, LEFT(body, ?) AS body, is_ending FROM pages " +
+                    "WHERE revision > ? AND revision <= ? ORDER BY page_id";
+    private static final String SELECT_LINKS_CHANGED_SINCE =
+            "SELECT link_id, text, from_page_id, to_page_id FROM links " +
+                    "WHERE revision > ? AND revision <= ? ORDER BY link_id";
+    private static final String SELECT_TOMBSTONES_SINCE =
+            "SELECT table_name, row_id FROM tombstones WHERE revision > ? AND revision <= ? ORDER BY revision";
+    private static final String SELECT_CHANGE_LOG_AFTER =
+            "SELECT seq, page_id FROM changes WHERE seq > ? ORDER BY seq LIMIT ?";
+    private static final String PRUNE_CHANGE_LOG =
+            "DELETE FROM changes WHERE changed_at < NOW() - INTERVAL ? HOUR ORDER BY seq LIMIT ?";
+    private static final String SELECT_PAGE_WITH_LINKS =
+            "SELECT p.page_id, p.body, p.is_ending, l.link_id, l.text, l.to_page_id " +
+                    "FROM pages p LEFT JOIN links l ON l.from_page_id = p.page_id " +
+                    "WHERE p.page_id = ? ORDER BY l.link_id";
+    private static final String SELECT_PAGES_WITH_LINKS =
+            "SELECT p.page_id, p.body, p.is_ending, l.link_id, l.text, l.to_page_id " +
+                    "FROM pages p LEFT JOIN links l ON l.from_page_id = p.page_id " +
+                    "WHERE p.page_id IN (%s) ORDER BY p.page_id, l.link_id";
+    private static final String SELECT_LINKS_FROM_PAGE =
+            "SELECT link_id, text, to_page_id FROM links WHERE from_page_id = ? ORDER BY link_id";
+    private static final String STREAM_ALL_PAGES = "SELECT page_id, body, is_ending FROM pages ORDER BY page_id";
+    private static final String STREAM_ALL_LINKS =
+            "SELECT link_id, text, from_page_id, to_page_id FROM links ORDER BY from_page_id, link_id";
+    private static final String INSERT_PAGE = "INSERT INTO pages (body, is_ending) VALUES ('', 0)";
+    private static final String INSERT_LINK = "INSERT INTO links (from_page_id, to_page_id) VALUES (?, ?)";
+    private static final String IMPORT_PAGE = "INSERT INTO pages (body, is_ending) VALUES (?, ?)";
+    private static final String IMPORT_LINK = "INSERT INTO links (text, from_page_id, to_page_id) " +
+            "VALUES (?, ?, (SELECT page_id FROM pages WHERE page_id = ?))";
+    private static final String UPDATE_PAGE_BODY = "UPDATE pages SET body = ? WHERE page_id = ?";
+    private static final String UPDATE_PAGE_IS_ENDING = "UPDATE pages SET is_ending = ? WHERE page_id = ?";
+    private static final String UPDATE_LINK_TEXT = "UPDATE links SET text = ? WHERE link_id = ?";
+    private static final String UPDATE_LINK_TO_PAGE_ID = "UPDATE links SET to_page_id = ? WHERE link_id = ?";
+    private static final String SELECT_PAGES_LINKING_TO =
+            "SELECT DISTINCT from_page_id FROM links WHERE to_page_id = ?";
+    private static final String UNLINK_PAGE = "UPDATE links SET to_page_id = NULL WHERE to_page_id = ?";
+    private static final String DELETE_LINKS_FROM_PAGE = "DELETE FROM links WHERE from_page_id = ?";
+    private static final String DELETE_PAGE = "DELETE FROM pages WHERE page_id = ?";
+    private static final String DELETE_LINK = "DELETE FROM links WHERE link_id = ?";
+
+    private static final int DEFAULT_MIN_CONNECTIONS = 1;
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    private static final long BORROW_TIMEOUT_MILLIS = 10 * 1000;
+    private static final long DEFAULT_SLOW_QUERY_MILLIS = 250;
+    private static final Logger LOGGER = Logger.getLogger(DatabaseModel.class.getName());
+    private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+
+    private final ConnectionPool connectionPool;
+    private volatile ArrayList<Page> pagesCache;
+    private volatile ArrayList<Link> linksCache;
+    private final PageCache pageCache = new PageCache();
+    private final QueryMetrics metrics;
+    private final ChangeLogPoller changeLogPoller;
+
+    /**
+     * Carries an SQLException out of a lambda, where checked exceptions can't be thrown.
+     */
+    private static class UncheckedSqlException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedSqlException(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+
+    /**
+     * Database work that runs on a connection borrowed from the pool.
+     * @param <T> type of the result
+     */
+    private interface SqlOperation<T> {
+        T run(ConnectionPool.PooledConnection connection) throws SQLException;
+    }
 
     public ArrayList<Page> getPagesCache() {
         return pagesCache;
@@ -17,19 +111,115 @@ public class DatabaseModel {
         return linksCache;
     }
 
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    /**
+     * Adds a listener that is told which pages have changed, by this or any other program using the same database.
+     * The changed pages have already been invalidated in the page cache when it is called.
+     * @param listener listener to call from the change log polling thread
+     */
+    public void addChangeListener(ChangeLogPoller.Listener listener) {
+        changeLogPoller.addListener(listener);
+    }
+
     /**
-     * Constructs a DatabaseModel and establishes a connection to a MySQL database using the credentials in the
-     * DatabaseLoginData class.
+     * @return call counts, errors, rows and latencies of this model's operations
+     */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Constructs a DatabaseModel with a pool of connections to a MySQL database using the credentials in the
+     * DatabaseLoginData class. Schema migrations that haven't been applied to the database yet are run first, unless
+     * the gamebook.skipMigrations system property is set.
+     * <p>
+     * Query metrics are registered with JMX. Calls slower than the gamebook.slowQueryMillis system property are
+     * logged, and a summary is logged every gamebook.metricsReportSeconds seconds if that property is set.
+     * <p>
+     * A ChangeLogPoller keeps the page cache up to date with changes made by other programs using the same database.
+     * @param minConnections number of connections to keep open even when they are idle
+     * @param maxConnections maximum number of connections open at the same time
+     */
+    public DatabaseModel(int minConnections, int maxConnections) {
+        connectionPool = new ConnectionPool(getConnectionUrl(),
+                DatabaseLoginData.username, DatabaseLoginData.password,
+                minConnections, maxConnections, IDLE_TIMEOUT_MILLIS, BORROW_TIMEOUT_MILLIS);
+
+        metrics = new QueryMetrics(pageCache, Long.getLong("gamebook.slowQueryMillis", DEFAULT_SLOW_QUERY_MILLIS));
+        metrics.register("DatabaseModel-" + INSTANCE_COUNT.incrementAndGet());
+        long reportSeconds = Long.getLong("gamebook.metricsReportSeconds", 0);
+        if (reportSeconds > 0) metrics.startReporter(reportSeconds);
+
+        if (!Boolean.getBoolean("gamebook.skipMigrations")) {
+            execute("migrateSchema", connection -> SchemaMigrator.migrate(connection.getConnection()), 0);
+        }
+        changeLogPoller = new ChangeLogPoller(this);
+    }
+
+    /**
+     * Constructs a DatabaseModel with the default connection pool size.
      */
     public DatabaseModel() {
+        this(DEFAULT_MIN_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Builds the JDBC URL for the database in the DatabaseLoginData class. Server-side prepared statements are
+     * enabled and cached by the driver, so that a statement is only parsed once by the server. Batched inserts are
+     * rewritten by the driver into multi-row inserts.
+     * @return JDBC URL of the database
+     */
+    static String getConnectionUrl() {
+        return "jdbc:mysql://" + DatabaseLoginData.address + ":" + DatabaseLoginData.port + "/" +
+                DatabaseLoginData.database +
+                "?allowPublicKeyRetrieval=true&useSSL=false&serverTimezone=UTC" +
+                "&useServerPrepStmts=true&cachePrepStmts=true&rewriteBatchedStatements=true";
+    }
+
+    /**
+     * Runs database work on a connection borrowed from the pool and gives the connection back afterwards.
+     * @param name name of the operation in the query metrics
+     * @param operation work to run
+     * @param fallback result to return if the work encountered an SQL error
+     * @param <T> type of the result
+     * @return result of the work, or the fallback if it encountered an SQL error
+     */
+    private <T> T execute(String name, SqlOperation<T> operation, T fallback) {
+        return execute(name, operation, fallback, result -> 0);
+    }
+
+    /**
+     * Runs database work on a connection borrowed from the pool and gives the connection back afterwards. If the work
+     * fails, the pool checks the connection and replaces it if the server has dropped it. The call is recorded in the
+     * query metrics under the name of the operation, including the time spent waiting for a connection.
+     * @param name name of the operation in the query metrics
+     * @param operation work to run
+     * @param fallback result to return if the work encountered an SQL error
+     * @param rowCounter counts the rows that a result was built from, or that were changed
+     * @param <T> type of the result
+     * @return result of the work, or the fallback if it encountered an SQL error
+     */
+    private <T> T execute(String name, SqlOperation<T> operation, T fallback, ToIntFunction<T> rowCounter) {
+        ConnectionPool.PooledConnection connection = null;
+        long start = System.nanoTime();
+        T result = fallback;
+        boolean failed = false;
+
         try {
-            connection = DriverManager.getConnection(
-                    "jdbc:mysql://" + DatabaseLoginData.address + ":" + DatabaseLoginData.port + "/" +
-                            DatabaseLoginData.database +
-                            "? allowPublicKeyRetrieval=true&useSSL=false&serverTimezone=UTC",
-                    DatabaseLoginData.username, DatabaseLoginData.password);
+            connection = connectionPool.borrow();
+            result = operation.run(connection);
+            return result;
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            failed = true;
+            LOGGER.log(Level.WARNING, name + " failed", ex);
+            return fallback;
+        } finally {
+            String sql = connection == null ? null : connection.getStatements().takeLastSql();
+            connectionPool.release(connection, failed);
+            metrics.record(name, System.nanoTime() - start, failed ? 0 : rowCounter.applyAsInt(result), failed, sql);
         }
     }
 
@@ -38,90 +228,405 @@ public class DatabaseModel {
      * @return all pages in the database
      */
     public ArrayList<Page> getAllPages() {
-        ArrayList<Page> pages = new ArrayList<>();
-
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "SELECT * FROM pages";
-            ResultSet resultSet = statement.executeQuery(query);
+        ArrayList<Page> pages = execute("getAllPages", connection -> {
+            ArrayList<Page> result = new ArrayList<>();
+            PreparedStatement statement = connection.getStatements().get(SELECT_ALL_PAGES);
 
             // Loop through the result set and populate the pages ArrayList
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("page_id");
+                    String body = resultSet.getString("body");
+                    boolean isEnding = resultSet.getBoolean("is_ending");
+
+                    result.add(new Page(id, body, isEnding));
+                }
+            }
+
+            return result;
+        }, new ArrayList<>(), ArrayList::size);
+
+        pagesCache = pages;
+        return pages;
+    }
+
+    /**
+     * Counts the pages in the database.
+     * @return number of pages, or 0 if the SQL query encountered an error
+     */
+    public int getPageCount() {
+        return execute("getPageCount", connection -> {
+            try (ResultSet resultSet = connection.getStatements().get(COUNT_PAGES).executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        }, 0);
+    }
+
+    /**
+     * Fetches a window of page previews with keyset pagination, which uses the primary key index to jump straight to
+     * the window no matter how far into the book it is.
+     * @param afterPageId id of the last page before the window, or Integer.MIN_VALUE for the first window
+     * @param limit maximum number of pages to fetch
+     * @return up to limit pages with truncated bodies, ordered by id
+     */
+    public ArrayList<Page> getPagePreviewsAfter(int afterPageId, int limit) {
+        return execute("getPagePreviewsAfter", connection -> {
+            PreparedStatement statement = connection.getStatements().get(SELECT_PAGE_PREVIEWS_AFTER);
+            statement.setInt(1, PREVIEW_LENGTH);
+            statement.setInt(2, afterPageId);
+            statement.setInt(3, limit);
+            return readPagePreviews(statement);
+        }, new ArrayList<>(), ArrayList::size);
+    }
+
+    /**
+     * Fetches a window of page previews with LIMIT and OFFSET. The database has to walk past every skipped row, so
+     * this is only used for windows whose preceding page id isn't known.
+     * @param offset number of pages before the window
+     * @param limit maximum number of pages to fetch
+     * @return up to limit pages with truncated bodies, ordered by id
+     */
+    public ArrayList<Page> getPagePreviewsAt(int offset, int limit) {
+        return execute("getPagePreviewsAt", connection -> {
+            PreparedStatement statement = connection.getStatements().get(SELECT_PAGE_PREVIEWS_AT);
+            statement.setInt(1, PREVIEW_LENGTH);
+            statement.setInt(2, limit);
+            statement.setInt(3, offset);
+            return readPagePreviews(statement);
+        }, new ArrayList<>(), ArrayList::size);
+    }
+
+    /**
+     * Checks whether a page exists in the database.
+     * @param pageId id of a page
+     * @return whether a page with the id exists, or false if the SQL query encountered an error
+     */
+    public boolean pageExists(int pageId) {
+        return execute("pageExists", connection -> {
+            PreparedStatement statement = connection.getStatements().get(SELECT_PAGE_EXISTS);
+            statement.setInt(1, pageId);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }, false);
+    }
+
+    /**
+     * Looks up the highest page id, using the primary key index.
+     * @return highest page id, or 0 if there are no pages or the SQL query encountered an error
+     */
+    public int getMaxPageId() {
+        return execute("getMaxPageId", connection -> {
+            try (ResultSet resultSet = connection.getStatements().get(SELECT_MAX_PAGE_ID).executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        }, 0);
+    }
+
+    /**
+     * Reads the current revision from the revision counter that the change tracking triggers maintain.
+     * @return current revision, or 0 if the SQL query encountered an error
+     */
+    public long getRevision() {
+        return execute("getRevision", connection -> {
+            try (ResultSet resultSet = connection.getStatements().get(SELECT_REVISION).executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0L;
+            }
+        }, 0L);
+    }
+
+    /**
+     * Fetches the rows that have changed since a revision, using the revision indexes and the tombstones table. All
+     * queries run in one read-only transaction, so they see the same consistent snapshot of the database.
+     * @param revision revision that the client has already seen
+     * @return changes since the revision, or null if the SQL queries encountered an error
+     */
+    public BookChanges getChangesSince(long revision) {
+        return execute("getChangesSince", connection -> {
+            Connection jdbcConnection = connection.getConnection();
+            StatementRegistry statements = connection.getStatements();
+            jdbcConnection.setAutoCommit(false);
+
+            try {
+                BookChanges changes;
+                try (ResultSet resultSet = statements.get(SELECT_REVISION).executeQuery()) {
+                    changes = new BookChanges(resultSet.next() ? resultSet.getLong(1) : revision);
+                }
+
+                PreparedStatement pagesStatement = statements.get(SELECT_PAGES_CHANGED_SINCE);
+                pagesStatement.setInt(1, PREVIEW_LENGTH);
+                pagesStatement.setLong(2, revision);
+                pagesStatement.setLong(3, changes.getRevision());
+                changes.getChangedPages().addAll(readPagePreviews(pagesStatement));
+
+                PreparedStatement linksStatement = statements.get(SELECT_LINKS_CHANGED_SINCE);
+                linksStatement.setLong(1, revision);
+                linksStatement.setLong(2, changes.getRevision());
+                try (ResultSet resultSet = linksStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int id = resultSet.getInt("link_id");
+                        String text = resultSet.getString("text");
+                        int fromPageId = resultSet.getInt("from_page_id");
+                        int toPageId = resultSet.getInt("to_page_id");
+                        changes.getChangedLinks().add(new Link(id, fromPageId, toPageId, text));
+                    }
+                }
+
+                PreparedStatement tombstonesStatement = statements.get(SELECT_TOMBSTONES_SINCE);
+                tombstonesStatement.setLong(1, revision);
+                tombstonesStatement.setLong(2, changes.getRevision());
+                try (ResultSet resultSet = tombstonesStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int id = resultSet.getInt("row_id");
+                        if (resultSet.getString("table_name").equals("pages")) {
+                            changes.getDeletedPageIds().add(id);
+                        } else {
+                            changes.getDeletedLinkIds().add(id);
+                        }
+                    }
+                }
+
+                jdbcConnection.commit();
+                return changes;
+            } catch (SQLException ex) {
+                jdbcConnection.rollback();
+                throw ex;
+            } finally {
+                jdbcConnection.setAutoCommit(true);
+            }
+        }, null, changes -> changes == null ? 0 : changes.size());
+    }
+
+    /**
+     * Fetches entries of the change log that the change tracking triggers write, using the primary key index.
+     * @param seq sequence number of the last entry that the client has already seen
+     * @param limit maximum number of entries to fetch
+     * @return up to limit entries after the sequence number in order, or null if the SQL query encountered an error
+     */
+    public ArrayList<ChangeLogPoller.Entry> getChangeLogAfter(long seq, int limit) {
+        return execute("getChangeLogAfter", connection -> {
+            ArrayList<ChangeLogPoller.Entry> result = new ArrayList<>();
+            PreparedStatement statement = connection.getStatements().get(SELECT_CHANGE_LOG_AFTER);
+            statement.setLong(1, seq);
+            statement.setInt(2, limit);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    result.add(new ChangeLogPoller.Entry(resultSet.getLong("seq"), resultSet.getInt("page_id")));
+                }
+            }
+
+            return result;
+        }, null, entries -> entries == null ? 0 : entries.size());
+    }
+
+    /**
+     * Deletes the oldest entries of the change log.
+     * @param retentionHours age in hours of the entries to delete
+     * @param limit maximum number of entries to delete, so that a large backlog is deleted in small transactions
+     * @return number of entries deleted, or 0 if the SQL query encountered an error
+     */
+    public int pruneChangeLog(long retentionHours, int limit) {
+        return execute("pruneChangeLog", connection -> {
+            PreparedStatement statement = connection.getStatements().get(PRUNE_CHANGE_LOG);
+            statement.setLong(1, retentionHours);
+            statement.setInt(2, limit);
+            return statement.executeUpdate();
+        }, 0, Integer::intValue);
+    }
+
+    /**
+     * Runs a page preview query and reads its rows.
+     */
+    private static ArrayList<Page> readPagePreviews(PreparedStatement statement) throws SQLException {
+        ArrayList<Page> result = new ArrayList<>();
+
+        try (ResultSet resultSet = statement.executeQuery()) {
             while (resultSet.next()) {
                 int id = resultSet.getInt("page_id");
                 String body = resultSet.getString("body");
                 boolean isEnding = resultSet.getBoolean("is_ending");
+                result.add(new Page(id, body, isEnding));
+            }
+        }
+
+        return result;
+    }
 
-                pages.add(new Page(id, body, isEnding));
+    /**
+     * Streams all pages from the database, row by row, without holding the whole result in memory. Doesn't include
+     * links and doesn't update the pages cache.
+     * @param consumer consumer that receives each page in order of id
+     */
+    public void streamAllPages(Consumer<Page> consumer) {
+        execute("streamAllPages", connection -> {
+            PreparedStatement statement = connection.getStatements().get(STREAM_ALL_PAGES);
+            statement.setFetchSize(Integer.MIN_VALUE); // Makes the MySQL driver stream rows instead of buffering them
+
+            int rows = 0;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("page_id");
+                    String body = resultSet.getString("body");
+                    boolean isEnding = resultSet.getBoolean("is_ending");
+                    consumer.accept(new Page(id, body, isEnding));
+                    rows++;
+                }
             }
 
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+            return rows;
+        }, 0, Integer::intValue);
+    }
 
-        pagesCache = pages;
-        return pages;
+    /**
+     * Streams all links from the database, row by row, without holding the whole result in memory.
+     * @param consumer consumer that receives each link, grouped by the page the link points from
+     */
+    public void streamAllLinks(Consumer<Link> consumer) {
+        execute("streamAllLinks", connection -> {
+            PreparedStatement statement = connection.getStatements().get(STREAM_ALL_LINKS);
+            statement.setFetchSize(Integer.MIN_VALUE);
+
+            int rows = 0;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("link_id");
+                    String text = resultSet.getString("text");
+                    int fromPageId = resultSet.getInt("from_page_id");
+                    int toPageId = resultSet.getInt("to_page_id");
+                    consumer.accept(new Link(id, fromPageId, toPageId, text));
+                    rows++;
+                }
+            }
+
+            return rows;
+        }, 0, Integer::intValue);
     }
 
     /**
-     * Fetches a page with a given id from the database. Includes links pointing from that page.
+     * Fetches a page with a given id from the database. Includes links pointing from that page. The page and its
+     * links are fetched in a single round trip by joining the pages and links tables.
      * @param pageId id of the desired page
-     * @return the desired page, or null if the SQL query encountered an error
+     * @return the desired page, or null if it doesn't exist or the SQL query encountered an error
      */
     public Page getPage(int pageId) {
-        Page page = null;
-
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "SELECT * FROM pages WHERE page_id = " + pageId;
-            ResultSet resultSet = statement.executeQuery(query);
-
-            // Get data from first result row
-            resultSet.next();
-            int id = resultSet.getInt("page_id");
-            String body = resultSet.getString("body");
-            boolean isEnding = resultSet.getBoolean("is_ending");
-
-            // Get all links that point from this page
-            ArrayList<Link> links = getLinksFromPage(id);
-
-            // Create a Page object
-            page = new Page(id, body, links, isEnding);
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+        Page page = execute("getPage", connection -> {
+            PreparedStatement statement = connection.getStatements().get(SELECT_PAGE_WITH_LINKS);
+            statement.setInt(1, pageId);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                Page result = null;
+                ArrayList<Link> links = new ArrayList<>();
+
+                // Every row repeats the page columns, followed by one of its links (or NULLs if it has none)
+                while (resultSet.next()) {
+                    if (result == null) {
+                        int id = resultSet.getInt("page_id");
+                        String body = resultSet.getString("body");
+                        boolean isEnding = resultSet.getBoolean("is_ending");
+                        result = new Page(id, body, links, isEnding);
+                    }
+
+                    int linkId = resultSet.getInt("link_id");
+                    if (resultSet.wasNull()) continue;
+                    String text = resultSet.getString("text");
+                    int toPageId = resultSet.getInt("to_page_id");
+                    links.add(new Link(linkId, pageId, toPageId, text));
+                }
+
+                return result;
+            }
+        }, null, result -> result == null ? 0 : Math.max(1, result.getLinks().size()));
 
+        if (page != null) linksCache = page.getLinks();
         return page;
     }
 
+    /**
+     * Fetches several pages from the database in a single round trip. Includes links pointing from each page. Doesn't
+     * update the links cache. The number of placeholders in the query is rounded up to a power of two, so that only a
+     * handful of distinct statements get prepared.
+     * @param pageIds ids of the desired pages
+     * @return the pages that exist, ordered by id
+     */
+    public ArrayList<Page> getPages(Collection<Integer> pageIds) {
+        if (pageIds.isEmpty()) return new ArrayList<>();
+
+        int[] ids = pageIds.stream().mapToInt(Integer::intValue).distinct().toArray();
+        int placeholderCount = Integer.highestOneBit(ids.length);
+        if (placeholderCount < ids.length) placeholderCount <<= 1;
+        String query = String.format(SELECT_PAGES_WITH_LINKS,
+                String.join(", ", Collections.nCopies(placeholderCount, "?")));
+        int finalPlaceholderCount = placeholderCount;
+
+        return execute("getPages", connection -> {
+            PreparedStatement statement = connection.getStatements().get(query);
+
+            // Unused placeholders repeat the last id, which doesn't change the result
+            for (int i = 0; i < finalPlaceholderCount; i++) {
+                statement.setInt(i + 1, ids[Math.min(i, ids.length - 1)]);
+            }
+
+            ArrayList<Page> result = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                Page page = null;
+
+                // Rows are grouped by page, each row holding one of the page's links (or NULLs if it has none)
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("page_id");
+                    if (page == null || page.getId() != id) {
+                        String body = resultSet.getString("body");
+                        boolean isEnding = resultSet.getBoolean("is_ending");
+                        page = new Page(id, body, isEnding);
+                        result.add(page);
+                    }
+
+                    int linkId = resultSet.getInt("link_id");
+                    if (resultSet.wasNull()) continue;
+                    String text = resultSet.getString("text");
+                    int toPageId = resultSet.getInt("to_page_id");
+                    page.getLinks().add(new Link(linkId, id, toPageId, text));
+                }
+            }
+
+            return result;
+        }, new ArrayList<>(), pages -> pages.stream().mapToInt(page -> Math.max(1, page.getLinks().size())).sum());
+    }
+
+    /**
+     * Fetches a page with a given id through the page cache. Only hits the database if the page isn't cached yet.
+     * Pages are invalidated in the cache whenever they are changed through this model.
+     * @param pageId id of the desired page
+     * @return the desired page, or null if the SQL query encountered an error
+     */
+    public Page getCachedPage(int pageId) {
+        return pageCache.get(pageId, this::getPage);
+    }
+
     /**
      * Fetches all links that point from a given page.
      * @param fromPageId id of the page from which the link points
      * @return all links that point from the given page
      */
     public ArrayList<Link> getLinksFromPage(int fromPageId) {
-        ArrayList<Link> links = new ArrayList<>();
-
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "SELECT * FROM links WHERE from_page_id = " + fromPageId;
-            ResultSet resultSet = statement.executeQuery(query);
+        ArrayList<Link> links = execute("getLinksFromPage", connection -> {
+            ArrayList<Link> result = new ArrayList<>();
+            PreparedStatement statement = connection.getStatements().get(SELECT_LINKS_FROM_PAGE);
+            statement.setInt(1, fromPageId);
 
             // Loop through the result set and populate the links ArrayList
-            while (resultSet.next()) {
-                int id = resultSet.getInt("link_id");
-                String text = resultSet.getString("text");
-                int toPageId = resultSet.getInt("to_page_id");
-                links.add(new Link(id, fromPageId, toPageId, text));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("link_id");
+                    String text = resultSet.getString("text");
+                    int toPageId = resultSet.getInt("to_page_id");
+                    result.add(new Link(id, fromPageId, toPageId, text));
+                }
             }
 
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+            return result;
+        }, new ArrayList<>(), ArrayList::size);
 
         linksCache = links;
         return links;
@@ -131,15 +636,8 @@ public class DatabaseModel {
      * Inserts a blank page into the database.
      */
     public void createPage() {
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "INSERT INTO pages (body, is_ending) VALUES ('', 0)";
-            statement.executeUpdate(query);
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+        execute("createPage", connection -> connection.getStatements().get(INSERT_PAGE).executeUpdate(), 0,
+                Integer::intValue);
     }
 
     /**
@@ -147,16 +645,14 @@ public class DatabaseModel {
      * @param fromPageId id of the page from which the link should point
      */
     public void createLink(int fromPageId) {
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "INSERT INTO links (from_page_id, to_page_id)" +
-                    "VALUES (" + fromPageId + ", " + fromPageId + ")";
-            statement.executeUpdate(query);
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+        execute("createLink", connection -> {
+            PreparedStatement statement = connection.getStatements().get(INSERT_LINK);
+            statement.setInt(1, fromPageId);
+            statement.setInt(2, fromPageId);
+            return statement.executeUpdate();
+        }, 0, Integer::intValue);
+
+        pageCache.invalidate(fromPageId);
     }
 
     /**
@@ -165,15 +661,14 @@ public class DatabaseModel {
      * @param body new body text to update with
      */
     public void updatePageBody(int pageId, String body) {
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "UPDATE pages SET body='" + body + "' WHERE page_id=" + pageId;
-            statement.executeUpdate(query);
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+        execute("updatePageBody", connection -> {
+            PreparedStatement statement = connection.getStatements().get(UPDATE_PAGE_BODY);
+            statement.setString(1, body);
+            statement.setInt(2, pageId);
+            return statement.executeUpdate();
+        }, 0, Integer::intValue);
+
+        pageCache.invalidate(pageId);
     }
 
     /**
@@ -182,15 +677,14 @@ public class DatabaseModel {
      * @param isEnding whether to treat this page as an ending of the gamebook
      */
     public void updatePageIsEnding(int pageId, boolean isEnding) {
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "UPDATE pages SET is_ending=" + (isEnding ? 1 : 0) + " WHERE page_id=" + pageId;
-            statement.executeUpdate(query);
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+        execute("updatePageIsEnding", connection -> {
+            PreparedStatement statement = connection.getStatements().get(UPDATE_PAGE_IS_ENDING);
+            statement.setBoolean(1, isEnding);
+            statement.setInt(2, pageId);
+            return statement.executeUpdate();
+        }, 0, Integer::intValue);
+
+        pageCache.invalidate(pageId);
     }
 
     /**
@@ -201,17 +695,16 @@ public class DatabaseModel {
     public void updateLinkText(int index, String text) {
         Link link = linksCache.get(index);
 
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "UPDATE links SET text='" + text + "' WHERE link_id=" + link.getId();
-            statement.executeUpdate(query);
-            statement.close();
+        boolean updated = execute("updateLinkText", connection -> {
+            PreparedStatement statement = connection.getStatements().get(UPDATE_LINK_TEXT);
+            statement.setString(1, text);
+            statement.setInt(2, link.getId());
+            statement.executeUpdate();
+            return true;
+        }, false);
 
-            link.setText(text);
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+        if (updated) link.setText(text);
+        pageCache.invalidate(link.getFromPageId());
     }
 
     /**
@@ -222,35 +715,252 @@ public class DatabaseModel {
     public void updateLinkToPageId(int index, int toPageId) {
         Link link = linksCache.get(index);
 
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "UPDATE links SET to_page_id='" + toPageId + "' WHERE link_id=" + link.getId();
-            statement.executeUpdate(query);
-            statement.close();
+        boolean updated = execute("updateLinkToPageId", connection -> {
+            PreparedStatement statement = connection.getStatements().get(UPDATE_LINK_TO_PAGE_ID);
+            statement.setInt(1, toPageId);
+            statement.setInt(2, link.getId());
+            statement.executeUpdate();
+            return true;
+        }, false);
 
-            link.setToPageId(toPageId);
-        } catch (SQLException ex) {
-            ex.printStackTrace();
+        if (updated) link.setToPageId(toPageId);
+        pageCache.invalidate(link.getFromPageId());
+    }
+
+    /**
+     * Applies a batch of updates in a single transaction. Each kind of update is sent as one JDBC batch, so the whole
+     * batch takes at most four round trips before the commit.
+     * @param batch updates to apply
+     * @return whether the transaction was committed, or false if it failed for a reason that may go away, such as a
+     *         lost connection
+     * @throws UpdatesRejectedException if the database rejected an update, such as a link text that is too long for
+     *                                  its column or a link target that breaks the foreign key
+     */
+    public boolean applyUpdates(UpdateBatch batch) {
+        if (batch.isEmpty()) return true;
+
+        SQLException[] rejection = new SQLException[1];
+        boolean applied = execute("applyUpdates", connection -> {
+            Connection jdbcConnection = connection.getConnection();
+            jdbcConnection.setAutoCommit(false);
+
+            try {
+                StatementRegistry statements = connection.getStatements();
+
+                if (!batch.getPageBodies().isEmpty()) {
+                    PreparedStatement statement = statements.get(UPDATE_PAGE_BODY);
+                    for (Map.Entry<Integer, String> update : batch.getPageBodies().entrySet()) {
+                        statement.setString(1, update.getValue());
+                        statement.setInt(2, update.getKey());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+
+                if (!batch.getPageEndings().isEmpty()) {
+                    PreparedStatement statement = statements.get(UPDATE_PAGE_IS_ENDING);
+                    for (Map.Entry<Integer, Boolean> update : batch.getPageEndings().entrySet()) {
+                        statement.setBoolean(1, update.getValue());
+                        statement.setInt(2, update.getKey());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+
+                if (!batch.getLinkTexts().isEmpty()) {
+                    PreparedStatement statement = statements.get(UPDATE_LINK_TEXT);
+                    for (Map.Entry<Integer, String> update : batch.getLinkTexts().entrySet()) {
+                        statement.setString(1, update.getValue());
+                        statement.setInt(2, update.getKey());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+
+                if (!batch.getLinkTargets().isEmpty()) {
+                    PreparedStatement statement = statements.get(UPDATE_LINK_TO_PAGE_ID);
+                    for (Map.Entry<Integer, Integer> update : batch.getLinkTargets().entrySet()) {
+                        statement.setInt(1, update.getValue());
+                        statement.setInt(2, update.getKey());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+
+                jdbcConnection.commit();
+                return true;
+            } catch (SQLException ex) {
+                if (isRejection(ex)) rejection[0] = ex;
+                jdbcConnection.rollback();
+                throw ex;
+            } finally {
+                jdbcConnection.setAutoCommit(true);
+            }
+        }, false);
+
+        for (int pageId : batch.getPageBodies().keySet()) pageCache.invalidate(pageId);
+        for (int pageId : batch.getPageEndings().keySet()) pageCache.invalidate(pageId);
+        for (int pageId : batch.getLinkFromPageIds().values()) pageCache.invalidate(pageId);
+        if (rejection[0] != null) {
+            throw new UpdatesRejectedException("The database rejected the update: " + rejection[0].getMessage(),
+                    rejection[0]);
         }
+        return applied;
     }
 
     /**
-     * Deletes a page from the database.
-     * @param index index of the page in the pages cache
+     * Tells whether an SQL error means that the statement itself can't succeed, such as a value that is too long for
+     * its column (SQL state class 22) or a broken constraint (class 23), rather than that the connection failed.
+     * @param ex error to check, whose causes are checked too
+     * @return whether running the statement again would fail the same way
      */
-    public void deletePage(int index) {
-        Page page = pagesCache.get(index);
+    private static boolean isRejection(SQLException ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLDataException || cause instanceof SQLIntegrityConstraintViolationException ||
+                    cause instanceof DataTruncation) {
+                return true;
+            }
+            String state = cause instanceof SQLException ? ((SQLException) cause).getSQLState() : null;
+            if (state != null && (state.startsWith("22") || state.startsWith("23"))) return true;
+        }
+        return false;
+    }
 
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "DELETE FROM pages WHERE page_id=" + page.getId();
-            statement.executeUpdate(query);
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
+    /**
+     * Imports a whole book, such as a generated book or a book from another store, with batched inserts. Pages get
+     * new ids from the database, and links that point from or to an imported page are remapped to the page's new id.
+     * Links that point to a page that isn't part of the import keep their target id if that page exists in the
+     * database, and get no target otherwise. Every link must point from an imported or existing page. All pages are
+     * streamed before any link, and rows are committed in chunks, so that a huge import doesn't build one huge
+     * transaction.
+     * @param pages source that streams the pages to import into a consumer; links in the pages are ignored
+     * @param links source that streams the links to import into a consumer
+     * @param chunkSize number of rows to insert per batch and transaction
+     * @return new page id for every imported page id, or null if the import failed (chunks that were committed
+     *         before the failure stay in the database)
+     */
+    public Map<Integer, Integer> importBook(Consumer<Consumer<Page>> pages, Consumer<Consumer<Link>> links,
+                                           int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be at least 1");
+
+        Map<Integer, Integer> newPageIds = execute("importBook", connection -> {
+            Connection jdbcConnection = connection.getConnection();
+            PreparedStatement pageStatement = connection.getStatements().get(IMPORT_PAGE);
+            PreparedStatement linkStatement = connection.getStatements().get(IMPORT_LINK);
+            HashMap<Integer, Integer> pageIds = new HashMap<>();
+            int[] chunkPageIds = new int[chunkSize];
+            int[] batched = new int[1];
+
+            jdbcConnection.setAutoCommit(false);
+            try {
+                pages.accept(page -> {
+                    try {
+                        pageStatement.setString(1, page.getBody() == null ? "" : page.getBody());
+                        pageStatement.setBoolean(2, page.isEnding());
+                        pageStatement.addBatch();
+                        chunkPageIds[batched[0]++] = page.getId();
+
+                        if (batched[0] == chunkSize) {
+                            commitPageChunk(jdbcConnection, pageStatement, chunkPageIds, batched[0], pageIds);
+                            batched[0] = 0;
+                        }
+                    } catch (SQLException ex) {
+                        throw new UncheckedSqlException(ex);
+                    }
+                });
+                commitPageChunk(jdbcConnection, pageStatement, chunkPageIds, batched[0], pageIds);
+                batched[0] = 0;
+
+                links.accept(link -> {
+                    try {
+                        linkStatement.setString(1, link.getText());
+                        linkStatement.setInt(2, pageIds.getOrDefault(link.getFromPageId(), link.getFromPageId()));
+                        linkStatement.setInt(3, pageIds.getOrDefault(link.getToPageId(), link.getToPageId()));
+                        linkStatement.addBatch();
+
+                        if (++batched[0] == chunkSize) {
+                            linkStatement.executeBatch();
+                            jdbcConnection.commit();
+                            batched[0] = 0;
+                        }
+                    } catch (SQLException ex) {
+                        throw new UncheckedSqlException(ex);
+                    }
+                });
+                linkStatement.executeBatch();
+                jdbcConnection.commit();
+
+                return pageIds;
+            } catch (UncheckedSqlException ex) {
+                jdbcConnection.rollback();
+                throw ex.getCause();
+            } catch (SQLException ex) {
+                jdbcConnection.rollback();
+                throw ex;
+            } finally {
+                jdbcConnection.setAutoCommit(true);
+            }
+        }, null, pageIds -> pageIds == null ? 0 : pageIds.size());
+
+        // Imported links may have been added to pages that were already cached
+        pageCache.invalidateAll();
+        return newPageIds;
+    }
+
+    /**
+     * Inserts a chunk of batched pages, commits it and records the new id of each page from the generated keys.
+     */
+    private static void commitPageChunk(Connection connection, PreparedStatement statement, int[] chunkPageIds,
+                                        int count, HashMap<Integer, Integer> pageIds) throws SQLException {
+        if (count == 0) return;
+
+        statement.executeBatch();
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+            for (int i = 0; i < count && keys.next(); i++) {
+                pageIds.put(chunkPageIds[i], keys.getInt(1));
+            }
         }
+        connection.commit();
+    }
+
+    /**
+     * Deletes a page from the database in a single transaction, together with the links on it. Links from other pages
+     * that point to the page are kept without a target. The foreign keys would do the same, but foreign key actions
+     * don't fire the triggers that record changes for delta sync, so the links are deleted and unlinked here first.
+     * @param pageId id of the page
+     */
+    public void deletePage(int pageId) {
+        ArrayList<Integer> linkingPageIds = execute("deletePage", connection -> {
+            Connection jdbcConnection = connection.getConnection();
+            StatementRegistry statements = connection.getStatements();
+            jdbcConnection.setAutoCommit(false);
+
+            try {
+                ArrayList<Integer> result = new ArrayList<>();
+                PreparedStatement select = statements.get(SELECT_PAGES_LINKING_TO);
+                select.setInt(1, pageId);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) result.add(resultSet.getInt(1));
+                }
+
+                for (String sql : new String[] {UNLINK_PAGE, DELETE_LINKS_FROM_PAGE, DELETE_PAGE}) {
+                    PreparedStatement statement = statements.get(sql);
+                    statement.setInt(1, pageId);
+                    statement.executeUpdate();
+                }
+
+                jdbcConnection.commit();
+                return result;
+            } catch (SQLException ex) {
+                jdbcConnection.rollback();
+                throw ex;
+            } finally {
+                jdbcConnection.setAutoCommit(true);
+            }
+        }, new ArrayList<>());
+
+        pageCache.invalidate(pageId);
+        for (int linkingPageId : linkingPageIds) pageCache.invalidate(linkingPageId);
     }
 
     /**
@@ -260,25 +970,22 @@ public class DatabaseModel {
     public void deleteLink(int index) {
         Link link = linksCache.get(index);
 
-        try {
-            // Setup statement and execute query
-            Statement statement = connection.createStatement();
-            String query = "DELETE FROM links WHERE link_id=" + link.getId();
-            statement.executeUpdate(query);
-            statement.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+        execute("deleteLink", connection -> {
+            PreparedStatement statement = connection.getStatements().get(DELETE_LINK);
+            statement.setInt(1, link.getId());
+            return statement.executeUpdate();
+        }, 0, Integer::intValue);
+
+        pageCache.invalidate(link.getFromPageId());
     }
 
     /**
-     * Closes the database connection safely.
+     * Stops polling the change log, closes the database connections safely by draining the connection pool, and
+     * unregisters the query metrics.
      */
     public void closeConnection() {
-        try {
-            connection.close();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
+        changeLogPoller.close();
+        connectionPool.close();
+        metrics.close();
     }
 }
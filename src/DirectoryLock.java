@@ -0,0 +1,76 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exclusive lock on a directory of files that only one program may write at a time, held as an operating system lock
+ * on a lock file in the directory. The operating system releases the lock if the program dies, so a crash never
+ * leaves a stale lock behind.
+ */
+public class DirectoryLock implements Closeable {
+    private static final String LOCK_FILE = ".lock";
+    // Lock files held by this program. Closing any channel to a lock file would release this program's lock on it,
+    // so a second attempt from within this program must fail before it opens the file.
+    private static final Set<Path> HELD_LOCK_FILES = ConcurrentHashMap.newKeySet();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private DirectoryLock(Path path, FileChannel channel, FileLock lock) {
+        this.path = path;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Takes the lock on a directory without waiting.
+     * @param directory directory to lock, which must exist
+     * @param description what the directory holds, for the error message
+     * @return the lock, which must be closed to release it
+     * @throws IOException if another program, or another part of this program, holds the lock, or if the lock file
+     *                     couldn't be created
+     */
+    public static DirectoryLock acquire(Path directory, String description) throws IOException {
+        Path path = directory.toRealPath().resolve(LOCK_FILE);
+        IOException locked = new IOException("The " + description + " in " + directory.toAbsolutePath() +
+                " are already open in another window or program (lock file " + path + ")");
+        if (!HELD_LOCK_FILES.add(path)) throw locked;
+
+        FileLock lock = null;
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException ex) {
+                // Can't happen while HELD_LOCK_FILES is consulted first; treated as held
+            } finally {
+                if (lock == null) channel.close();
+            }
+            if (lock == null) throw locked;
+
+            return new DirectoryLock(path, channel, lock);
+        } finally {
+            if (lock == null) HELD_LOCK_FILES.remove(path);
+        }
+    }
+
+    /**
+     * Releases the lock.
+     * @throws IOException if the lock file couldn't be closed
+     */
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            channel.close();
+            HELD_LOCK_FILES.remove(path);
+        }
+    }
+}
@@ -1,36 +1,68 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
- * MVC controller for the Gamebook Editor that handles all communication between EditorView (MVC view) and
- * DatabaseModel (MVC model).
+ * MVC controller for the Gamebook Editor that handles all communication between EditorView (MVC view) and a
+ * GamebookStore (MVC model).
  */
 public class EditorController {
-    private final DatabaseModel databaseModel;
+    private static final Path ANALYTICS_FILE = Paths.get(System.getProperty("gamebook.analyticsFile", "analytics.log"));
+
+    private final GamebookStore store;
+    private final AsyncDatabaseModel asyncDatabaseModel;
+    private final PagesTableModel pagesTableModel;
     private final EditorView editorView;
+    private SearchIndex searchIndex;
     private int currentPageId;
+    private String savedBody;
+    private boolean changesPending;
 
     /**
-     * Constructs the controller, populates the UI and sets up listeners.
-     * @param databaseModel model that handles reading from and writing to a MySQL database
+     * Constructs the controller, populates the UI and sets up listeners. Edits are written to the store through a
+     * WriteBehindStore, so saving never waits for the database; an edit that the store rejects is reported to the user
+     * and the selected page is reloaded. Changes made by other programs, such as another Editor using the same
+     * database, are shown as the store reports them.
+     * @param store model that handles reading from and writing to the gamebook's storage
      * @param editorView view for the Gamebook Editor app
      */
-    public EditorController(DatabaseModel databaseModel, EditorView editorView) {
-        this.databaseModel = databaseModel;
+    public EditorController(GamebookStore store, EditorView editorView) {
+        WriteBehindStore writeBehindStore = new WriteBehindStore(store);
+        writeBehindStore.setRejectionListener(message -> SwingUtilities.invokeLater(() -> showRejectedEdit(message)));
+        this.store = writeBehindStore;
         this.editorView = editorView;
+        asyncDatabaseModel = new AsyncDatabaseModel(this.store);
+        asyncDatabaseModel.setLoadingListener(editorView::setLoading);
+        pagesTableModel = new PagesTableModel(asyncDatabaseModel);
+        editorView.setPagesTableModel(pagesTableModel);
+        pagesTableModel.setChangesListener(this::indexChanges);
+        this.store.addChangeListener(pageIds -> SwingUtilities.invokeLater(() -> applyStoreChanges(pageIds)));
         currentPageId = -1;
 
         // Populate UI
         refreshPages();
+        buildSearchIndex();
+        loadAnalytics();
 
         // Set up listeners
+        this.editorView.addSearchFieldListener(new SearchFieldListener());
         this.editorView.addPagesTableListener(new PagesTableListener());
         this.editorView.addCreatePageButtonListener(new CreatePageButtonListener());
         this.editorView.addDeletePageButtonListener(new DeletePageButtonListener());
+        this.editorView.addAnalyzeButtonListener(new AnalyzeButtonListener());
         this.editorView.addRefreshButtonListener(new RefreshButtonListener());
         this.editorView.addSaveBodyButtonListener(new SaveBodyButtonListener());
         this.editorView.addEndingCheckBoxListener(new EndingCheckBoxListener());
@@ -41,41 +73,237 @@ public class EditorController {
     }
 
     /**
-     * Updates the "Pages" table to reflect the latest list of pages from the database.
+     * Updates the "Pages" table to reflect the latest number of pages in the database. The rows themselves are fetched
+     * in the background as they are shown.
+     * @return future that completes on the event dispatch thread once the table has been updated
+     */
+    private CompletableFuture<Void> refreshPages() {
+        return pagesTableModel.refresh().thenRun(() -> {
+            clearCurrentPage();
+        });
+    }
+
+    /**
+     * Updates the "Pages" table with the pages that have changed since the last refresh or sync, and the currently
+     * selected page if rows were only updated. If rows were added or removed, the selection is cleared like after a
+     * full refresh.
+     * @return future that completes on the event dispatch thread once the UI has been updated
+     */
+    private CompletableFuture<Void> syncPages() {
+        changesPending = false;
+        return pagesTableModel.sync().thenAccept(rowsMoved -> {
+            if (!rowsMoved) {
+                if (currentPageId != -1 && editorView.getSelectedPage() != -1) refreshCurrentPage();
+                return;
+            }
+
+            clearCurrentPage();
+        });
+    }
+
+    /**
+     * Brings the UI up to date with changes that the store has reported, which may have been made by other programs.
+     * While the body of the selected page has unsaved edits, nothing is updated until it has been saved, since a sync
+     * that adds or removes rows clears the selection. Otherwise the "Pages" table is synced, and the selected page is
+     * refreshed if it has changed.
+     * @param pageIds ids of the pages that have changed, or null if any page may have changed
+     */
+    private void applyStoreChanges(Set<Integer> pageIds) {
+        if (hasUnsavedBody()) {
+            changesPending = true;
+            return;
+        }
+
+        changesPending = false;
+        boolean currentPageChanged = pageIds == null || pageIds.contains(currentPageId);
+        pagesTableModel.sync().thenAccept(rowsMoved -> {
+            if (rowsMoved) {
+                clearCurrentPage();
+            } else if (currentPageChanged && currentPageId != -1 && editorView.getSelectedPage() != -1) {
+                refreshCurrentPage(true);
+            }
+        });
+    }
+
+    /**
+     * Tells the user that an edit couldn't be saved and has been dropped, and reloads the selected page so that it no
+     * longer shows the edit.
+     * @param message message from the store about the dropped edit
+     */
+    private void showRejectedEdit(String message) {
+        editorView.showMessageDialog(message + " The edit has been discarded.", "Edit not saved",
+                JOptionPane.ERROR_MESSAGE);
+        if (currentPageId != -1 && editorView.getSelectedPage() != -1) refreshCurrentPage(true);
+    }
+
+    /**
+     * @return whether the body text area holds edits to the selected page that haven't been saved
      */
-    private void refreshPages() {
-        ArrayList<Page> pages = databaseModel.getAllPages();
-        editorView.populatePagesTable(pages);
+    private boolean hasUnsavedBody() {
+        return currentPageId != -1 && savedBody != null && !savedBody.equals(editorView.getBodyContent());
+    }
+
+    /**
+     * Empties and disables the UI components related to the selected page, after the selection has been cleared.
+     */
+    private void clearCurrentPage() {
         editorView.setBodyContent("");
+        savedBody = null;
         editorView.setEndingChecked(false);
         editorView.populateLinksTable(null);
         editorView.setPageRelatedEnabled(false);
     }
 
+    /**
+     * Builds the search index in the background. The search field is enabled once it is ready.
+     */
+    private void buildSearchIndex() {
+        editorView.setSearchEnabled(false);
+        asyncDatabaseModel.supply(SearchIndex::build).thenAcceptAsync(index -> {
+            searchIndex = index;
+            editorView.setSearchEnabled(true);
+            applySearch();
+        }, AsyncDatabaseModel.SWING_EXECUTOR);
+    }
+
+    /**
+     * Reads the play counts that the Gamebook Player has recorded in the background, and shows them in the "Visits"
+     * and "Chosen" columns once they have been read.
+     */
+    private void loadAnalytics() {
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return AnalyticsCounts.load(ANALYTICS_FILE);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }).thenAcceptAsync(counts -> {
+            editorView.setAnalyticsCounts(counts);
+            pagesTableModel.setAnalyticsCounts(counts);
+            if (currentPageId != -1 && editorView.getSelectedPage() != -1) refreshCurrentPage();
+        }, AsyncDatabaseModel.SWING_EXECUTOR).exceptionally(ex -> {
+            ex.printStackTrace();
+            return null;
+        });
+    }
+
+    /**
+     * Filters the "Pages" table to the pages that match the text in the search field, or shows all pages if it is
+     * empty. Clears the selection, since rows change.
+     */
+    private void applySearch() {
+        if (searchIndex == null) return;
+
+        String query = editorView.getSearchText();
+        if (query.isBlank()) {
+            if (!pagesTableModel.isFiltered()) return;
+            pagesTableModel.setFilter(null);
+        } else {
+            pagesTableModel.setFilter(searchIndex.search(query));
+        }
+        clearCurrentPage();
+    }
+
+    /**
+     * Brings the search index up to date with changes fetched when the "Pages" table was synced, which may have been
+     * made by other clients. Changed pages are fetched in full, with their links, in the background.
+     * @param changes changes since the table's last revision
+     */
+    private void indexChanges(BookChanges changes) {
+        if (searchIndex == null) return;
+
+        HashSet<Integer> deletedPageIds = new HashSet<>(changes.getDeletedPageIds());
+        HashSet<Integer> changedPageIds = new HashSet<>();
+        for (Page page : changes.getChangedPages()) changedPageIds.add(page.getId());
+        for (Link link : changes.getChangedLinks()) changedPageIds.add(link.getFromPageId());
+        changedPageIds.removeAll(deletedPageIds);
+
+        for (int pageId : deletedPageIds) searchIndex.removePage(pageId);
+        if (changedPageIds.isEmpty()) {
+            if (!deletedPageIds.isEmpty()) applySearch();
+            return;
+        }
+
+        ArrayList<Integer> pageIds = new ArrayList<>(changedPageIds);
+        asyncDatabaseModel.supply(model -> model.getPages(pageIds)).thenAcceptAsync(pages -> {
+            for (Page page : pages) searchIndex.updatePage(page);
+            applySearch();
+        }, AsyncDatabaseModel.SWING_EXECUTOR);
+    }
+
     /**
      * Updates all UI components related to the currently selected page to reflect the latest data from the database.
+     * The page is fetched in the background.
+     * @return future that completes on the event dispatch thread once the UI has been updated
      */
-    private void refreshCurrentPage() {
-        Page page = databaseModel.getPage(currentPageId);
-        editorView.setBodyContent(page.getBody());
-        editorView.setEndingChecked(page.isEnding());
-        editorView.populateLinksTable(page.getLinks());
+    private CompletableFuture<Void> refreshCurrentPage() {
+        return refreshCurrentPage(false);
+    }
+
+    /**
+     * Updates all UI components related to the currently selected page to reflect the latest data from the database.
+     * The page is fetched in the background.
+     * @param keepUnsavedBody whether to leave the body text area alone if it holds unsaved edits
+     * @return future that completes on the event dispatch thread once the UI has been updated
+     */
+    private CompletableFuture<Void> refreshCurrentPage(boolean keepUnsavedBody) {
+        int pageId = currentPageId;
+
+        return asyncDatabaseModel.getPage(pageId).thenAcceptAsync(page -> {
+            // Skip the update if the page is gone or another page has been selected in the meantime
+            if (page == null || pageId != currentPageId) return;
+
+            if (!keepUnsavedBody || !hasUnsavedBody()) {
+                editorView.setBodyContent(page.getBody());
+                savedBody = editorView.getBodyContent();
+            }
+            editorView.setEndingChecked(page.isEnding());
+            editorView.populateLinksTable(page.getLinks());
+
+            // Saved edits are searchable right away; the table itself is only filtered again on the next search
+            if (searchIndex != null) searchIndex.updatePage(page);
+        }, AsyncDatabaseModel.SWING_EXECUTOR);
     }
 
     /**
      * Visually selects a desired page in the "Pages" table and populates the right panel with page data.
-     * @param index index of the page to select based on the pages cache
+     * @param index index of the row to select in the "Pages" table, or -1 for the last row
      */
     private void selectPage(int index) {
-        ArrayList<Page> pagesCache = databaseModel.getPagesCache();
-        if (pagesCache.size() < 1) return;
-        if (index == -1 || index >= pagesCache.size()) index = pagesCache.size() - 1;
-
-        currentPageId = pagesCache.get(index).getId();
-        editorView.setSelectedPage(index);
-        refreshCurrentPage();
-        editorView.setPageRelatedEnabled(true);
-        editorView.setDeleteLinkButtonEnabled(false);
+        int rowCount = pagesTableModel.getRowCount();
+        if (rowCount < 1) return;
+        int row = index == -1 || index >= rowCount ? rowCount - 1 : index;
+
+        pagesTableModel.getPageIdAt(row).thenAccept(pageId -> {
+            if (pageId == -1) return;
+
+            currentPageId = pageId;
+            editorView.setSelectedPage(row);
+            refreshCurrentPage().thenRun(() -> {
+                editorView.setPageRelatedEnabled(true);
+                editorView.setDeleteLinkButtonEnabled(false);
+            });
+        });
+    }
+
+    /**
+     * Custom listener based on DocumentListener that detects when the user edits the text in the search field.
+     */
+    private class SearchFieldListener implements DocumentListener {
+        /**
+         * Filters the "Pages" table by the new search text.
+         * @param documentEvent event that invokes the listener
+         */
+        public void insertUpdate(DocumentEvent documentEvent) {
+            applySearch();
+        }
+
+        public void removeUpdate(DocumentEvent documentEvent) {
+            applySearch();
+        }
+
+        public void changedUpdate(DocumentEvent documentEvent) {
+        }
     }
 
     /**
@@ -106,10 +334,11 @@ public class EditorController {
          * @param actionEvent event that invokes the listener
          */
         public void actionPerformed(ActionEvent actionEvent) {
-            databaseModel.createPage();
+            // The new page is empty, so it wouldn't match a search; show all pages to be able to select it
+            editorView.setSearchText("");
+            asyncDatabaseModel.run(GamebookStore::createPage);
 
-            refreshPages();
-            selectPage(-1);
+            syncPages().thenRun(() -> selectPage(-1));
         }
     }
 
@@ -123,12 +352,31 @@ public class EditorController {
          */
         public void actionPerformed(ActionEvent actionEvent) {
             int index = editorView.getSelectedPage();
+            int pageId = currentPageId;
 
             if (index == -1) return;
 
-            databaseModel.deletePage(index);
-            refreshPages();
-            selectPage(index);
+            asyncDatabaseModel.run(model -> model.deletePage(pageId));
+            syncPages().thenRun(() -> selectPage(index));
+        }
+    }
+
+    /**
+     * Custom listener based on ActionListener that detects when the "Analyze..." button has been clicked by the user.
+     */
+    private class AnalyzeButtonListener implements ActionListener {
+        /**
+         * Analyzes the structure and the endings of the whole book in the background and shows the reports when
+         * they're done.
+         * @param actionEvent event that invokes the listener
+         */
+        public void actionPerformed(ActionEvent actionEvent) {
+            asyncDatabaseModel.supply(model -> {
+                BookGraph graph = BookGraph.load(model);
+                return GraphAnalyzer.analyze(graph).format(50) + System.lineSeparator()
+                        + EndingCalculator.calculate(graph).format(50);
+            }).thenAcceptAsync(text -> editorView.showTextDialog(text, "Book Analysis"),
+                    AsyncDatabaseModel.SWING_EXECUTOR);
         }
     }
 
@@ -137,11 +385,13 @@ public class EditorController {
      */
     private class RefreshButtonListener implements ActionListener {
         /**
-         * Updates the "Pages" table after the "Refresh" button has been clicked by the user.
+         * Applies the changes made since the last refresh to the "Pages" table, and reads the latest play counts, after
+         * the "Refresh" button has been clicked by the user.
          * @param actionEvent event that invokes the listener
          */
         public void actionPerformed(ActionEvent actionEvent) {
-            refreshPages();
+            syncPages();
+            loadAnalytics();
         }
     }
 
@@ -155,9 +405,17 @@ public class EditorController {
          * @param actionEvent event that invokes the listener
          */
         public void actionPerformed(ActionEvent actionEvent) {
-            databaseModel.updatePageBody(currentPageId, editorView.getBodyContent());
-            refreshPages();
-            refreshCurrentPage();
+            int pageId = currentPageId;
+            String body = editorView.getBodyContent();
+
+            asyncDatabaseModel.run(model -> model.updatePageBody(pageId, body));
+            pagesTableModel.updatePreview(pageId, body);
+            savedBody = body;
+            if (changesPending) {
+                applyStoreChanges(null);
+            } else {
+                refreshCurrentPage();
+            }
         }
     }
 
@@ -173,7 +431,10 @@ public class EditorController {
          */
         public void mouseClicked(MouseEvent mouseEvent) {
             JCheckBox checkBox = (JCheckBox) mouseEvent.getSource();
-            databaseModel.updatePageIsEnding(currentPageId, checkBox.isSelected());
+            int pageId = currentPageId;
+            boolean isEnding = checkBox.isSelected();
+
+            asyncDatabaseModel.run(model -> model.updatePageIsEnding(pageId, isEnding));
         }
 
         public void mousePressed(MouseEvent mouseEvent) {
@@ -210,33 +471,33 @@ public class EditorController {
 
             if (mouseEvent.getClickCount() < 2) return;
 
-            Link link = databaseModel.getLinksCache().get(index);
+            Link link = store.getLinksCache().get(index);
 
             if (table.getSelectedColumn() == 0) {
                 String newText = editorView.showInputDialog(
                         "Enter new link text", "Edit Link Text", link.getText());
                 if (newText == null) return;
-                databaseModel.updateLinkText(index, newText);
+                asyncDatabaseModel.run(model -> model.updateLinkText(index, newText));
             } else {
                 String userInput = editorView.showInputDialog(
                         "Enter new target page id", "Edit Link Target", String.valueOf(link.getToPageId()));
                 if (userInput == null || !userInput.matches("\\d+")) return;
                 int toPageId = Integer.parseInt(userInput);
 
-                // Only update the database if there is a page in the pages cache with the user-inputted target id
-                ArrayList<Page> pagesCache = databaseModel.getPagesCache();
-                for (Page page : pagesCache) {
-                    if (page.getId() == toPageId) {
-                        databaseModel.updateLinkToPageId(index, toPageId);
+                // Only update the database if there is a page with the user-inputted target id
+                asyncDatabaseModel.supply(model -> model.pageExists(toPageId)).thenAcceptAsync(exists -> {
+                    if (exists) {
+                        asyncDatabaseModel.run(model -> model.updateLinkToPageId(index, toPageId));
                         refreshCurrentPage();
                         return;
                     }
-                }
-                editorView.showMessageDialog("A link can't point to a non-existent page. Please create a " +
-                                "page with the ID " + toPageId + " or change the link's target ID.",
-                        "Invalid page ID",
-                        JOptionPane.ERROR_MESSAGE
-                );
+                    editorView.showMessageDialog("A link can't point to a non-existent page. Please create a " +
+                                    "page with the ID " + toPageId + " or change the link's target ID.",
+                            "Invalid page ID",
+                            JOptionPane.ERROR_MESSAGE
+                    );
+                }, AsyncDatabaseModel.SWING_EXECUTOR);
+                return;
             }
 
             refreshCurrentPage();
@@ -264,11 +525,13 @@ public class EditorController {
          * @param actionEvent event that invokes the listener
          */
         public void actionPerformed(ActionEvent actionEvent) {
-            databaseModel.createLink(currentPageId);
+            int pageId = currentPageId;
+            asyncDatabaseModel.run(model -> model.createLink(pageId));
 
-            refreshCurrentPage();
-            editorView.setSelectedLink(-1);
-            editorView.setDeleteLinkButtonEnabled(true);
+            refreshCurrentPage().thenRun(() -> {
+                editorView.setSelectedLink(-1);
+                editorView.setDeleteLinkButtonEnabled(true);
+            });
         }
     }
 
@@ -285,11 +548,12 @@ public class EditorController {
 
             if (index == -1) return;
 
-            databaseModel.deleteLink(index);
+            asyncDatabaseModel.run(model -> model.deleteLink(index));
 
-            refreshCurrentPage();
-            editorView.setSelectedLink(index);
-            if (databaseModel.getLinksCache().size() < 1) editorView.setDeleteLinkButtonEnabled(false);
+            refreshCurrentPage().thenRun(() -> {
+                editorView.setSelectedLink(index);
+                if (store.getLinksCache().size() < 1) editorView.setDeleteLinkButtonEnabled(false);
+            });
         }
     }
 
@@ -302,12 +566,22 @@ public class EditorController {
         }
 
         /**
-         * Exits the program safely when the window is closed by the user. Closes the database connection.
+         * Exits the program safely when the window is closed by the user. Once pending database work has finished,
+         * all queued edits are flushed and the database connection is closed. If some edits can't be saved, the
+         * window stays open and the user is told, so that they can try again.
          * @param windowEvent event that invokes the listener
          */
         public void windowClosing(WindowEvent windowEvent) {
-            databaseModel.closeConnection();
-            editorView.getFrame().dispose();
+            asyncDatabaseModel.close().whenCompleteAsync((ignored, ex) -> {
+                if (ex == null) {
+                    editorView.getFrame().dispose();
+                    return;
+                }
+
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                editorView.showMessageDialog(cause.getMessage() + ". Your edits are kept in the Editor; close the " +
+                        "window again to retry saving them.", "Unsaved edits", JOptionPane.ERROR_MESSAGE);
+            }, AsyncDatabaseModel.SWING_EXECUTOR);
         }
 
         public void windowClosed(WindowEvent windowEvent) {
@@ -1,14 +1,24 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /**
  * Contains the main() method which is the entry point for the Gamebook Editor app.
  */
 public class EditorMain {
     /**
      * Entry point for the Gamebook Editor app.
-     * @param args unused arguments
+     * @param args "--local" followed by the directory of a local gamebook store to edit without a MySQL server, or
+     *             no arguments to edit the book in the database
      */
-    public static void main(String[] args) {
-        DatabaseModel databaseModel = new DatabaseModel();
+    public static void main(String[] args) throws IOException {
+        GamebookStore store;
+        if (args.length > 1 && args[0].equals("--local")) {
+            store = LocalGamebookStore.open(Paths.get(args[1]));
+        } else {
+            store = new DatabaseModel();
+        }
+
         EditorView editorView = new EditorView("Gamebook Editor");
-        new EditorController(databaseModel, editorView);
+        new EditorController(store, editorView);
     }
 }
@@ -1,6 +1,9 @@
 import javax.swing.*;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+import java.awt.*;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseListener;
 import java.awt.event.WindowListener;
@@ -15,10 +18,13 @@ public class EditorView {
     private JPanel panel;
 
     private JPanel leftPanel;
+    private JTextField searchField;
     private JTable pagesTable;
     private JButton createPageButton;
     private JButton deletePageButton;
+    private JButton analyzeButton;
     private JButton refreshButton;
+    private JLabel loadingLabel;
 
     private JPanel rightPanel;
     private JTextArea bodyTextArea;
@@ -28,6 +34,10 @@ public class EditorView {
     private JButton deleteLinkButton;
     private JCheckBox endingCheckBox;
 
+    private final HeatmapCellRenderer pagesHeatmapRenderer;
+    private final HeatmapCellRenderer linksHeatmapRenderer;
+    private AnalyticsCounts analyticsCounts;
+
     /**
      * Constructs an editor view, sets up UI components and displays the frame.
      * @param title window title
@@ -38,13 +48,9 @@ public class EditorView {
         frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         frame.pack();
 
-        // Set up pages table
-        DefaultTableModel pagesTableModel = new DefaultTableModel();
-        pagesTableModel.addColumn("ID");
-        pagesTableModel.addColumn("Body");
-        pagesTable.setModel(pagesTableModel);
-        pagesTable.getColumnModel().getColumn(0).setPreferredWidth(100);
-        pagesTable.getColumnModel().getColumn(1).setPreferredWidth(1000);
+        loadingLabel.setVisible(false);
+
+        // Set up pages table. Its model is set by EditorController
         pagesTable.setDefaultEditor(Object.class, null); // Disable editing for the table
         pagesTable.getTableHeader().setReorderingAllowed(false); // Disable reordering columns by dragging
         pagesTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION); // Disable multi-row selection
@@ -53,11 +59,17 @@ public class EditorView {
         DefaultTableModel linksTableModel = new DefaultTableModel();
         linksTableModel.addColumn("Text");
         linksTableModel.addColumn("Target Page ID");
+        linksTableModel.addColumn("Chosen");
         linksTable.setModel(linksTableModel);
         linksTable.setDefaultEditor(Object.class, null); // Disable editing for the table
         linksTable.getTableHeader().setReorderingAllowed(false); // Disable reordering columns by dragging
         linksTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION); // Disable multi-row selection
 
+        // Play counts are shown as heatmaps, in the column that the pages table model adds and in the links table
+        pagesHeatmapRenderer = new HeatmapCellRenderer();
+        linksHeatmapRenderer = new HeatmapCellRenderer();
+        linksTable.getColumnModel().getColumn(2).setCellRenderer(linksHeatmapRenderer);
+
         frame.setVisible(true);
     }
 
@@ -97,19 +109,27 @@ public class EditorView {
     }
 
     /**
-     * Populates the "Pages" table with all pages and their id and body.
-     * @param pages pages to populate with
+     * Sets the model that provides the rows of the "Pages" table.
+     * @param tableModel model with an id column, a body column and a visits column
      */
-    public void populatePagesTable(ArrayList<Page> pages) {
-        DefaultTableModel tableModel = (DefaultTableModel) pagesTable.getModel();
-        tableModel.setRowCount(0);
+    public void setPagesTableModel(TableModel tableModel) {
+        pagesTable.setModel(tableModel);
+        pagesTable.getColumnModel().getColumn(0).setPreferredWidth(100);
+        pagesTable.getColumnModel().getColumn(1).setPreferredWidth(1000);
+        pagesTable.getColumnModel().getColumn(2).setPreferredWidth(100);
+        pagesTable.getColumnModel().getColumn(2).setCellRenderer(pagesHeatmapRenderer);
+    }
 
-        for (Page page : pages) {
-            tableModel.addRow(new String[]{
-                    String.valueOf(page.getId()),
-                    page.getBody(),
-            });
-        }
+    /**
+     * Sets the play counts that the "Visits" column of the "Pages" table and the "Chosen" column of the "Page Links"
+     * table are colored by. The "Page Links" table shows them the next time it is populated.
+     * @param analyticsCounts counts of pages visited and links chosen by players
+     */
+    public void setAnalyticsCounts(AnalyticsCounts analyticsCounts) {
+        this.analyticsCounts = analyticsCounts;
+        pagesHeatmapRenderer.setMaximum(analyticsCounts.getMaxPageVisits());
+        linksHeatmapRenderer.setMaximum(analyticsCounts.getMaxLinkChoices());
+        pagesTable.repaint();
     }
 
     /**
@@ -160,9 +180,10 @@ public class EditorView {
         if (links == null) return;
 
         for (Link link : links) {
-            tableModel.addRow(new String[]{
+            tableModel.addRow(new Object[]{
                     link.getText(),
-                    String.valueOf(link.getToPageId())
+                    String.valueOf(link.getToPageId()),
+                    analyticsCounts == null ? "" : analyticsCounts.getLinkChoices(link.getId())
             });
         }
     }
@@ -189,6 +210,37 @@ public class EditorView {
         deleteLinkButton.setEnabled(isEnabled);
     }
 
+    /**
+     * Shows or hides the loading indicator while database work is in flight.
+     * @param isLoading whether database work is in flight
+     */
+    public void setLoading(boolean isLoading) {
+        loadingLabel.setVisible(isLoading);
+        frame.setCursor(isLoading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
+    }
+
+    /**
+     * @return text in the search field above the "Pages" table
+     */
+    public String getSearchText() {
+        return searchField.getText();
+    }
+
+    /**
+     * @param text new text for the search field above the "Pages" table
+     */
+    public void setSearchText(String text) {
+        searchField.setText(text);
+    }
+
+    /**
+     * Enables or disables the search field, which is disabled until the search index has been built.
+     * @param isEnabled whether the search field should be enabled
+     */
+    public void setSearchEnabled(boolean isEnabled) {
+        searchField.setEnabled(isEnabled);
+    }
+
     /**
      * Adds a listener for detecting when the user clicks a page in the "Pages" table.
      * @param listSelectionListener listener that gets attached when this method is called from EditorController
@@ -197,6 +249,14 @@ public class EditorView {
         pagesTable.getSelectionModel().addListSelectionListener(listSelectionListener);
     }
 
+    /**
+     * Adds a listener for detecting when the user edits the text in the search field.
+     * @param documentListener listener that gets attached when this method is called from EditorController
+     */
+    public void addSearchFieldListener(DocumentListener documentListener) {
+        searchField.getDocument().addDocumentListener(documentListener);
+    }
+
     /**
      * Adds a listener for detecting when the user clicks the "Create Page" button.
      * @param actionListener listener that gets attached when this method is called from EditorController
@@ -213,6 +273,14 @@ public class EditorView {
         deletePageButton.addActionListener(actionListener);
     }
 
+    /**
+     * Adds a listener for detecting when the user clicks the "Analyze..." button.
+     * @param actionListener listener that gets attached when this method is called from EditorController
+     */
+    public void addAnalyzeButtonListener(ActionListener actionListener) {
+        analyzeButton.addActionListener(actionListener);
+    }
+
     /**
      * Adds a listener for detecting when the user clicks the "Refresh" button.
      * @param actionListener listener that gets attached when this method is called from EditorController
@@ -290,4 +358,17 @@ public class EditorView {
         return (String) JOptionPane.showInputDialog(
                 frame, message, title, JOptionPane.QUESTION_MESSAGE, null, null, initialValue);
     }
+
+    /**
+     * Displays a long text, such as a report, in a scrollable dialog.
+     * @param text text to display
+     * @param title dialog title
+     */
+    void showTextDialog(String text, String title) {
+        JTextArea textArea = new JTextArea(text, 24, 80);
+        textArea.setEditable(false);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, textArea.getFont().getSize()));
+        textArea.setCaretPosition(0);
+        JOptionPane.showMessageDialog(frame, new JScrollPane(textArea), title, JOptionPane.PLAIN_MESSAGE);
+    }
 }
@@ -0,0 +1,263 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Computes exactly how many distinct paths lead from page 1 to each ending, and how likely each ending is when every
+ * link is chosen with the same probability. A playthrough stops at the first ending it enters, and links to pages
+ * that don't exist are never taken, like in PlaythroughSimulator.
+ *
+ * The book is condensed into its strongly connected components, which form a directed acyclic graph, and both
+ * results are pushed through it in topological order. A page that can be reached through a loop has infinitely many
+ * paths. For the probabilities the book is an absorbing Markov chain: a page outside any loop just passes on what
+ * flows into it, and the expected visits of the pages in a loop are solved as a linear system for that loop alone,
+ * directly for small loops and by Gauss-Seidel iteration for large ones.
+ */
+public class EndingCalculator {
+    // Counts with more bits than this are only kept as logarithms, so that long books can't exhaust the heap
+    private static final int EXACT_BITS = 512;
+    // Loops with at most this many pages are solved by Gaussian elimination, larger ones iteratively
+    private static final int DENSE_LIMIT = 256;
+    private static final double TOLERANCE = 1e-14;
+    private static final int MAX_SWEEPS = 100_000;
+
+    /**
+     * Calculates path counts and ending probabilities, starting from page 1.
+     * @param graph graph of the book
+     * @return the results
+     */
+    public static EndingReport calculate(BookGraph graph) {
+        long startNanos = System.nanoTime();
+        int pageCount = graph.getPageCount();
+        int start = graph.indexOf(GraphAnalyzer.START_PAGE_ID);
+
+        int[] validLinks = new int[pageCount];
+        for (int page = 0; page < pageCount; page++) {
+            for (int link = graph.getFirstLink(page); link < graph.getEndLink(page); link++) {
+                if (graph.getTarget(link) != -1) validLinks[page]++;
+            }
+        }
+
+        // Pages grouped by component, in topological order: links only lead to later groups, or within a group
+        StronglyConnectedComponents components = StronglyConnectedComponents.of(graph, true);
+        int componentCount = components.getComponentCount();
+        int[] groupStart = new int[componentCount + 1];
+        for (int c = 0; c < componentCount; c++) {
+            groupStart[c + 1] = groupStart[c] + components.getSize(componentCount - 1 - c);
+        }
+        int[] members = new int[pageCount];
+        int[] fill = Arrays.copyOf(groupStart, componentCount);
+        for (int page = 0; page < pageCount; page++) {
+            members[fill[componentCount - 1 - components.getComponent(page)]++] = page;
+        }
+
+        BigInteger[] exact = new BigInteger[pageCount];
+        double[] log2Counts = new double[pageCount];
+        boolean[] infinite = new boolean[pageCount];
+        double[] inflow = new double[pageCount];
+        double[] visits = new double[pageCount];
+        Arrays.fill(log2Counts, Double.NEGATIVE_INFINITY);
+        if (start != -1) {
+            exact[start] = BigInteger.ONE;
+            log2Counts[start] = 0;
+            inflow[start] = 1;
+        }
+
+        int[][] reverse = graph.reverse();
+        int[] localIndex = new int[pageCount];
+        double stuck = 0;
+        double trapped = 0;
+        double maxResidual = 0;
+
+        for (int group = 0; group < componentCount; group++) {
+            int from = groupStart[group];
+            int to = groupStart[group + 1];
+            int component = components.getComponent(members[from]);
+            boolean isLoop = to - from > 1 || hasLinkTo(graph, members[from], members[from]);
+
+            boolean reached = false;
+            for (int i = from; i < to; i++) {
+                int page = members[i];
+                if (inflow[page] != 0 || log2Counts[page] != Double.NEGATIVE_INFINITY || infinite[page]) {
+                    reached = true;
+                }
+            }
+            if (!reached) continue;
+
+            // Expected visits of every page in the component
+            if (!isLoop) {
+                visits[members[from]] = inflow[members[from]];
+            } else if (!hasExit(graph, components, members, from, to, component)) {
+                // Nothing that enters a closed loop ever leaves it, so it never reaches an ending either
+                for (int i = from; i < to; i++) trapped += inflow[members[i]];
+            } else if (to - from <= DENSE_LIMIT) {
+                solveDense(graph, components, reverse, validLinks, members, from, to, component, localIndex, inflow,
+                        visits);
+            } else {
+                maxResidual = Math.max(maxResidual, solveIteratively(graph, components, reverse, validLinks, members,
+                        from, to, component, inflow, visits));
+            }
+
+            // Every page in a loop that can be reached has infinitely many paths
+            if (isLoop) {
+                for (int i = from; i < to; i++) infinite[members[i]] = true;
+            }
+
+            for (int i = from; i < to; i++) {
+                int page = members[i];
+                if (graph.isEnding(page)) continue;
+                if (validLinks[page] == 0) {
+                    stuck += visits[page];
+                    continue;
+                }
+
+                double share = visits[page] / validLinks[page];
+                for (int link = graph.getFirstLink(page); link < graph.getEndLink(page); link++) {
+                    int target = graph.getTarget(link);
+                    if (target == -1 || components.getComponent(target) == component) continue;
+
+                    inflow[target] += share;
+                    if (infinite[page]) {
+                        infinite[target] = true;
+                    } else if (!infinite[target]) {
+                        boolean isFirstPath = log2Counts[target] == Double.NEGATIVE_INFINITY;
+                        exact[target] = addExact(isFirstPath ? BigInteger.ZERO : exact[target], exact[page]);
+                        log2Counts[target] = addLog2(log2Counts[target], log2Counts[page]);
+                    }
+                }
+            }
+
+            // Only endings' counts are reported, so let the others go as soon as they have been passed on
+            for (int i = from; i < to; i++) {
+                if (!graph.isEnding(members[i])) exact[members[i]] = null;
+            }
+        }
+
+        double[] probabilities = new double[pageCount];
+        for (int page = 0; page < pageCount; page++) {
+            if (graph.isEnding(page)) probabilities[page] = visits[page];
+        }
+
+        return new EndingReport(graph, exact, log2Counts, infinite, probabilities, stuck, trapped, maxResidual,
+                System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return whether a page has a link to another page
+     */
+    private static boolean hasLinkTo(BookGraph graph, int page, int target) {
+        if (graph.isEnding(page)) return false;
+        for (int link = graph.getFirstLink(page); link < graph.getEndLink(page); link++) {
+            if (graph.getTarget(link) == target) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether a component has a link to another component
+     */
+    private static boolean hasExit(BookGraph graph, StronglyConnectedComponents components, int[] members, int from,
+                                   int to, int component) {
+        for (int i = from; i < to; i++) {
+            int page = members[i];
+            for (int link = graph.getFirstLink(page); link < graph.getEndLink(page); link++) {
+                int target = graph.getTarget(link);
+                if (target != -1 && components.getComponent(target) != component) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Solves visits = inflow + visits passed on within the component by Gaussian elimination with partial pivoting.
+     */
+    private static void solveDense(BookGraph graph, StronglyConnectedComponents components, int[][] reverse,
+                                   int[] validLinks, int[] members, int from, int to, int component,
+                                   int[] localIndex, double[] inflow, double[] visits) {
+        int size = to - from;
+        for (int i = 0; i < size; i++) localIndex[members[from + i]] = i;
+
+        double[][] matrix = new double[size][size + 1];
+        for (int row = 0; row < size; row++) {
+            int page = members[from + row];
+            matrix[row][row] = 1;
+            matrix[row][size] = inflow[page];
+            for (int edge = reverse[0][page]; edge < reverse[0][page + 1]; edge++) {
+                int source = reverse[1][edge];
+                if (components.getComponent(source) != component || graph.isEnding(source)) continue;
+                matrix[row][localIndex[source]] -= 1.0 / validLinks[source];
+            }
+        }
+
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < size; row++) {
+                if (Math.abs(matrix[row][column]) > Math.abs(matrix[pivot][column])) pivot = row;
+            }
+            double[] swap = matrix[column];
+            matrix[column] = matrix[pivot];
+            matrix[pivot] = swap;
+
+            for (int row = column + 1; row < size; row++) {
+                double factor = matrix[row][column] / matrix[column][column];
+                if (factor == 0) continue;
+                for (int k = column; k <= size; k++) matrix[row][k] -= factor * matrix[column][k];
+            }
+        }
+
+        for (int row = size - 1; row >= 0; row--) {
+            double value = matrix[row][size];
+            for (int k = row + 1; k < size; k++) value -= matrix[row][k] * visits[members[from + k]];
+            visits[members[from + row]] = value / matrix[row][row];
+        }
+    }
+
+    /**
+     * Solves visits = inflow + visits passed on within the component by Gauss-Seidel iteration.
+     * @return largest change of the expected visits of a page in the last sweep, relative to the total inflow
+     */
+    private static double solveIteratively(BookGraph graph, StronglyConnectedComponents components, int[][] reverse,
+                                           int[] validLinks, int[] members, int from, int to, int component,
+                                           double[] inflow, double[] visits) {
+        double total = 0;
+        for (int i = from; i < to; i++) total += inflow[members[i]];
+
+        double change = 0;
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            change = 0;
+            for (int i = from; i < to; i++) {
+                int page = members[i];
+                double value = inflow[page];
+                for (int edge = reverse[0][page]; edge < reverse[0][page + 1]; edge++) {
+                    int source = reverse[1][edge];
+                    if (components.getComponent(source) != component || graph.isEnding(source)) continue;
+                    value += visits[source] / validLinks[source];
+                }
+                change = Math.max(change, Math.abs(value - visits[page]));
+                visits[page] = value;
+            }
+            if (change <= TOLERANCE * total) break;
+        }
+        return change / total;
+    }
+
+    /**
+     * @return log2(2^a + 2^b)
+     */
+    private static double addLog2(double a, double b) {
+        if (a == Double.NEGATIVE_INFINITY) return b;
+        if (b == Double.NEGATIVE_INFINITY) return a;
+
+        double max = Math.max(a, b);
+        return max + Math.log1p(Math.pow(2, Math.min(a, b) - max)) / Math.log(2);
+    }
+
+    /**
+     * @return a + b, or null if either is unknown or the sum is too large to be kept exactly
+     */
+    private static BigInteger addExact(BigInteger a, BigInteger b) {
+        if (a == null || b == null) return null;
+
+        BigInteger sum = a.add(b);
+        return sum.bitLength() > EXACT_BITS ? null : sum;
+    }
+}
@@ -0,0 +1,161 @@
+import java.math.BigInteger;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Result of EndingCalculator: for every ending, how many distinct paths lead to it from page 1 and how likely it is
+ * to be reached when links are chosen at random. Paths are sequences of links, so two links between the same pages
+ * make two paths.
+ */
+public class EndingReport {
+    private final BookGraph graph;
+    private final BigInteger[] exactCounts;
+    private final double[] log2Counts;
+    private final boolean[] infinite;
+    private final double[] probabilities;
+    private final double stuckProbability;
+    private final double trappedProbability;
+    private final double residual;
+    private final long elapsedNanos;
+
+    /**
+     * Constructs a report. Used by EndingCalculator.
+     */
+    EndingReport(BookGraph graph, BigInteger[] exactCounts, double[] log2Counts, boolean[] infinite,
+                 double[] probabilities, double stuckProbability, double trappedProbability, double residual,
+                 long elapsedNanos) {
+        this.graph = graph;
+        this.exactCounts = exactCounts;
+        this.log2Counts = log2Counts;
+        this.infinite = infinite;
+        this.probabilities = probabilities;
+        this.stuckProbability = stuckProbability;
+        this.trappedProbability = trappedProbability;
+        this.residual = residual;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @param pageId id of an ending
+     * @return number of paths from page 1 to the ending, or null if there are infinitely many or too many to count
+     *         exactly
+     */
+    public BigInteger getPathCount(int pageId) {
+        int index = endingIndex(pageId);
+        if (index == -1 || infinite[index]) return null;
+        return log2Counts[index] == Double.NEGATIVE_INFINITY ? BigInteger.ZERO : exactCounts[index];
+    }
+
+    /**
+     * @param pageId id of an ending
+     * @return base 10 logarithm of the number of paths from page 1 to the ending, which is exact to about 15 digits
+     *         even when the count itself is too large to keep; negative infinity if there are no paths, and positive
+     *         infinity if there are infinitely many
+     */
+    public double getPathCountLog10(int pageId) {
+        int index = endingIndex(pageId);
+        if (index == -1) return Double.NEGATIVE_INFINITY;
+        if (infinite[index]) return Double.POSITIVE_INFINITY;
+        return log2Counts[index] * Math.log10(2);
+    }
+
+    /**
+     * @param pageId id of an ending
+     * @return whether infinitely many paths lead to the ending, because some of them go through a loop
+     */
+    public boolean hasInfinitelyManyPaths(int pageId) {
+        int index = endingIndex(pageId);
+        return index != -1 && infinite[index];
+    }
+
+    /**
+     * @param pageId id of an ending
+     * @return probability of reaching the ending when every valid link on a page is chosen with the same probability
+     */
+    public double getEndingProbability(int pageId) {
+        int index = endingIndex(pageId);
+        return index == -1 ? 0 : probabilities[index];
+    }
+
+    /**
+     * @return probability of getting stuck on a page without valid links that isn't an ending
+     */
+    public double getStuckProbability() {
+        return stuckProbability;
+    }
+
+    /**
+     * @return probability of entering a loop that can't be left
+     */
+    public double getTrappedProbability() {
+        return trappedProbability;
+    }
+
+    /**
+     * @return largest remaining error of an iteratively solved loop, relative to what flowed into it; 0 if every loop
+     *         was solved directly
+     */
+    public double getResidual() {
+        return residual;
+    }
+
+    /**
+     * @return ids of the endings that can be reached, most likely first
+     */
+    public int[] getReachableEndingPageIds() {
+        return IntStream.range(0, probabilities.length)
+                .filter(i -> graph.isEnding(i) && (infinite[i] || log2Counts[i] != Double.NEGATIVE_INFINITY))
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer index) -> probabilities[index]).reversed())
+                .mapToInt(graph::getPageId)
+                .toArray();
+    }
+
+    /**
+     * Formats the report as text for people to read.
+     * @param maxListed maximum number of endings to list
+     * @return the report
+     */
+    public String format(int maxListed) {
+        StringBuilder text = new StringBuilder();
+        int[] endings = getReachableEndingPageIds();
+
+        text.append(String.format("%,d endings can be reached, calculated in %,d ms%n", endings.length,
+                elapsedNanos / 1_000_000));
+        text.append(String.format("Probability of getting stuck on a page without links: %.6f%n", stuckProbability));
+        text.append(String.format("Probability of entering a loop that can't be left: %.6f%n", trappedProbability));
+        if (residual > 0) text.append(String.format("Largest relative error in a loop: %.1e%n", residual));
+        text.append(System.lineSeparator());
+
+        text.append(String.format("%-12s %12s  %s%n", "ending", "probability", "paths"));
+        for (int i = 0; i < Math.min(maxListed, endings.length); i++) {
+            text.append(String.format("Page %-7d %12.8f  %s%n", endings[i], getEndingProbability(endings[i]),
+                    formatPathCount(endings[i])));
+        }
+        if (endings.length > maxListed) text.append("...").append(System.lineSeparator());
+
+        return text.toString();
+    }
+
+    /**
+     * @return the path count of an ending, in full if it is known exactly and short enough
+     */
+    private String formatPathCount(int pageId) {
+        if (hasInfinitelyManyPaths(pageId)) return "infinitely many";
+
+        BigInteger count = getPathCount(pageId);
+        if (count != null && count.bitLength() <= 64) return String.format("%,d", count);
+
+        double log10 = getPathCountLog10(pageId);
+        double exponent = Math.floor(log10);
+        return String.format("%s%.6fe%d", count != null ? "" : "~", Math.pow(10, log10 - exponent), (long) exponent);
+    }
+
+    /**
+     * @return index of an ending, or -1 if there is no ending with that id
+     */
+    private int endingIndex(int pageId) {
+        int index = graph.indexOf(pageId);
+        return index != -1 && graph.isEnding(index) ? index : -1;
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Contains the main() method for the command line tool that exports, generates and inspects gamebook files, copies
+ * the book in the database to a local gamebook store, and analyzes the structure of a book.
+ */
+public class GamebookFileMain {
+    /**
+     * Entry point for the gamebook file tool.
+     * @param args "export &lt;path&gt;" to export the book in the database, "generate &lt;pages&gt; &lt;path&gt;"
+     *             to write a synthetic book, "info &lt;path&gt;" to open a file and print its contents' size,
+     *             "import-local &lt;directory&gt;" to copy the book in the database to a local gamebook store,
+     *             "analyze [&lt;directory&gt;]" to report structural problems in the book in the database or in a
+     *             local gamebook store, "endings [&lt;directory&gt;]" to calculate the path counts and
+     *             probabilities of that book's endings, or "simulate &lt;playthroughs&gt; [&lt;directory&gt;]" to
+     *             play that book at random many times
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("export")) {
+            DatabaseModel databaseModel = new DatabaseModel();
+            long start = System.nanoTime();
+            GamebookFileWriter.export(databaseModel, Paths.get(args[1]));
+            databaseModel.closeConnection();
+            printWritten(Paths.get(args[1]), start);
+        } else if (args.length == 3 && args[0].equals("generate")) {
+            BookSnapshot snapshot = SyntheticBookGenerator.generate(Integer.parseInt(args[1]), 3, 40, 42);
+            long start = System.nanoTime();
+            GamebookFileWriter.export(snapshot, Paths.get(args[2]));
+            printWritten(Paths.get(args[2]), start);
+        } else if (args.length == 2 && args[0].equals("info")) {
+            long start = System.nanoTime();
+            MappedGamebook book = MappedGamebook.open(Paths.get(args[1]));
+            long openMicros = (System.nanoTime() - start) / 1000;
+            System.out.printf("%,d pages, %,d links, %,d strings, opened in %,d us%n",
+                    book.getPageCount(), book.getLinkCount(), book.getStringCount(), openMicros);
+            book.close();
+        } else if (args.length == 2 && args[0].equals("import-local")) {
+            DatabaseModel databaseModel = new DatabaseModel();
+            LocalGamebookStore store = LocalGamebookStore.open(Paths.get(args[1]));
+            long start = System.nanoTime();
+            store.importFrom(databaseModel);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            databaseModel.closeConnection();
+            store.closeConnection();
+            System.out.printf("Imported the book into %s in %,d ms%n", args[1], elapsedMillis);
+        } else if (args.length >= 1 && args.length <= 2 && args[0].equals("analyze")) {
+            BookGraph graph = loadGraph(args.length == 2 ? args[1] : null);
+            long start = System.nanoTime();
+            GraphReport report = GraphAnalyzer.analyze(graph);
+            long analyzeMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.print(report.format(50));
+            System.out.printf("Analyzed in %,d ms%n", analyzeMillis);
+        } else if (args.length >= 1 && args.length <= 2 && args[0].equals("endings")) {
+            BookGraph graph = loadGraph(args.length == 2 ? args[1] : null);
+            System.out.print(EndingCalculator.calculate(graph).format(50));
+        } else if (args.length >= 2 && args.length <= 3 && args[0].equals("simulate")) {
+            BookGraph graph = loadGraph(args.length == 3 ? args[2] : null);
+            SimulationReport report = new PlaythroughSimulator(graph).simulate(Long.parseLong(args[1]), 10_000, 42);
+            System.out.print(report.format(20));
+        } else {
+            System.out.println("Usage: GamebookFileMain export <path> | generate <pages> <path> | info <path> | " +
+                    "import-local <directory> | analyze [<directory>] | endings [<directory>] | " +
+                    "simulate <playthroughs> [<directory>]");
+        }
+    }
+
+    /**
+     * Loads the graph of the book in the database or in a local gamebook store, and prints how long it took.
+     * @param directory directory of the local gamebook store, or null for the database
+     */
+    private static BookGraph loadGraph(String directory) throws IOException {
+        GamebookStore store = directory != null ? LocalGamebookStore.open(Paths.get(directory)) : new DatabaseModel();
+        long start = System.nanoTime();
+        BookGraph graph = BookGraph.load(store);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        store.closeConnection();
+        System.out.printf("Loaded %,d pages and %,d links in %,d ms%n", graph.getPageCount(), graph.getLinkCount(),
+                elapsedMillis);
+        return graph;
+    }
+
+    /**
+     * Prints the size of a written file and how long writing it took.
+     */
+    private static void printWritten(Path path, long startNanos) throws IOException {
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        System.out.printf("Wrote %s (%,d KB) in %,d ms%n", path, Files.size(path) / 1024, elapsedMillis);
+    }
+}
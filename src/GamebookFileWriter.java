@@ -0,0 +1,281 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writes gamebooks to the compact binary gamebook file format, which MappedGamebook reads. All numbers are
+ * big-endian. The file consists of:
+ * <ul>
+ *     <li>a 64 byte header: magic number, format version, page, link and string counts, and the offset of every
+ *     section,</li>
+ *     <li>the links section: one 12 byte record per link (id, target page id, text string index or -1), grouped by
+ *     the page the link points from,</li>
+ *     <li>the pages section: one 20 byte record per page (id, body string index, flags, index of the first link,
+ *     number of links), sorted by id,</li>
+ *     <li>the string index: the offset of every string in the string data, as 8 byte numbers,</li>
+ *     <li>the string data: every string as a 4 byte length followed by its UTF-8 bytes.</li>
+ * </ul>
+ * Links must be added before pages, grouped by the page they point from in ascending order, and pages must be added
+ * in ascending order of id. Short strings that occur several times are only stored once.
+ */
+public class GamebookFileWriter implements Closeable {
+    static final int MAGIC = 0x47424F4B; // "GBOK"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int PAGE_RECORD_SIZE = 20;
+    static final int LINK_RECORD_SIZE = 12;
+    static final int FLAG_ENDING = 1;
+
+    /**
+     * Strings up to this length are deduplicated. Longer strings (typically page bodies) are rarely repeated, and
+     * remembering them would keep the whole book in memory.
+     */
+    private static final int MAX_DEDUPLICATED_LENGTH = 256;
+
+    private final Path path;
+    private final Path stringIndexPath;
+    private final Path stringDataPath;
+    private final DataOutputStream output;
+    private final DataOutputStream stringIndexOutput;
+    private final DataOutputStream stringDataOutput;
+    private final HashMap<String, Integer> stringIndexes;
+    private long position;
+    private long stringDataLength;
+    private int stringCount;
+
+    private int linkCount;
+    private int groupCount;
+    private int[] groupPageIds = new int[64];
+    private int[] groupFirstLinks = new int[64];
+    private int[] groupLinkCounts = new int[64];
+    private long pagesOffset = -1;
+    private int pageCount;
+    private int lastPageId = Integer.MIN_VALUE;
+
+    /**
+     * Creates a gamebook file, replacing any existing file at the path.
+     * @param path path of the file to write
+     * @throws IOException if the file couldn't be created
+     */
+    public GamebookFileWriter(Path path) throws IOException {
+        this.path = path;
+        stringIndexPath = Files.createTempFile("gamebook-strings", ".idx");
+        stringDataPath = Files.createTempFile("gamebook-strings", ".dat");
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        stringIndexOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(stringIndexPath)));
+        stringDataOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(stringDataPath)));
+        stringIndexes = new HashMap<>();
+
+        // Reserve space for the header, which is written when the counts and offsets are known
+        output.write(new byte[HEADER_SIZE]);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Exports the whole book in a store to a gamebook file. Pages and links are streamed, so the book doesn't have
+     * to fit in memory.
+     * @param store store to export the book from
+     * @param path path of the file to write
+     * @throws IOException if the file couldn't be written
+     */
+    public static void export(GamebookStore store, Path path) throws IOException {
+        try (GamebookFileWriter writer = new GamebookFileWriter(path)) {
+            store.streamAllLinks(link -> writer.addLinkUnchecked(
+                    link.getId(), link.getFromPageId(), link.getToPageId(), link.getText()));
+            store.streamAllPages(page -> writer.addPageUnchecked(
+                    page.getId(), page.getBody(), page.isEnding()));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Exports a book snapshot to a gamebook file.
+     * @param snapshot snapshot to export
+     * @param path path of the file to write
+     * @throws IOException if the file couldn't be written
+     */
+    public static void export(BookSnapshot snapshot, Path path) throws IOException {
+        try (GamebookFileWriter writer = new GamebookFileWriter(path)) {
+            for (int index = 0; index < snapshot.getPageCount(); index++) {
+                int pageId = snapshot.getPageId(index);
+                int firstLink = snapshot.getFirstLink(index);
+                for (int link = firstLink; link < firstLink + snapshot.getLinkCount(index); link++) {
+                    writer.addLink(snapshot.getLinkId(link), pageId, snapshot.getLinkTarget(link),
+                            snapshot.getLinkText(link));
+                }
+            }
+
+            for (int index = 0; index < snapshot.getPageCount(); index++) {
+                writer.addPage(snapshot.getPageId(index), snapshot.getBody(index), snapshot.isEnding(index));
+            }
+        }
+    }
+
+    /**
+     * Adds a link. Links must be grouped by the page they point from, in ascending order of that page's id.
+     * @param id unique identifier of the link
+     * @param fromPageId id of the page on which the link appears
+     * @param toPageId id of the page to which the link points
+     * @param text text of the link, or null
+     * @throws IOException if the link couldn't be written
+     */
+    public void addLink(int id, int fromPageId, int toPageId, String text) throws IOException {
+        if (pagesOffset != -1) throw new IllegalStateException("Links must be added before pages");
+
+        if (groupCount == 0 || groupPageIds[groupCount - 1] != fromPageId) {
+            if (groupCount > 0 && groupPageIds[groupCount - 1] > fromPageId) {
+                throw new IllegalStateException("Links must be grouped by ascending source page id");
+            }
+            if (groupCount == groupPageIds.length) {
+                int capacity = groupCount * 2;
+                groupPageIds = Arrays.copyOf(groupPageIds, capacity);
+                groupFirstLinks = Arrays.copyOf(groupFirstLinks, capacity);
+                groupLinkCounts = Arrays.copyOf(groupLinkCounts, capacity);
+            }
+            groupPageIds[groupCount] = fromPageId;
+            groupFirstLinks[groupCount] = linkCount;
+            groupLinkCounts[groupCount] = 0;
+            groupCount++;
+        }
+        groupLinkCounts[groupCount - 1]++;
+
+        output.writeInt(id);
+        output.writeInt(toPageId);
+        output.writeInt(addString(text));
+        position += LINK_RECORD_SIZE;
+        linkCount++;
+    }
+
+    /**
+     * Adds a page. Pages must be added in ascending order of id, after all links.
+     * @param id unique identifier of the page
+     * @param body body text of the page
+     * @param isEnding whether the page is an ending of the gamebook
+     * @throws IOException if the page couldn't be written
+     */
+    public void addPage(int id, String body, boolean isEnding) throws IOException {
+        if (id <= lastPageId) throw new IllegalStateException("Pages must be added in ascending order of id");
+        if (pagesOffset == -1) pagesOffset = position;
+        lastPageId = id;
+
+        int group = Arrays.binarySearch(groupPageIds, 0, groupCount, id);
+
+        output.writeInt(id);
+        output.writeInt(addString(body));
+        output.writeInt(isEnding ? FLAG_ENDING : 0);
+        output.writeInt(group >= 0 ? groupFirstLinks[group] : 0);
+        output.writeInt(group >= 0 ? groupLinkCounts[group] : 0);
+        position += PAGE_RECORD_SIZE;
+        pageCount++;
+    }
+
+    /**
+     * Finishes the file by appending the string table and writing the header.
+     * @throws IOException if the file couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (pagesOffset == -1) pagesOffset = position;
+
+        try {
+            output.close();
+            stringIndexOutput.close();
+            stringDataOutput.close();
+
+            long stringIndexOffset = HEADER_SIZE + (long) linkCount * LINK_RECORD_SIZE
+                    + (long) pageCount * PAGE_RECORD_SIZE;
+            long stringDataOffset = stringIndexOffset + (long) stringCount * Long.BYTES;
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                appendFile(channel, stringIndexPath, stringIndexOffset);
+                appendFile(channel, stringDataPath, stringDataOffset);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(pageCount);
+                header.putInt(linkCount);
+                header.putInt(stringCount);
+                header.putInt(0); // Padding to align the offsets
+                header.putLong(HEADER_SIZE); // Links section
+                header.putLong(pagesOffset);
+                header.putLong(stringIndexOffset);
+                header.putLong(stringDataOffset);
+                header.putLong(stringDataLength);
+                header.flip();
+                channel.write(header, 0);
+                channel.force(true);
+            }
+        } finally {
+            Files.deleteIfExists(stringIndexPath);
+            Files.deleteIfExists(stringDataPath);
+        }
+    }
+
+    /**
+     * Adds a link from a lambda, where checked exceptions can't be thrown.
+     */
+    private void addLinkUnchecked(int id, int fromPageId, int toPageId, String text) {
+        try {
+            addLink(id, fromPageId, toPageId, text);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Adds a page from a lambda, where checked exceptions can't be thrown.
+     */
+    private void addPageUnchecked(int id, String body, boolean isEnding) {
+        try {
+            addPage(id, body, isEnding);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Adds a string to the string table, reusing an identical short string if one has been added before.
+     * @param string string to add, or null
+     * @return index of the string in the string table, or -1 for null
+     */
+    private int addString(String string) throws IOException {
+        if (string == null) return -1;
+
+        boolean deduplicate = string.length() <= MAX_DEDUPLICATED_LENGTH;
+        if (deduplicate) {
+            Integer existing = stringIndexes.get(string);
+            if (existing != null) return existing;
+        }
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        stringIndexOutput.writeLong(stringDataLength);
+        stringDataOutput.writeInt(bytes.length);
+        stringDataOutput.write(bytes);
+        stringDataLength += Integer.BYTES + bytes.length;
+
+        int index = stringCount++;
+        if (deduplicate) stringIndexes.put(string, index);
+        return index;
+    }
+
+    /**
+     * Copies a temporary file into the gamebook file at a given position.
+     */
+    private static void appendFile(FileChannel channel, Path source, long position) throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = sourceChannel.size();
+            long copied = 0;
+            while (copied < size) {
+                copied += sourceChannel.transferTo(copied, size - copied, channel.position(position + copied));
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Storage backend for a gamebook (the MVC model). DatabaseModel stores the book in a MySQL database and
+ * LocalGamebookStore stores it in local files without a server.
+ * <p>
+ * Like the original DatabaseModel, a store remembers the pages from the latest getAllPages() call and the links from
+ * the latest getPage() or getLinksFromPage() call. Link mutators that take an index refer to the links cache.
+ */
+public interface GamebookStore {
+    /**
+     * Maximum number of characters of a page body returned by the preview methods.
+     */
+    int PREVIEW_LENGTH = 100;
+
+    /**
+     * @return pages from the latest getAllPages() call
+     */
+    ArrayList<Page> getPagesCache();
+
+    /**
+     * @return links from the latest getPage() or getLinksFromPage() call
+     */
+    ArrayList<Link> getLinksCache();
+
+    /**
+     * @return read-through cache used by getCachedPage()
+     */
+    PageCache getPageCache();
+
+    /**
+     * Adds a listener that is told which pages have changed, including changes made by other programs that share the
+     * storage. A store that other programs can't change never calls the listener.
+     * @param listener listener to call from a background thread
+     */
+    default void addChangeListener(ChangeLogPoller.Listener listener) {
+    }
+
+    /**
+     * Fetches all pages. Doesn't include links.
+     * @return all pages in the book
+     */
+    ArrayList<Page> getAllPages();
+
+    /**
+     * @return number of pages in the book
+     */
+    int getPageCount();
+
+    /**
+     * Fetches a window of pages in order of id, starting right after a known page id. Only the start of each body is
+     * included (see PREVIEW_LENGTH), and no links. Doesn't update the pages cache.
+     * @param afterPageId id of the last page before the window, or Integer.MIN_VALUE for the first window
+     * @param limit maximum number of pages to fetch
+     * @return up to limit pages with ids greater than afterPageId, ordered by id
+     */
+    ArrayList<Page> getPagePreviewsAfter(int afterPageId, int limit);
+
+    /**
+     * Fetches a window of pages in order of id, starting at a row position. Slower than getPagePreviewsAfter() for
+     * windows far into the book, since the store has to skip all rows before the window. Only the start of each body
+     * is included (see PREVIEW_LENGTH), and no links. Doesn't update the pages cache.
+     * @param offset number of pages before the window
+     * @param limit maximum number of pages to fetch
+     * @return up to limit pages, ordered by id
+     */
+    ArrayList<Page> getPagePreviewsAt(int offset, int limit);
+
+    /**
+     * @param pageId id of a page
+     * @return whether a page with the id exists
+     */
+    boolean pageExists(int pageId);
+
+    /**
+     * @return highest page id in the book, or 0 if there are no pages. New pages always get higher ids.
+     */
+    int getMaxPageId();
+
+    /**
+     * @return current revision of the book, which increases with every change
+     */
+    long getRevision();
+
+    /**
+     * Fetches the pages and links that have changed since a revision. The cost depends on the number of changes, not
+     * on the size of the book.
+     * @param revision revision that the client has already seen, from getRevision() or a previous call
+     * @return changes since the revision, or null if they couldn't be fetched
+     */
+    BookChanges getChangesSince(long revision);
+
+    /**
+     * Streams all pages one by one, without holding them all in memory. Doesn't include links and doesn't update the
+     * pages cache.
+     * @param consumer consumer that receives each page in order of id
+     */
+    void streamAllPages(Consumer<Page> consumer);
+
+    /**
+     * Streams all links one by one, without holding them all in memory.
+     * @param consumer consumer that receives each link, grouped by the page the link points from in order of id
+     */
+    void streamAllLinks(Consumer<Link> consumer);
+
+    /**
+     * Fetches a page with a given id. Includes links pointing from that page.
+     * @param pageId id of the desired page
+     * @return the desired page, or null if it doesn't exist or couldn't be fetched
+     */
+    Page getPage(int pageId);
+
+    /**
+     * Fetches several pages at once. Includes links pointing from each page. Doesn't update the links cache.
+     * @param pageIds ids of the desired pages
+     * @return the pages that exist, ordered by id
+     */
+    ArrayList<Page> getPages(Collection<Integer> pageIds);
+
+    /**
+     * Fetches a page with a given id through the page cache. Pages are invalidated in the cache whenever they are
+     * changed through this store.
+     * @param pageId id of the desired page
+     * @return the desired page, or null if it doesn't exist or couldn't be fetched
+     */
+    Page getCachedPage(int pageId);
+
+    /**
+     * Fetches all links that point from a given page.
+     * @param fromPageId id of the page from which the link points
+     * @return all links that point from the given page
+     */
+    ArrayList<Link> getLinksFromPage(int fromPageId);
+
+    /**
+     * Inserts a blank page.
+     */
+    void createPage();
+
+    /**
+     * Inserts a blank link. By default, the link points from and to the same page.
+     * @param fromPageId id of the page from which the link should point
+     */
+    void createLink(int fromPageId);
+
+    /**
+     * Updates the body text of a page.
+     * @param pageId id of the page
+     * @param body new body text to update with
+     */
+    void updatePageBody(int pageId, String body);
+
+    /**
+     * Updates the ending attribute of a page.
+     * @param pageId id of the page
+     * @param isEnding whether to treat this page as an ending of the gamebook
+     */
+    void updatePageIsEnding(int pageId, boolean isEnding);
+
+    /**
+     * Updates the text of a link.
+     * @param index index of the link in the links cache
+     * @param text new text to update with
+     */
+    void updateLinkText(int index, String text);
+
+    /**
+     * Updates the target page id of a link.
+     * @param index index of the link in the links cache
+     * @param toPageId new target page id to update with
+     */
+    void updateLinkToPageId(int index, int toPageId);
+
+    /**
+     * Applies a batch of updates atomically: either all updates are applied or none.
+     * @param batch updates to apply
+     * @return whether the updates were applied, or false if they couldn't be applied now but may be later
+     * @throws UpdatesRejectedException if the store rejected the updates, so that applying them again can't succeed
+     */
+    boolean applyUpdates(UpdateBatch batch);
+
+    /**
+     * Deletes a page together with the links on it. Links from other pages that point to the page are kept, without
+     * a target (a target page id of 0), so that the author can point them somewhere else.
+     * @param pageId id of the page
+     */
+    void deletePage(int pageId);
+
+    /**
+     * Deletes a link.
+     * @param index index of the link in the links cache
+     */
+    void deleteLink(int index);
+
+    /**
+     * Closes the connection to the underlying storage safely.
+     */
+    void closeConnection();
+}
@@ -0,0 +1,181 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Finds structural problems in a gamebook: pages that can't be reached from the first page, pages that aren't endings
+ * but have no links, links to pages that don't exist, pages from which no ending can be reached and loops that can't
+ * be left. Breadth-first searches are level-synchronous and expand large frontiers in parallel on the common
+ * fork-join pool, so books with millions of pages are analyzed in well under a second per search.
+ */
+public class GraphAnalyzer {
+    public static final int START_PAGE_ID = 1;
+
+    // Frontiers smaller than this are expanded on the calling thread, where forking would cost more than it saves
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int LEAF_SIZE = 1024;
+    private static final VarHandle INT_ARRAY = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * Expands one slice of a frontier: claims every unvisited neighbour for the next level and returns the claimed
+     * pages.
+     */
+    private static class ExpandTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] offsets;
+        private final int[] adjacency;
+        private final int[] distance;
+        private final int[] frontier;
+        private final int from;
+        private final int to;
+        private final int level;
+
+        ExpandTask(int[] offsets, int[] adjacency, int[] distance, int[] frontier, int from, int to, int level) {
+            this.offsets = offsets;
+            this.adjacency = adjacency;
+            this.distance = distance;
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.level = level;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from > LEAF_SIZE) {
+                int middle = (from + to) >>> 1;
+                ExpandTask left = new ExpandTask(offsets, adjacency, distance, frontier, from, middle, level);
+                left.fork();
+                int[] right = new ExpandTask(offsets, adjacency, distance, frontier, middle, to, level).compute();
+                int[] leftResult = left.join();
+
+                int[] merged = Arrays.copyOf(leftResult, leftResult.length + right.length);
+                System.arraycopy(right, 0, merged, leftResult.length, right.length);
+                return merged;
+            }
+
+            int[] claimed = new int[16];
+            int claimedCount = 0;
+            for (int i = from; i < to; i++) {
+                int page = frontier[i];
+                for (int edge = offsets[page]; edge < offsets[page + 1]; edge++) {
+                    int neighbour = adjacency[edge];
+                    // Several threads may reach the same page; only the one whose compare-and-set wins claims it
+                    if (neighbour == -1 || distance[neighbour] != -1) continue;
+                    if (!INT_ARRAY.compareAndSet(distance, neighbour, -1, level)) continue;
+
+                    if (claimedCount == claimed.length) claimed = Arrays.copyOf(claimed, claimedCount * 2);
+                    claimed[claimedCount++] = neighbour;
+                }
+            }
+            return Arrays.copyOf(claimed, claimedCount);
+        }
+    }
+
+    /**
+     * Analyzes a book, starting from page 1.
+     * @param graph graph of the book
+     * @return report of the book's structure
+     */
+    public static GraphReport analyze(BookGraph graph) {
+        int pageCount = graph.getPageCount();
+        int start = graph.indexOf(START_PAGE_ID);
+
+        // Forward from the first page: which pages can be reached, and in how few steps
+        int[] depth = start == -1
+                ? filled(pageCount)
+                : breadthFirst(graph.offsets(), graph.targets(), pageCount, new int[] {start});
+
+        // Backward from every ending: from which pages an ending can be reached, and in how few steps
+        int[] endings = IntStream.range(0, pageCount).parallel().filter(graph::isEnding).toArray();
+        int[][] reverse = graph.reverse();
+        int[] stepsToEnding = breadthFirst(reverse[0], reverse[1], pageCount, endings);
+
+        // Loops that can't be left: components without links out of them and without an ending inside them
+        StronglyConnectedComponents components = StronglyConnectedComponents.of(graph);
+        boolean[] hasExit = new boolean[components.getComponentCount()];
+        boolean[] hasSelfLink = new boolean[components.getComponentCount()];
+        for (int page = 0; page < pageCount; page++) {
+            int component = components.getComponent(page);
+            if (graph.isEnding(page)) hasExit[component] = true;
+
+            for (int link = graph.getFirstLink(page); link < graph.getEndLink(page); link++) {
+                int target = graph.getTarget(link);
+                if (target == -1) continue;
+                if (components.getComponent(target) != component) {
+                    hasExit[component] = true;
+                } else if (target == page) {
+                    hasSelfLink[component] = true;
+                }
+            }
+        }
+
+        ArrayList<int[]> closedLoops = new ArrayList<>();
+        int[][] loopMembers = new int[components.getComponentCount()][];
+        int[] loopFill = new int[components.getComponentCount()];
+        for (int page = 0; page < pageCount; page++) {
+            int component = components.getComponent(page);
+            boolean isLoop = components.getSize(component) > 1 || hasSelfLink[component];
+            if (hasExit[component] || !isLoop) continue;
+
+            if (loopMembers[component] == null) {
+                loopMembers[component] = new int[components.getSize(component)];
+                closedLoops.add(loopMembers[component]);
+            }
+            loopMembers[component][loopFill[component]++] = graph.getPageId(page);
+        }
+
+        ArrayList<Link> danglingLinks = new ArrayList<>();
+        for (int page = 0; page < pageCount; page++) {
+            for (int link = graph.getFirstLink(page); link < graph.getEndLink(page); link++) {
+                if (graph.getTarget(link) == -1) {
+                    danglingLinks.add(new Link(graph.getLinkId(link), graph.getPageId(page),
+                            graph.getTargetId(link), null));
+                }
+            }
+        }
+
+        int[] deadEnds = IntStream.range(0, pageCount).parallel()
+                .filter(page -> !graph.isEnding(page) && graph.getFirstLink(page) == graph.getEndLink(page))
+                .map(graph::getPageId).toArray();
+
+        return new GraphReport(graph, start != -1, depth, stepsToEnding, deadEnds, danglingLinks, closedLoops,
+                components.getComponentCount());
+    }
+
+    /**
+     * Level-synchronous breadth-first search from several sources at once.
+     * @param offsets offsets of the first edge of every node, followed by the edge count
+     * @param adjacency target node of every edge, or -1 for edges to be ignored
+     * @param nodeCount number of nodes
+     * @param sources nodes to start from, at distance 0
+     * @return distance of every node from the nearest source, or -1 for nodes that can't be reached
+     */
+    static int[] breadthFirst(int[] offsets, int[] adjacency, int nodeCount, int[] sources) {
+        int[] distance = filled(nodeCount);
+        for (int source : sources) distance[source] = 0;
+
+        int[] frontier = sources;
+        int level = 0;
+        while (frontier.length > 0) {
+            level++;
+            ExpandTask task = new ExpandTask(offsets, adjacency, distance, frontier, 0, frontier.length, level);
+            frontier = frontier.length < PARALLEL_THRESHOLD ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+        }
+        return distance;
+    }
+
+    /**
+     * @return array of a given length filled with -1
+     */
+    private static int[] filled(int length) {
+        int[] array = new int[length];
+        Arrays.fill(array, -1);
+        return array;
+    }
+}
@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+
+/**
+ * Result of GraphAnalyzer: the structural problems found in a gamebook, and for every page how many steps it is from
+ * the first page and from the nearest ending.
+ */
+public class GraphReport {
+    private final BookGraph graph;
+    private final boolean hasStartPage;
+    private final int[] depth;
+    private final int[] stepsToEnding;
+    private final int[] deadEndPageIds;
+    private final ArrayList<Link> danglingLinks;
+    private final ArrayList<int[]> closedLoops;
+    private final int componentCount;
+
+    /**
+     * Constructs a report. Used by GraphAnalyzer.
+     */
+    GraphReport(BookGraph graph, boolean hasStartPage, int[] depth, int[] stepsToEnding, int[] deadEndPageIds,
+                ArrayList<Link> danglingLinks, ArrayList<int[]> closedLoops, int componentCount) {
+        this.graph = graph;
+        this.hasStartPage = hasStartPage;
+        this.depth = depth;
+        this.stepsToEnding = stepsToEnding;
+        this.deadEndPageIds = deadEndPageIds;
+        this.danglingLinks = danglingLinks;
+        this.closedLoops = closedLoops;
+        this.componentCount = componentCount;
+    }
+
+    /**
+     * @return graph of the analyzed book
+     */
+    public BookGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return whether the book has a first page to start from
+     */
+    public boolean hasStartPage() {
+        return hasStartPage;
+    }
+
+    /**
+     * @param pageId id of a page
+     * @return fewest links to follow from the first page to the page, or -1 if it can't be reached
+     */
+    public int getDepth(int pageId) {
+        int index = graph.indexOf(pageId);
+        return index == -1 ? -1 : depth[index];
+    }
+
+    /**
+     * @param pageId id of a page
+     * @return fewest links to follow from the page to an ending, or -1 if no ending can be reached
+     */
+    public int getStepsToEnding(int pageId) {
+        int index = graph.indexOf(pageId);
+        return index == -1 ? -1 : stepsToEnding[index];
+    }
+
+    /**
+     * @return ids of the pages that can't be reached from the first page
+     */
+    public int[] getUnreachablePageIds() {
+        return pageIdsWhere(depth, false);
+    }
+
+    /**
+     * @return ids of the pages that can be reached from the first page but can't reach an ending, where the player
+     *         gets stuck
+     */
+    public int[] getStuckPageIds() {
+        int count = 0;
+        for (int index = 0; index < depth.length; index++) {
+            if (depth[index] != -1 && stepsToEnding[index] == -1) count++;
+        }
+
+        int[] pageIds = new int[count];
+        count = 0;
+        for (int index = 0; index < depth.length; index++) {
+            if (depth[index] != -1 && stepsToEnding[index] == -1) pageIds[count++] = graph.getPageId(index);
+        }
+        return pageIds;
+    }
+
+    /**
+     * @return number of endings that can be reached from the first page
+     */
+    public int getReachableEndingCount() {
+        int count = 0;
+        for (int index = 0; index < depth.length; index++) {
+            if (depth[index] != -1 && graph.isEnding(index)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return number of endings in the book
+     */
+    public int getEndingCount() {
+        int count = 0;
+        for (int index = 0; index < depth.length; index++) {
+            if (graph.isEnding(index)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return ids of the pages that aren't endings but have no links
+     */
+    public int[] getDeadEndPageIds() {
+        return deadEndPageIds;
+    }
+
+    /**
+     * @return links that point to pages that don't exist, without their texts
+     */
+    public ArrayList<Link> getDanglingLinks() {
+        return danglingLinks;
+    }
+
+    /**
+     * @return page ids of every loop of pages that has no links out of it and no ending in it
+     */
+    public ArrayList<int[]> getClosedLoops() {
+        return closedLoops;
+    }
+
+    /**
+     * @return number of strongly connected components in the book
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * @return fewest links to follow from the first page to the page that is furthest away from it
+     */
+    public int getMaxDepth() {
+        int max = 0;
+        for (int value : depth) max = Math.max(max, value);
+        return max;
+    }
+
+    /**
+     * @return whether no problems were found
+     */
+    public boolean isHealthy() {
+        return hasStartPage && getUnreachablePageIds().length == 0 && deadEndPageIds.length == 0
+                && danglingLinks.isEmpty() && closedLoops.isEmpty() && getStuckPageIds().length == 0;
+    }
+
+    /**
+     * Formats the report as text for people to read.
+     * @param maxListed maximum number of page ids or links to list per problem
+     * @return the report
+     */
+    public String format(int maxListed) {
+        StringBuilder text = new StringBuilder();
+        int[] unreachable = getUnreachablePageIds();
+        int[] stuck = getStuckPageIds();
+
+        text.append(String.format("%,d pages, %,d links, %,d strongly connected components%n",
+                graph.getPageCount(), graph.getLinkCount(), componentCount));
+        if (!hasStartPage) {
+            text.append(String.format("There is no page %d to start from%n", GraphAnalyzer.START_PAGE_ID));
+        } else {
+            text.append(String.format("%,d pages can be reached from page %d, at most %,d links away%n",
+                    graph.getPageCount() - unreachable.length, GraphAnalyzer.START_PAGE_ID, getMaxDepth()));
+        }
+        text.append(String.format("%,d of %,d endings can be reached%n", getReachableEndingCount(),
+                getEndingCount()));
+        text.append(System.lineSeparator());
+
+        appendPageIds(text, "Pages that can't be reached from the first page", unreachable, maxListed);
+        appendPageIds(text, "Pages without links that aren't endings", deadEndPageIds, maxListed);
+        appendPageIds(text, "Pages from which no ending can be reached", stuck, maxListed);
+
+        text.append(String.format("Links to pages that don't exist: %,d%n", danglingLinks.size()));
+        for (int i = 0; i < Math.min(maxListed, danglingLinks.size()); i++) {
+            Link link = danglingLinks.get(i);
+            text.append(String.format("  Link %d on page %d points to page %d%n", link.getId(),
+                    link.getFromPageId(), link.getToPageId()));
+        }
+        if (danglingLinks.size() > maxListed) text.append("  ...").append(System.lineSeparator());
+
+        text.append(String.format("Loops that can't be left: %,d%n", closedLoops.size()));
+        for (int i = 0; i < Math.min(maxListed, closedLoops.size()); i++) {
+            text.append("  ");
+            appendList(text, closedLoops.get(i), maxListed);
+        }
+        if (closedLoops.size() > maxListed) text.append("  ...").append(System.lineSeparator());
+
+        return text.toString();
+    }
+
+    /**
+     * Appends a heading with a count, followed by the first page ids.
+     */
+    private static void appendPageIds(StringBuilder text, String heading, int[] pageIds, int maxListed) {
+        text.append(String.format("%s: %,d%n", heading, pageIds.length));
+        if (pageIds.length == 0) return;
+
+        text.append("  ");
+        appendList(text, pageIds, maxListed);
+    }
+
+    /**
+     * Appends up to maxListed numbers on one line.
+     */
+    private static void appendList(StringBuilder text, int[] values, int maxListed) {
+        for (int i = 0; i < Math.min(maxListed, values.length); i++) {
+            if (i > 0) text.append(", ");
+            text.append(values[i]);
+        }
+        if (values.length > maxListed) text.append(", ...");
+        text.append(System.lineSeparator());
+    }
+
+    /**
+     * @return ids of the pages whose distance is (or isn't) -1
+     */
+    private int[] pageIdsWhere(int[] distance, boolean reached) {
+        int count = 0;
+        for (int value : distance) {
+            if ((value != -1) == reached) count++;
+        }
+
+        int[] pageIds = new int[count];
+        count = 0;
+        for (int index = 0; index < distance.length; index++) {
+            if ((distance[index] != -1) == reached) pageIds[count++] = graph.getPageId(index);
+        }
+        return pageIds;
+    }
+}
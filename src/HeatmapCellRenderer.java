@@ -0,0 +1,58 @@
+import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+
+/**
+ * Table cell renderer for play counts that colors each cell from white (never) to red (the highest count in the
+ * table). The color follows the logarithm of the count, so that a page visited a few times stands out from one that
+ * was never visited even next to pages visited thousands of times.
+ */
+public class HeatmapCellRenderer extends DefaultTableCellRenderer {
+    private static final long serialVersionUID = 1L;
+
+    private static final Color HOT = new Color(235, 90, 60);
+
+    private long maximum;
+
+    /**
+     * Constructs a renderer with right-aligned counts.
+     */
+    public HeatmapCellRenderer() {
+        setHorizontalAlignment(SwingConstants.RIGHT);
+    }
+
+    /**
+     * @param maximum count that gets the hottest color
+     */
+    public void setMaximum(long maximum) {
+        this.maximum = maximum;
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus,
+                                                   int row, int column) {
+        super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+        if (!(value instanceof Number)) {
+            if (!isSelected) setBackground(table.getBackground());
+            return this;
+        }
+
+        long count = ((Number) value).longValue();
+        setText(String.format("%,d", count));
+        if (!isSelected) {
+            double heat = count <= 0 || maximum <= 0 ? 0 : Math.log1p(count) / Math.log1p(maximum);
+            setBackground(blend(table.getBackground(), HOT, Math.min(1, heat)));
+        }
+        return this;
+    }
+
+    /**
+     * @return a color between two colors
+     */
+    private static Color blend(Color from, Color to, double amount) {
+        return new Color(
+                (int) Math.round(from.getRed() + (to.getRed() - from.getRed()) * amount),
+                (int) Math.round(from.getGreen() + (to.getGreen() - from.getGreen()) * amount),
+                (int) Math.round(from.getBlue() + (to.getBlue() - from.getBlue()) * amount));
+    }
+}
@@ -0,0 +1,842 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded gamebook store that keeps the whole book in memory and persists it to a directory on the local disk, so
+ * that the apps can run without a MySQL server.
+ * <p>
+ * Every mutation is appended to a write-ahead log and forced to disk before it is applied in memory, so a mutation
+ * that has returned survives a crash. When the log grows large, and when the store is closed, the book is written to a
+ * snapshot file, which replaces the previous snapshot atomically, and the log is emptied. Each log record carries a
+ * sequence number and a CRC-32 checksum: records already covered by the snapshot are skipped when the log is
+ * replayed, and a torn record at the end of the log (from a crash in the middle of a write) is discarded.
+ * <p>
+ * Only one program at a time can open the store in a directory, such as an Editor and a Player on the same book,
+ * since neither would see the other's changes and their logs and snapshots would overwrite each other.
+ * <p>
+ * Like DatabaseModel, deleting a page also deletes the links on it, and keeps the links from other pages that point to
+ * it without a target.
+ */
+public class LocalGamebookStore implements GamebookStore {
+    private static final String SNAPSHOT_FILE = "book.snapshot";
+    private static final String LOG_FILE = "book.log";
+    private static final int SNAPSHOT_MAGIC = 0x47424C53; // "GBLS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long COMPACTION_THRESHOLD_BYTES = 4 * 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final Logger LOGGER = Logger.getLogger(LocalGamebookStore.class.getName());
+
+    private static final byte CREATE_PAGE = 1;
+    private static final byte CREATE_LINK = 2;
+    private static final byte UPDATE_PAGE_BODY = 3;
+    private static final byte UPDATE_PAGE_IS_ENDING = 4;
+    private static final byte UPDATE_LINK_TEXT = 5;
+    private static final byte UPDATE_LINK_TO_PAGE_ID = 6;
+    private static final byte DELETE_PAGE = 7;
+    private static final byte DELETE_LINK = 8;
+    private static final byte BATCH = 9;
+    // Older logs contain DELETE_PAGE records, which only removed the page and are replayed that way
+    private static final byte DELETE_PAGE_WITH_LINKS = 10;
+
+    private final Path directory;
+    private final DirectoryLock directoryLock;
+    private final FileChannel log;
+    private final TreeMap<Integer, Page> pages;
+    private final TreeMap<Integer, Link> linksById;
+    private final TreeMap<Long, Link> linksByPage;
+    private long lastSequenceNumber;
+    private int nextPageId;
+    private int nextLinkId;
+
+    // Journal of the pages and links changed since the store was opened, in order of revision, for getChangesSince()
+    private long journalStartRevision;
+    private long[] journalRevisions = new long[64];
+    private long[] journalEntries = new long[64];
+    private int journalSize;
+
+    private volatile ArrayList<Page> pagesCache;
+    private volatile ArrayList<Link> linksCache;
+    private final PageCache pageCache = new PageCache();
+
+    private LocalGamebookStore(Path directory) throws IOException {
+        this.directory = directory;
+        pages = new TreeMap<>();
+        linksById = new TreeMap<>();
+        linksByPage = new TreeMap<>();
+        nextPageId = 1;
+        nextLinkId = 1;
+
+        directoryLock = DirectoryLock.acquire(directory, "gamebook files");
+        FileChannel openedLog = null;
+        try {
+            readSnapshot();
+            openedLog = FileChannel.open(directory.resolve(LOG_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            log = openedLog;
+            replayLog();
+        } catch (IOException | RuntimeException ex) {
+            if (openedLog != null) openedLog.close();
+            directoryLock.close();
+            throw ex;
+        }
+        journalStartRevision = lastSequenceNumber;
+    }
+
+    /**
+     * Opens the store in a directory, creating the directory and an empty book if they don't exist. The latest
+     * snapshot is loaded and the write-ahead log is replayed on top of it.
+     * @param directory directory that holds the store's files
+     * @return the opened store
+     * @throws IOException if the store's files couldn't be read or created, or if another program has the store open
+     */
+    public static LocalGamebookStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new LocalGamebookStore(directory);
+    }
+
+    public ArrayList<Page> getPagesCache() {
+        return pagesCache;
+    }
+
+    public ArrayList<Link> getLinksCache() {
+        return linksCache;
+    }
+
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    /**
+     * Replaces the whole book with the book in another store, keeping all ids. The copy is written straight to a new
+     * snapshot.
+     * @param source store to copy the book from
+     * @throws IOException if the snapshot couldn't be written
+     */
+    public void importFrom(GamebookStore source) throws IOException {
+        importFrom(source::streamAllPages, source::streamAllLinks);
+    }
+
+    /**
+     * Replaces the whole book with streamed pages and links, such as a generated book, keeping all ids. The copy is
+     * written straight to a new snapshot.
+     * @param pageSource source that streams the pages into a consumer; links in the pages are ignored
+     * @param linkSource source that streams the links into a consumer
+     * @throws IOException if the snapshot couldn't be written
+     */
+    public synchronized void importFrom(Consumer<Consumer<Page>> pageSource, Consumer<Consumer<Link>> linkSource)
+            throws IOException {
+        pages.clear();
+        linksById.clear();
+        linksByPage.clear();
+
+        pageSource.accept(page -> {
+            pages.put(page.getId(), new Page(page.getId(), page.getBody(), page.isEnding()));
+            nextPageId = Math.max(nextPageId, page.getId() + 1);
+        });
+        linkSource.accept(link -> {
+            putLink(new Link(link.getId(), link.getFromPageId(), link.getToPageId(), link.getText()));
+            nextLinkId = Math.max(nextLinkId, link.getId() + 1);
+        });
+
+        pageCache.invalidateAll();
+        compact();
+        journalSize = 0;
+        journalStartRevision = lastSequenceNumber;
+    }
+
+    /**
+     * Fetches all pages. Doesn't include links.
+     * @return all pages in the store
+     */
+    public synchronized ArrayList<Page> getAllPages() {
+        ArrayList<Page> result = new ArrayList<>(pages.size());
+        for (Page page : pages.values()) {
+            result.add(new Page(page.getId(), page.getBody(), page.isEnding()));
+        }
+
+        pagesCache = result;
+        return result;
+    }
+
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    public synchronized ArrayList<Page> getPagePreviewsAfter(int afterPageId, int limit) {
+        return previews(pages.tailMap(afterPageId, false).values(), 0, limit);
+    }
+
+    public synchronized ArrayList<Page> getPagePreviewsAt(int offset, int limit) {
+        return previews(pages.values(), offset, limit);
+    }
+
+    public synchronized boolean pageExists(int pageId) {
+        return pages.containsKey(pageId);
+    }
+
+    public synchronized int getMaxPageId() {
+        return pages.isEmpty() ? 0 : pages.lastKey();
+    }
+
+    /**
+     * @return sequence number of the latest logged mutation
+     */
+    public synchronized long getRevision() {
+        return lastSequenceNumber;
+    }
+
+    /**
+     * Collects the changes since a revision from the in-memory journal. The journal only covers changes made since
+     * the store was opened.
+     * @param revision revision that the client has already seen
+     * @return changes since the revision, or null if the revision is older than the journal
+     */
+    public synchronized BookChanges getChangesSince(long revision) {
+        if (revision < journalStartRevision) return null;
+
+        BookChanges changes = new BookChanges(lastSequenceNumber);
+        TreeSet<Integer> pageIds = new TreeSet<>();
+        TreeSet<Integer> linkIds = new TreeSet<>();
+
+        int low = 0;
+        int high = journalSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (journalRevisions[middle] <= revision) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < journalSize; i++) {
+            int id = (int) (journalEntries[i] >> 1);
+            if ((journalEntries[i] & 1) == 0) {
+                pageIds.add(id);
+            } else {
+                linkIds.add(id);
+            }
+        }
+
+        for (int pageId : pageIds) {
+            if (pages.containsKey(pageId)) {
+                changes.getChangedPages().addAll(previews(Collections.singletonList(pages.get(pageId)), 0, 1));
+            } else {
+                changes.getDeletedPageIds().add(pageId);
+            }
+        }
+        for (int linkId : linkIds) {
+            Link link = linksById.get(linkId);
+            if (link != null) {
+                changes.getChangedLinks().add(copyOf(link));
+            } else {
+                changes.getDeletedLinkIds().add(linkId);
+            }
+        }
+
+        return changes;
+    }
+
+    public synchronized void streamAllPages(Consumer<Page> consumer) {
+        for (Page page : pages.values()) {
+            consumer.accept(new Page(page.getId(), page.getBody(), page.isEnding()));
+        }
+    }
+
+    public synchronized void streamAllLinks(Consumer<Link> consumer) {
+        for (Link link : linksByPage.values()) {
+            consumer.accept(copyOf(link));
+        }
+    }
+
+    /**
+     * Fetches a page with a given id. Includes links pointing from that page.
+     * @param pageId id of the desired page
+     * @return the desired page, or null if it doesn't exist
+     */
+    public synchronized Page getPage(int pageId) {
+        Page page = copyWithLinks(pageId);
+
+        if (page != null) linksCache = page.getLinks();
+        return page;
+    }
+
+    public synchronized ArrayList<Page> getPages(Collection<Integer> pageIds) {
+        ArrayList<Page> result = new ArrayList<>();
+        for (int pageId : new TreeSet<>(pageIds)) {
+            Page page = copyWithLinks(pageId);
+            if (page != null) result.add(page);
+        }
+
+        return result;
+    }
+
+    public Page getCachedPage(int pageId) {
+        return pageCache.get(pageId, this::getPage);
+    }
+
+    public synchronized ArrayList<Link> getLinksFromPage(int fromPageId) {
+        ArrayList<Link> links = linksFrom(fromPageId);
+
+        linksCache = links;
+        return links;
+    }
+
+    public synchronized void createPage() {
+        int pageId = nextPageId;
+        if (!append(CREATE_PAGE, pageId, 0, null)) return;
+
+        applyCreatePage(pageId);
+        recordChange(false, pageId);
+        compactIfLarge();
+    }
+
+    public synchronized void createLink(int fromPageId) {
+        int linkId = nextLinkId;
+        if (!append(CREATE_LINK, linkId, fromPageId, null)) return;
+
+        applyCreateLink(linkId, fromPageId);
+        recordChange(true, linkId);
+        pageCache.invalidate(fromPageId);
+        compactIfLarge();
+    }
+
+    public synchronized void updatePageBody(int pageId, String body) {
+        if (!append(UPDATE_PAGE_BODY, pageId, 0, body)) return;
+
+        applyUpdatePageBody(pageId, body);
+        recordChange(false, pageId);
+        pageCache.invalidate(pageId);
+        compactIfLarge();
+    }
+
+    public synchronized void updatePageIsEnding(int pageId, boolean isEnding) {
+        if (!append(UPDATE_PAGE_IS_ENDING, pageId, isEnding ? 1 : 0, null)) return;
+
+        applyUpdatePageIsEnding(pageId, isEnding);
+        recordChange(false, pageId);
+        pageCache.invalidate(pageId);
+        compactIfLarge();
+    }
+
+    public synchronized void updateLinkText(int index, String text) {
+        Link link = linksCache.get(index);
+        if (!append(UPDATE_LINK_TEXT, link.getId(), 0, text)) return;
+
+        applyUpdateLinkText(link.getId(), text);
+        recordChange(true, link.getId());
+        link.setText(text);
+        pageCache.invalidate(link.getFromPageId());
+        compactIfLarge();
+    }
+
+    public synchronized void updateLinkToPageId(int index, int toPageId) {
+        Link link = linksCache.get(index);
+        if (!append(UPDATE_LINK_TO_PAGE_ID, link.getId(), toPageId, null)) return;
+
+        applyUpdateLinkToPageId(link.getId(), toPageId);
+        recordChange(true, link.getId());
+        link.setToPageId(toPageId);
+        pageCache.invalidate(link.getFromPageId());
+        compactIfLarge();
+    }
+
+    public synchronized void deletePage(int pageId) {
+        if (!append(DELETE_PAGE_WITH_LINKS, pageId, 0, null)) return;
+
+        for (Link link : linksFrom(pageId)) recordChange(true, link.getId());
+        for (Link link : applyDeletePage(pageId)) {
+            recordChange(true, link.getId());
+            pageCache.invalidate(link.getFromPageId());
+        }
+        recordChange(false, pageId);
+        pageCache.invalidate(pageId);
+        compactIfLarge();
+    }
+
+    public synchronized void deleteLink(int index) {
+        Link link = linksCache.get(index);
+        if (!append(DELETE_LINK, link.getId(), 0, null)) return;
+
+        applyDeleteLink(link.getId());
+        recordChange(true, link.getId());
+        pageCache.invalidate(link.getFromPageId());
+        compactIfLarge();
+    }
+
+    /**
+     * Writes a final snapshot, closes the log and releases the directory.
+     */
+    public synchronized void closeConnection() {
+        try {
+            compact();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't write the final snapshot", ex);
+        }
+
+        try {
+            log.close();
+            directoryLock.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't close the log", ex);
+        }
+    }
+
+    /**
+     * Logs a batch of updates as a single log record, so that a crash can't leave half of the batch applied, and
+     * applies it.
+     * @param batch updates to apply
+     * @return whether the batch was logged and applied
+     */
+    public synchronized boolean applyUpdates(UpdateBatch batch) {
+        if (batch.isEmpty()) return true;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        try {
+            body.writeByte(BATCH);
+            body.writeInt(batch.size());
+            for (Map.Entry<Integer, String> update : batch.getPageBodies().entrySet()) {
+                writeOperation(body, UPDATE_PAGE_BODY, update.getKey(), 0, update.getValue());
+            }
+            for (Map.Entry<Integer, Boolean> update : batch.getPageEndings().entrySet()) {
+                writeOperation(body, UPDATE_PAGE_IS_ENDING, update.getKey(), update.getValue() ? 1 : 0, null);
+            }
+            for (Map.Entry<Integer, String> update : batch.getLinkTexts().entrySet()) {
+                writeOperation(body, UPDATE_LINK_TEXT, update.getKey(), 0, update.getValue());
+            }
+            for (Map.Entry<Integer, Integer> update : batch.getLinkTargets().entrySet()) {
+                writeOperation(body, UPDATE_LINK_TO_PAGE_ID, update.getKey(), update.getValue(), null);
+            }
+        } catch (IOException ex) {
+            // Writing to a byte array doesn't fail
+            throw new UncheckedIOException(ex);
+        }
+
+        if (!appendRecord(bytes.toByteArray())) return false;
+
+        try {
+            applyOperation(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        for (int pageId : batch.getPageBodies().keySet()) pageCache.invalidate(pageId);
+        for (int pageId : batch.getPageEndings().keySet()) pageCache.invalidate(pageId);
+        for (int pageId : batch.getLinkFromPageIds().values()) pageCache.invalidate(pageId);
+        for (int pageId : batch.getPageBodies().keySet()) recordChange(false, pageId);
+        for (int pageId : batch.getPageEndings().keySet()) recordChange(false, pageId);
+        for (int linkId : batch.getLinkFromPageIds().keySet()) recordChange(true, linkId);
+        compactIfLarge();
+        return true;
+    }
+
+    /**
+     * Appends a mutation to the log and forces it to disk.
+     * @param op kind of mutation
+     * @param id id of the page or link that is mutated
+     * @param value integer argument of the mutation, if any
+     * @param text text argument of the mutation, or null
+     * @return whether the mutation was logged; if not, it must not be applied
+     */
+    private boolean append(byte op, int id, int value, String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeOperation(new DataOutputStream(bytes), op, id, value, text);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return appendRecord(bytes.toByteArray());
+    }
+
+    /**
+     * Encodes a mutation: its kind, the id it applies to, and its integer and text arguments.
+     */
+    private static void writeOperation(DataOutputStream output, byte op, int id, int value, String text)
+            throws IOException {
+        output.writeByte(op);
+        output.writeInt(id);
+        output.writeInt(value);
+        writeString(output, text);
+    }
+
+    /**
+     * Appends a record with the next sequence number to the log and forces it to disk.
+     * @param body encoded mutation
+     * @return whether the record was logged
+     */
+    private boolean appendRecord(byte[] body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeLong(lastSequenceNumber + 1);
+            payload.write(body);
+
+            byte[] payloadBytes = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payloadBytes);
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadBytes.length);
+            record.putInt(payloadBytes.length);
+            record.putInt((int) crc.getValue());
+            record.put(payloadBytes);
+            record.flip();
+
+            long position = log.size();
+            while (record.hasRemaining()) {
+                position += log.write(record, position);
+            }
+            log.force(false);
+            lastSequenceNumber++;
+            return true;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't append to the log", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Writes a snapshot and empties the log once the log has grown past the compaction threshold. Must only be called
+     * after the latest logged mutation has been applied in memory, since the snapshot claims to cover it. A failed
+     * compaction doesn't lose anything, as the log is only emptied after the snapshot has been written.
+     */
+    private void compactIfLarge() {
+        try {
+            if (log.size() > COMPACTION_THRESHOLD_BYTES) compact();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't compact the log", ex);
+        }
+    }
+
+    /**
+     * Replays the log records that the snapshot doesn't cover. Stops at the first incomplete or corrupt record and
+     * cuts the log there, so that new records are appended after the last good one.
+     */
+    private void replayLog() throws IOException {
+        long size = log.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > size) break;
+
+            ByteBuffer payloadBuffer = ByteBuffer.allocate(length);
+            readFully(payloadBuffer, position + RECORD_HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(payloadBuffer.array());
+            if ((int) crc.getValue() != checksum) break;
+
+            DataInputStream payload = new DataInputStream(new ByteArrayInputStream(payloadBuffer.array()));
+            long sequenceNumber = payload.readLong();
+            if (sequenceNumber > lastSequenceNumber) {
+                applyOperation(payload);
+                lastSequenceNumber = sequenceNumber;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        if (position < size) {
+            LOGGER.warning("Discarding " + (size - position) + " bytes of incomplete log records");
+            log.truncate(position);
+            log.force(false);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    /**
+     * Reads a logged mutation, or a batch of mutations, and applies it to the in-memory book.
+     */
+    private void applyOperation(DataInputStream input) throws IOException {
+        byte op = input.readByte();
+        if (op == BATCH) {
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) applyOperation(input);
+            return;
+        }
+
+        int id = input.readInt();
+        int value = input.readInt();
+        String text = readString(input);
+        switch (op) {
+            case CREATE_PAGE:
+                applyCreatePage(id);
+                break;
+            case CREATE_LINK:
+                applyCreateLink(id, value);
+                break;
+            case UPDATE_PAGE_BODY:
+                applyUpdatePageBody(id, text);
+                break;
+            case UPDATE_PAGE_IS_ENDING:
+                applyUpdatePageIsEnding(id, value != 0);
+                break;
+            case UPDATE_LINK_TEXT:
+                applyUpdateLinkText(id, text);
+                break;
+            case UPDATE_LINK_TO_PAGE_ID:
+                applyUpdateLinkToPageId(id, value);
+                break;
+            case DELETE_PAGE:
+                pages.remove(id);
+                break;
+            case DELETE_PAGE_WITH_LINKS:
+                applyDeletePage(id);
+                break;
+            case DELETE_LINK:
+                applyDeleteLink(id);
+                break;
+            default:
+                throw new IOException("Unknown log record type " + op);
+        }
+    }
+
+    /**
+     * Adds a change to the journal, at the revision of the mutation that was just logged.
+     * @param isLink whether the id is a link id rather than a page id
+     * @param id id of the changed page or link
+     */
+    private void recordChange(boolean isLink, int id) {
+        if (journalSize == journalRevisions.length) {
+            journalRevisions = Arrays.copyOf(journalRevisions, journalSize * 2);
+            journalEntries = Arrays.copyOf(journalEntries, journalSize * 2);
+        }
+        journalRevisions[journalSize] = lastSequenceNumber;
+        journalEntries[journalSize] = ((long) id << 1) | (isLink ? 1 : 0);
+        journalSize++;
+    }
+
+    private void applyCreatePage(int pageId) {
+        pages.put(pageId, new Page(pageId));
+        nextPageId = Math.max(nextPageId, pageId + 1);
+    }
+
+    private void applyCreateLink(int linkId, int fromPageId) {
+        putLink(new Link(linkId, fromPageId, fromPageId, null));
+        nextLinkId = Math.max(nextLinkId, linkId + 1);
+    }
+
+    private void applyUpdatePageBody(int pageId, String body) {
+        Page page = pages.get(pageId);
+        if (page != null) page.setBody(body);
+    }
+
+    private void applyUpdatePageIsEnding(int pageId, boolean isEnding) {
+        Page page = pages.get(pageId);
+        if (page != null) page.setEnding(isEnding);
+    }
+
+    private void applyUpdateLinkText(int linkId, String text) {
+        Link link = linksById.get(linkId);
+        if (link != null) link.setText(text);
+    }
+
+    private void applyUpdateLinkToPageId(int linkId, int toPageId) {
+        Link link = linksById.get(linkId);
+        if (link != null) link.setToPageId(toPageId);
+    }
+
+    /**
+     * Removes a page and the links on it, and clears the target of the links from other pages that point to it.
+     * @return the links whose target was cleared
+     */
+    private ArrayList<Link> applyDeletePage(int pageId) {
+        pages.remove(pageId);
+        for (Link link : linksFrom(pageId)) applyDeleteLink(link.getId());
+
+        ArrayList<Link> unlinked = new ArrayList<>();
+        for (Link link : linksById.values()) {
+            if (link.getToPageId() != pageId) continue;
+            link.setToPageId(0);
+            unlinked.add(link);
+        }
+        return unlinked;
+    }
+
+    private void applyDeleteLink(int linkId) {
+        Link link = linksById.remove(linkId);
+        if (link != null) linksByPage.remove(pageLinkKey(link.getFromPageId(), linkId));
+    }
+
+    private void putLink(Link link) {
+        linksById.put(link.getId(), link);
+        linksByPage.put(pageLinkKey(link.getFromPageId(), link.getId()), link);
+    }
+
+    /**
+     * Key that orders links by the page they point from, then by id, so that a page's links form a contiguous range.
+     */
+    private static long pageLinkKey(int fromPageId, int linkId) {
+        return ((long) fromPageId << 32) | (linkId & 0xFFFFFFFFL);
+    }
+
+    private ArrayList<Link> linksFrom(int fromPageId) {
+        ArrayList<Link> result = new ArrayList<>();
+        for (Link link : linksByPage.subMap(pageLinkKey(fromPageId, 0), pageLinkKey(fromPageId + 1, 0)).values()) {
+            result.add(copyOf(link));
+        }
+        return result;
+    }
+
+    private static ArrayList<Page> previews(Collection<Page> source, int offset, int limit) {
+        ArrayList<Page> result = new ArrayList<>(Math.min(limit, source.size()));
+        for (Page page : source) {
+            if (result.size() == limit) break;
+            if (offset > 0) {
+                offset--;
+                continue;
+            }
+
+            String body = page.getBody();
+            if (body != null && body.length() > PREVIEW_LENGTH) body = body.substring(0, PREVIEW_LENGTH);
+            result.add(new Page(page.getId(), body, page.isEnding()));
+        }
+        return result;
+    }
+
+    private Page copyWithLinks(int pageId) {
+        Page page = pages.get(pageId);
+        if (page == null) return null;
+
+        return new Page(page.getId(), page.getBody(), linksFrom(pageId), page.isEnding());
+    }
+
+    private static Link copyOf(Link link) {
+        return new Link(link.getId(), link.getFromPageId(), link.getToPageId(), link.getText());
+    }
+
+    /**
+     * Writes the whole book to a new snapshot, replaces the old snapshot with it and empties the log. A crash at any
+     * point leaves either the old snapshot and the full log, or the new snapshot and log records it already covers.
+     */
+    private void compact() throws IOException {
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        Path temporaryPath = directory.resolve(SNAPSHOT_FILE + ".tmp");
+
+        try (FileOutputStream fileOutput = new FileOutputStream(temporaryPath.toFile());
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput, 1 << 16))) {
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeLong(lastSequenceNumber);
+            output.writeInt(nextPageId);
+            output.writeInt(nextLinkId);
+
+            output.writeInt(pages.size());
+            for (Page page : pages.values()) {
+                output.writeInt(page.getId());
+                output.writeBoolean(page.isEnding());
+                writeString(output, page.getBody());
+            }
+
+            output.writeInt(linksByPage.size());
+            for (Link link : linksByPage.values()) {
+                output.writeInt(link.getId());
+                output.writeInt(link.getFromPageId());
+                output.writeInt(link.getToPageId());
+                writeString(output, link.getText());
+            }
+
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        if (log.isOpen()) {
+            log.truncate(0);
+            log.force(false);
+        }
+    }
+
+    /**
+     * Makes a rename in the store's directory durable. Not every platform can sync a directory, in which case the
+     * rename is left to the file system.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // Directories can't be opened for syncing on Windows
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshotPath)) return;
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotPath), 1 << 16))) {
+            if (input.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a gamebook store snapshot");
+            int version = input.readInt();
+            if (version != SNAPSHOT_VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+            lastSequenceNumber = input.readLong();
+            nextPageId = input.readInt();
+            nextLinkId = input.readInt();
+
+            int pageCount = input.readInt();
+            for (int i = 0; i < pageCount; i++) {
+                int id = input.readInt();
+                boolean isEnding = input.readBoolean();
+                pages.put(id, new Page(id, readString(input), isEnding));
+            }
+
+            int linkCount = input.readInt();
+            for (int i = 0; i < linkCount; i++) {
+                int id = input.readInt();
+                int fromPageId = input.readInt();
+                int toPageId = input.readInt();
+                putLink(new Link(id, fromPageId, toPageId, readString(input)));
+            }
+        }
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its bytes, or -1 for null. Unlike writeUTF(), this isn't limited
+     * to 64 KB.
+     */
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        if (string == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-only gamebook backed by a memory-mapped gamebook file (see GamebookFileWriter for the format). Opening a file
+ * only reads its header, and pages are decoded when they are requested, so even very large books open in
+ * milliseconds.
+ */
+public class MappedGamebook implements ReadOnlyBook {
+    private static final Logger LOGGER = Logger.getLogger(MappedGamebook.class.getName());
+
+    private final FileChannel channel;
+    private final int pageCount;
+    private final int linkCount;
+    private final int stringCount;
+    private final MappedRegion links;
+    private final MappedRegion pages;
+    private final MappedRegion stringIndex;
+    private final MappedRegion stringData;
+
+    private MappedGamebook(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        ByteBuffer header = ByteBuffer.allocate(GamebookFileWriter.HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) throw new IOException("Truncated gamebook file");
+        }
+        header.flip();
+
+        if (header.getInt() != GamebookFileWriter.MAGIC) throw new IOException("Not a gamebook file");
+        int version = header.getInt();
+        if (version != GamebookFileWriter.VERSION) {
+            throw new IOException("Unsupported gamebook file version " + version);
+        }
+
+        pageCount = header.getInt();
+        linkCount = header.getInt();
+        stringCount = header.getInt();
+        header.getInt(); // Padding
+        long linksOffset = header.getLong();
+        long pagesOffset = header.getLong();
+        long stringIndexOffset = header.getLong();
+        long stringDataOffset = header.getLong();
+        long stringDataLength = header.getLong();
+
+        links = new MappedRegion(channel, linksOffset, (long) linkCount * GamebookFileWriter.LINK_RECORD_SIZE);
+        pages = new MappedRegion(channel, pagesOffset, (long) pageCount * GamebookFileWriter.PAGE_RECORD_SIZE);
+        stringIndex = new MappedRegion(channel, stringIndexOffset, (long) stringCount * Long.BYTES);
+        stringData = new MappedRegion(channel, stringDataOffset, stringDataLength);
+    }
+
+    /**
+     * Opens a gamebook file by memory-mapping it.
+     * @param path path of the file
+     * @return the opened book
+     * @throws IOException if the file couldn't be opened or isn't a supported gamebook file
+     */
+    public static MappedGamebook open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedGamebook(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    @Override
+    public int getLinkCount() {
+        return linkCount;
+    }
+
+    /**
+     * @return number of distinct strings in the file's string table
+     */
+    public int getStringCount() {
+        return stringCount;
+    }
+
+    @Override
+    public Page getPage(int pageId) {
+        // Binary search over the page records, which are sorted by id
+        int low = 0;
+        int high = pageCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = pages.getInt((long) middle * GamebookFileWriter.PAGE_RECORD_SIZE);
+
+            if (id < pageId) {
+                low = middle + 1;
+            } else if (id > pageId) {
+                high = middle - 1;
+            } else {
+                return readPage(middle);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Closes the file. Mapped memory is released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't close the gamebook file", ex);
+        }
+    }
+
+    /**
+     * Decodes the page record at an index, including its links.
+     */
+    private Page readPage(int index) {
+        long record = (long) index * GamebookFileWriter.PAGE_RECORD_SIZE;
+        int id = pages.getInt(record);
+        String body = readString(pages.getInt(record + 4));
+        boolean isEnding = (pages.getInt(record + 8) & GamebookFileWriter.FLAG_ENDING) != 0;
+        int firstLink = pages.getInt(record + 12);
+        int count = pages.getInt(record + 16);
+
+        ArrayList<Link> pageLinks = new ArrayList<>(count);
+        for (int link = firstLink; link < firstLink + count; link++) {
+            long linkRecord = (long) link * GamebookFileWriter.LINK_RECORD_SIZE;
+            int linkId = links.getInt(linkRecord);
+            int toPageId = links.getInt(linkRecord + 4);
+            String text = readString(links.getInt(linkRecord + 8));
+            pageLinks.add(new Link(linkId, id, toPageId, text));
+        }
+
+        return new Page(id, body == null ? "" : body, pageLinks, isEnding);
+    }
+
+    /**
+     * Decodes a string from the string table.
+     * @param index index of the string, or -1 for null
+     */
+    private String readString(int index) {
+        if (index < 0) return null;
+
+        long offset = stringIndex.getLong((long) index * Long.BYTES);
+        byte[] bytes = new byte[stringData.getInt(offset)];
+        stringData.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A section of the file, mapped in chunks since a single MappedByteBuffer can't exceed 2 GB. Values that
+     * straddle two chunks are assembled byte by byte.
+     */
+    private static class MappedRegion {
+        private static final int CHUNK_SHIFT = 30;
+        private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+        private final MappedByteBuffer[] chunks;
+
+        MappedRegion(FileChannel channel, long offset, long length) throws IOException {
+            int chunkCount = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+            chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start,
+                        Math.min(CHUNK_SIZE, length - start));
+            }
+        }
+
+        int getInt(long position) {
+            MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+            int offset = (int) (position & (CHUNK_SIZE - 1));
+            if (offset + Integer.BYTES <= chunk.limit()) return chunk.getInt(offset);
+
+            return (int) getSlow(position, Integer.BYTES);
+        }
+
+        long getLong(long position) {
+            MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+            int offset = (int) (position & (CHUNK_SIZE - 1));
+            if (offset + Long.BYTES <= chunk.limit()) return chunk.getLong(offset);
+
+            return getSlow(position, Long.BYTES);
+        }
+
+        void get(long position, byte[] destination) {
+            int copied = 0;
+            while (copied < destination.length) {
+                long current = position + copied;
+                ByteBuffer chunk = chunks[(int) (current >>> CHUNK_SHIFT)].duplicate();
+                chunk.position((int) (current & (CHUNK_SIZE - 1)));
+                int length = Math.min(chunk.remaining(), destination.length - copied);
+                chunk.get(destination, copied, length);
+                copied += length;
+            }
+        }
+
+        private long getSlow(long position, int byteCount) {
+            byte[] bytes = new byte[byteCount];
+            get(position, bytes);
+
+            long value = 0;
+            for (byte b : bytes) value = (value << 8) | (b & 0xFF);
+            return value;
+        }
+    }
+}
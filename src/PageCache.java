@@ -0,0 +1,154 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Size-bounded read-through cache of pages (including their links), keyed by page id. The least recently used page
+ * is evicted when the cache is full.
+ */
+public class PageCache {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final LinkedHashMap<Integer, Page> pages;
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    /**
+     * Constructs a cache that holds at most a given number of pages.
+     * @param capacity maximum number of pages to keep in the cache
+     */
+    public PageCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.capacity = capacity;
+
+        // An access-ordered LinkedHashMap keeps the least recently used entry first
+        pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return size() > PageCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Constructs a cache with the default capacity, which can be changed with the gamebook.pageCacheSize system
+     * property.
+     */
+    public PageCache() {
+        this(Integer.getInteger("gamebook.pageCacheSize", DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Returns a cached page, or loads and caches it if it isn't cached yet. Pages that fail to load (null) are not
+     * cached, and neither are pages loaded while the cache was invalidated, since they may be out of date.
+     * @param pageId id of the desired page
+     * @param loader function that loads the page from its source on a cache miss
+     * @return the desired page, or null if the loader couldn't load it
+     */
+    public Page get(int pageId, IntFunction<Page> loader) {
+        long invalidationsBefore;
+        synchronized (this) {
+            Page page = pages.get(pageId);
+            if (page != null) {
+                hits++;
+                return page;
+            }
+            misses++;
+            invalidationsBefore = invalidations;
+        }
+
+        // Load outside the lock so that a slow query doesn't block other readers
+        Page page = loader.apply(pageId);
+        if (page != null) put(page, invalidationsBefore);
+        return page;
+    }
+
+    /**
+     * Returns a cached page without loading it on a miss. Counts a hit if the page is cached; a miss is counted by
+     * the get() call that the caller makes to load the page.
+     * @param pageId id of the desired page
+     * @return the cached page, or null if it isn't cached
+     */
+    public synchronized Page getIfPresent(int pageId) {
+        Page page = pages.get(pageId);
+        if (page != null) hits++;
+        return page;
+    }
+
+    /**
+     * Returns a cached page without loading it on a miss. Doesn't affect the hit/miss counters.
+     * @param pageId id of the desired page
+     * @return the cached page, or null if it isn't cached
+     */
+    public synchronized Page peek(int pageId) {
+        return pages.get(pageId);
+    }
+
+    /**
+     * @return number of invalidations so far; pass it to put() before loading a page to cache
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    /**
+     * Adds a page to the cache, replacing any cached page with the same id, unless the cache has been invalidated
+     * since the page started loading, in which case the page may be out of date.
+     * @param page page to cache
+     * @param invalidationCount value of getInvalidationCount() from before the page started loading
+     * @return whether the page was cached
+     */
+    public synchronized boolean put(Page page, long invalidationCount) {
+        if (invalidations != invalidationCount) return false;
+
+        pages.put(page.getId(), page);
+        return true;
+    }
+
+    /**
+     * Removes a page from the cache so that the next read fetches it from its source again.
+     * @param pageId id of the page to invalidate
+     */
+    public synchronized void invalidate(int pageId) {
+        invalidations++;
+        pages.remove(pageId);
+    }
+
+    /**
+     * Removes all pages from the cache.
+     */
+    public synchronized void invalidateAll() {
+        invalidations++;
+        pages.clear();
+    }
+
+    /**
+     * @return number of pages currently in the cache
+     */
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    /**
+     * @return maximum number of pages to keep in the cache
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of reads that were served from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of reads that had to load the page from its source
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.IntFunction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of pages encoded for the content API: gzip-compressed JSON with a strong ETag computed from the JSON, so that
+ * a page is encoded, compressed and hashed once and every later read only copies bytes. The cache is bounded by the
+ * total size of the compressed payloads, and the least recently used payloads are evicted first.
+ * <p>
+ * A page's payload is evicted when the page or one of its links changes. A payload that was being built while an
+ * eviction happened is not cached, since it may have been built from the page before the change.
+ */
+public class PageContentCache {
+    public static final long DEFAULT_CAPACITY_BYTES = 16 * 1024 * 1024;
+
+    private final long capacityBytes;
+    private final LinkedHashMap<Integer, Payload> payloads;
+    private long sizeBytes;
+    private long evictions;
+    private long hits;
+    private long misses;
+
+    /**
+     * Encoded page, ready to be sent.
+     */
+    public static class Payload {
+        private final byte[] gzippedJson;
+        private final String etag;
+
+        private Payload(byte[] gzippedJson, String etag) {
+            this.gzippedJson = gzippedJson;
+            this.etag = etag;
+        }
+
+        /**
+         * @return the page as gzip-compressed UTF-8 JSON
+         */
+        public byte[] getGzippedJson() {
+            return gzippedJson;
+        }
+
+        /**
+         * @return strong ETag of the page's JSON, including the quotes
+         */
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    /**
+     * Constructs a cache that holds at most a given number of compressed bytes.
+     * @param capacityBytes maximum total size of the cached payloads
+     */
+    public PageContentCache(long capacityBytes) {
+        if (capacityBytes < 1) throw new IllegalArgumentException("capacityBytes must be at least 1");
+        this.capacityBytes = capacityBytes;
+        payloads = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Constructs a cache with the default capacity, which can be changed with the gamebook.contentCacheBytes system
+     * property.
+     */
+    public PageContentCache() {
+        this(Long.getLong("gamebook.contentCacheBytes", DEFAULT_CAPACITY_BYTES));
+    }
+
+    /**
+     * Returns a cached payload, or loads, encodes and caches the page if it isn't cached yet.
+     * @param pageId id of the desired page
+     * @param loader function that loads the page, including its links, on a cache miss
+     * @return the payload, or null if the loader couldn't load the page
+     */
+    public Payload get(int pageId, IntFunction<Page> loader) {
+        long evictionsBefore;
+        synchronized (this) {
+            Payload payload = payloads.get(pageId);
+            if (payload != null) {
+                hits++;
+                return payload;
+            }
+            misses++;
+            evictionsBefore = evictions;
+        }
+
+        // Load and encode outside the lock so that other pages can be served meanwhile
+        Page page = loader.apply(pageId);
+        if (page == null) return null;
+        Payload payload = encode(page);
+
+        synchronized (this) {
+            if (evictions == evictionsBefore && payload.gzippedJson.length <= capacityBytes) {
+                Payload replaced = payloads.put(pageId, payload);
+                if (replaced != null) sizeBytes -= replaced.gzippedJson.length;
+                sizeBytes += payload.gzippedJson.length;
+                trim();
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Evicts a page's payload.
+     * @param pageId id of the changed or deleted page
+     */
+    public synchronized void invalidate(int pageId) {
+        Payload payload = payloads.remove(pageId);
+        if (payload != null) sizeBytes -= payload.gzippedJson.length;
+        evictions++;
+    }
+
+    /**
+     * Evicts every payload.
+     */
+    public synchronized void invalidateAll() {
+        payloads.clear();
+        sizeBytes = 0;
+        evictions++;
+    }
+
+    /**
+     * @return total size of the cached payloads in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return number of reads that were served from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of reads that had to load and encode the page
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Encodes a page as JSON of the form {"id":1,"body":"...","isEnding":false,"links":[{"id":1,"toPageId":2,
+     * "text":"..."}]}.
+     * @param page page including its links
+     * @return the JSON
+     */
+    public static String toJson(Page page) {
+        StringBuilder json = new StringBuilder(64 + (page.getBody() == null ? 0 : page.getBody().length()));
+        json.append("{\"id\":").append(page.getId()).append(",\"body\":");
+        appendString(json, page.getBody());
+        json.append(",\"isEnding\":").append(page.isEnding()).append(",\"links\":[");
+        if (page.getLinks() != null) {
+            for (int i = 0; i < page.getLinks().size(); i++) {
+                Link link = page.getLinks().get(i);
+                if (i > 0) json.append(',');
+                json.append("{\"id\":").append(link.getId()).append(",\"toPageId\":").append(link.getToPageId())
+                        .append(",\"text\":");
+                appendString(json, link.getText());
+                json.append('}');
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Evicts the least recently used payloads until the cache fits its capacity.
+     */
+    private void trim() {
+        Iterator<Payload> iterator = payloads.values().iterator();
+        while (sizeBytes > capacityBytes && iterator.hasNext()) {
+            sizeBytes -= iterator.next().gzippedJson.length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Encodes, compresses and hashes a page.
+     */
+    private static Payload encode(Page page) {
+        byte[] json = toJson(page).getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 2 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(json);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        // The hash is of the uncompressed JSON, so the tag only changes when the content does
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(json);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        String etag = "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 22) + "\"";
+        return new Payload(compressed.toByteArray(), etag);
+    }
+
+    /**
+     * Appends a JSON string literal, or null.
+     */
+    private static void appendString(StringBuilder json, String text) {
+        if (text == null) {
+            json.append("null");
+            return;
+        }
+
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the pages that the player can reach from the current page into the page cache in the background, so that the
+ * next click can be rendered without a database round trip. Each hop is fetched with one batched query.
+ */
+public class PagePrefetcher {
+    public static final int MIN_DEPTH = 1;
+    public static final int MAX_DEPTH = 3;
+
+    private final GamebookStore store;
+    private final int depth;
+    private final int maxInFlight;
+    private final ExecutorService executor;
+    private final AtomicLong generation;
+
+    /**
+     * Constructs a prefetcher with its own background thread.
+     * @param store store whose page cache gets filled
+     * @param depth how many links away from the current page to prefetch, between MIN_DEPTH and MAX_DEPTH
+     * @param maxInFlight maximum number of pages fetched in one query
+     */
+    public PagePrefetcher(GamebookStore store, int depth, int maxInFlight) {
+        if (depth < MIN_DEPTH || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("depth must be between " + MIN_DEPTH + " and " + MAX_DEPTH);
+        }
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+
+        this.store = store;
+        this.depth = depth;
+        this.maxInFlight = maxInFlight;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "page-prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        generation = new AtomicLong();
+    }
+
+    /**
+     * Starts prefetching the pages reachable from a page. Any prefetch for a previously shown page is abandoned
+     * between hops, since the player has already moved on.
+     * @param page page that is currently shown to the player
+     */
+    public void prefetch(Page page) {
+        long currentGeneration = generation.incrementAndGet();
+        ArrayList<Page> start = new ArrayList<>();
+        start.add(page);
+
+        executor.execute(() -> {
+            ArrayList<Page> frontier = start;
+
+            for (int hop = 0; hop < depth && !frontier.isEmpty(); hop++) {
+                if (generation.get() != currentGeneration) return;
+                frontier = fetchTargets(frontier);
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread. Prefetches that are already running are interrupted.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Fetches the link targets of a set of pages that aren't cached, at most maxInFlight of them, and puts them in the
+     * page cache. Fetches run one at a time on the background thread, so no other fetch can be in flight.
+     * @param pages pages whose link targets to fetch
+     * @return the pages that were fetched, or the cached targets when nothing had to be fetched
+     */
+    private ArrayList<Page> fetchTargets(ArrayList<Page> pages) {
+        PageCache pageCache = store.getPageCache();
+        LinkedHashSet<Integer> toFetch = new LinkedHashSet<>();
+        ArrayList<Page> next = new ArrayList<>();
+
+        for (Page page : pages) {
+            for (Link link : page.getLinks()) {
+                int toPageId = link.getToPageId();
+                Page cached = pageCache.peek(toPageId);
+
+                if (cached != null) {
+                    next.add(cached);
+                } else if (toFetch.size() < maxInFlight) {
+                    toFetch.add(toPageId);
+                }
+            }
+        }
+
+        if (toFetch.isEmpty()) return next;
+
+        // A page that was changed while it was being fetched is left out of the cache, but still followed
+        long invalidationCount = pageCache.getInvalidationCount();
+        for (Page page : store.getPages(toFetch)) {
+            pageCache.put(page, invalidationCount);
+            next.add(page);
+        }
+
+        return next;
+    }
+}
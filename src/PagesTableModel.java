@@ -0,0 +1,392 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Lazy table model for the "Pages" table in the Gamebook Editor. Instead of loading every page up front, rows are
+ * fetched in fixed-size windows as the table asks for them, and only the page id and the start of the body are
+ * fetched. A bounded number of windows is kept, so memory use doesn't grow with the size of the book.
+ * <p>
+ * A window is normally fetched by keyset pagination, starting after the last page id of the window before it. When
+ * that window isn't cached (for example after jumping to the end of the table), it is fetched by offset instead.
+ * <p>
+ * After the first refresh, the model is kept up to date with sync(), which only fetches the pages that have changed
+ * since the last revision the model has seen.
+ * <p>
+ * The table can be filtered to a list of page ids, such as search results, in which case it shows those pages in the
+ * given order and fetches their windows by id. A third column shows how many times players have visited each page,
+ * from AnalyticsCounts. All methods must be called on the event dispatch thread.
+ */
+public class PagesTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private static final int WINDOW_SIZE = 200;
+    private static final int MAX_CACHED_WINDOWS = 16;
+    private static final String[] COLUMN_NAMES = {"ID", "Body", "Visits"};
+    private static final String LOADING_PLACEHOLDER = "Loading...";
+
+    private final AsyncDatabaseModel asyncDatabaseModel;
+    private final LinkedHashMap<Integer, Window> windows;
+    private final HashMap<Integer, CompletableFuture<Window>> pendingWindows;
+    private int rowCount;
+    private int maxPageId;
+    private long revision;
+    private int generation;
+    private int refreshCount;
+    private int[] filter;
+    private Consumer<BookChanges> changesListener;
+    private AnalyticsCounts analyticsCounts;
+
+    /**
+     * A window of consecutive rows.
+     */
+    private static class Window {
+        private final int[] pageIds;
+        private final String[] previews;
+
+        Window(ArrayList<Page> pages) {
+            pageIds = new int[pages.size()];
+            previews = new String[pages.size()];
+            for (int i = 0; i < pages.size(); i++) {
+                pageIds[i] = pages.get(i).getId();
+                previews[i] = pages.get(i).getBody();
+            }
+        }
+
+        int size() {
+            return pageIds.length;
+        }
+
+        int lastPageId() {
+            return pageIds[pageIds.length - 1];
+        }
+
+        int indexOf(int pageId) {
+            for (int i = 0; i < pageIds.length; i++) {
+                if (pageIds[i] == pageId) return i;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Row count, highest page id and revision of the store at the time of a refresh.
+     */
+    private static class TableState {
+        private final long revision;
+        private final int rowCount;
+        private final int maxPageId;
+
+        TableState(long revision, int rowCount, int maxPageId) {
+            this.revision = revision;
+            this.rowCount = rowCount;
+            this.maxPageId = maxPageId;
+        }
+    }
+
+    /**
+     * Constructs an empty table model. Call refresh() to load the number of pages.
+     * @param asyncDatabaseModel facade used to fetch windows in the background
+     */
+    public PagesTableModel(AsyncDatabaseModel asyncDatabaseModel) {
+        this.asyncDatabaseModel = asyncDatabaseModel;
+        windows = new LinkedHashMap<>(MAX_CACHED_WINDOWS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Window> eldest) {
+                return size() > MAX_CACHED_WINDOWS;
+            }
+        };
+        pendingWindows = new HashMap<>();
+    }
+
+    /**
+     * Sets a listener that is called on the event dispatch thread with the changes that sync() has fetched, before
+     * they are applied to the table.
+     * @param changesListener listener to call, or null
+     */
+    public void setChangesListener(Consumer<BookChanges> changesListener) {
+        this.changesListener = changesListener;
+    }
+
+    /**
+     * Shows only the given pages, in the given order, or all pages again.
+     * @param pageIds ids of the pages to show, or null to show all pages
+     */
+    public void setFilter(int[] pageIds) {
+        filter = pageIds;
+        generation++;
+        windows.clear();
+        pendingWindows.clear();
+        fireTableDataChanged();
+    }
+
+    /**
+     * @return whether the table only shows some pages
+     */
+    public boolean isFiltered() {
+        return filter != null;
+    }
+
+    /**
+     * Drops all cached windows and reloads the number of pages. Rows are fetched again when the table shows them.
+     * @return future that completes on the event dispatch thread once the table has been updated
+     */
+    public CompletableFuture<Void> refresh() {
+        int currentRefresh = ++refreshCount;
+
+        // The revision is read first, so that changes made while counting are fetched again by the next sync
+        return asyncDatabaseModel.supply(model -> {
+            long currentRevision = model.getRevision();
+            return new TableState(currentRevision, model.getPageCount(), model.getMaxPageId());
+        }).thenAcceptAsync(state -> {
+            if (currentRefresh != refreshCount) return;
+
+            generation++;
+            windows.clear();
+            pendingWindows.clear();
+            rowCount = state.rowCount;
+            maxPageId = state.maxPageId;
+            revision = state.revision;
+            fireTableDataChanged();
+        }, AsyncDatabaseModel.SWING_EXECUTOR);
+    }
+
+    /**
+     * Brings the table up to date by fetching only the pages that have changed since the last refresh or sync. New
+     * pages always have the highest ids, so they are appended to the end. If the store can't tell what has changed,
+     * the table is refreshed instead.
+     * @return future that completes on the event dispatch thread with whether rows were added or removed (which clears
+     *         the table's selection)
+     */
+    public CompletableFuture<Boolean> sync() {
+        long since = revision;
+
+        return asyncDatabaseModel.supply(model -> model.getChangesSince(since)).thenComposeAsync(changes -> {
+            if (changes == null) return refresh().thenApply(ignored -> true);
+
+            // Another refresh or sync finished in the meantime, so the changes may already have been applied
+            if (since != revision) {
+                if (changes.getRevision() <= revision) return CompletableFuture.completedFuture(false);
+                return sync();
+            }
+
+            return CompletableFuture.completedFuture(applyChanges(changes));
+        }, AsyncDatabaseModel.SWING_EXECUTOR);
+    }
+
+    /**
+     * Sets the play counts shown in the "Visits" column.
+     * @param analyticsCounts counts to show, or null to leave the column empty
+     */
+    public void setAnalyticsCounts(AnalyticsCounts analyticsCounts) {
+        this.analyticsCounts = analyticsCounts;
+        if (getRowCount() > 0) fireTableRowsUpdated(0, getRowCount() - 1);
+    }
+
+    /**
+     * Shows a new body for a page right away, before the store has confirmed the edit.
+     * @param pageId id of the edited page
+     * @param body new body text
+     */
+    public void updatePreview(int pageId, String body) {
+        if (body != null && body.length() > GamebookStore.PREVIEW_LENGTH) {
+            body = body.substring(0, GamebookStore.PREVIEW_LENGTH);
+        }
+
+        for (Map.Entry<Integer, Window> entry : windows.entrySet()) {
+            // Filtered windows are in the filter's order rather than by id
+            int offset = filter != null
+                    ? entry.getValue().indexOf(pageId)
+                    : Arrays.binarySearch(entry.getValue().pageIds, pageId);
+            if (offset < 0) continue;
+
+            entry.getValue().previews[offset] = body;
+            int row = entry.getKey() * WINDOW_SIZE + offset;
+            fireTableRowsUpdated(row, row);
+            return;
+        }
+    }
+
+    /**
+     * Looks up the id of the page in a row, fetching the row's window if it isn't cached.
+     * @param row index of the row
+     * @return future that completes on the event dispatch thread with the page id, or -1 if the row doesn't exist
+     */
+    public CompletableFuture<Integer> getPageIdAt(int row) {
+        if (row < 0 || row >= getRowCount()) return CompletableFuture.completedFuture(-1);
+        if (filter != null) return CompletableFuture.completedFuture(filter[row]);
+
+        int offset = row % WINDOW_SIZE;
+        Window window = windows.get(row / WINDOW_SIZE);
+        if (window != null) {
+            return CompletableFuture.completedFuture(offset < window.size() ? window.pageIds[offset] : -1);
+        }
+
+        return loadWindow(row / WINDOW_SIZE).thenApply(loaded ->
+                loaded != null && offset < loaded.size() ? loaded.pageIds[offset] : -1);
+    }
+
+    @Override
+    public int getRowCount() {
+        return filter != null ? filter.length : rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    /**
+     * Returns a cell value if its window is cached. Otherwise, the window is fetched in the background and a
+     * placeholder is returned until the table is told that the rows have been updated.
+     * @param row index of the row
+     * @param column index of the column
+     * @return id, body preview or number of visits of the page in the row, or a placeholder
+     */
+    @Override
+    public Object getValueAt(int row, int column) {
+        int offset = row % WINDOW_SIZE;
+        Window window = windows.get(row / WINDOW_SIZE);
+
+        if (window == null) {
+            loadWindow(row / WINDOW_SIZE);
+            return column == 1 ? LOADING_PLACEHOLDER : "";
+        }
+        if (offset >= window.size()) return "";
+
+        switch (column) {
+            case 0:
+                return String.valueOf(window.pageIds[offset]);
+            case 1:
+                return window.previews[offset];
+            default:
+                return analyticsCounts == null ? "" : analyticsCounts.getPageVisits(window.pageIds[offset]);
+        }
+    }
+
+    /**
+     * Applies changes fetched by sync() to the cached windows and the row count.
+     * @param changes changes since the model's revision
+     * @return whether rows were added or removed
+     */
+    private boolean applyChanges(BookChanges changes) {
+        if (changesListener != null) changesListener.accept(changes);
+
+        int insertedCount = 0;
+        int deletedCount = 0;
+        int newMaxPageId = maxPageId;
+        int minDeletedPageId = Integer.MAX_VALUE;
+
+        // Pages above the previous highest id were created after the last sync; others were already counted
+        for (int pageId : changes.getDeletedPageIds()) {
+            if (pageId > maxPageId) continue;
+            deletedCount++;
+            minDeletedPageId = Math.min(minDeletedPageId, pageId);
+        }
+        for (Page page : changes.getChangedPages()) {
+            if (page.getId() > maxPageId) {
+                insertedCount++;
+                newMaxPageId = Math.max(newMaxPageId, page.getId());
+            } else {
+                updatePreview(page.getId(), page.getBody());
+            }
+        }
+        revision = changes.getRevision();
+
+        if (insertedCount == 0 && deletedCount == 0) return false;
+
+        // Rows after a deleted page have moved up, and the last window has grown if pages were added
+        int deletedFrom = minDeletedPageId;
+        boolean inserted = insertedCount > 0;
+        if (filter != null) {
+            windows.clear();
+        } else {
+            windows.values().removeIf(window -> window.size() == 0 || window.lastPageId() >= deletedFrom
+                    || inserted && window.size() < WINDOW_SIZE);
+        }
+        generation++;
+        pendingWindows.clear();
+
+        rowCount += insertedCount - deletedCount;
+        maxPageId = newMaxPageId;
+        fireTableDataChanged();
+        return true;
+    }
+
+    /**
+     * Fetches a window in the background, unless it is already being fetched.
+     * @param index index of the window
+     * @return future that completes on the event dispatch thread with the window, or null if it couldn't be fetched
+     */
+    private CompletableFuture<Window> loadWindow(int index) {
+        CompletableFuture<Window> pending = pendingWindows.get(index);
+        if (pending != null) return pending;
+
+        int currentGeneration = generation;
+        Window previous = windows.get(index - 1);
+        CompletableFuture<ArrayList<Page>> query;
+        if (filter != null) {
+            int[] slice = Arrays.copyOfRange(filter, index * WINDOW_SIZE,
+                    Math.min(filter.length, (index + 1) * WINDOW_SIZE));
+            query = asyncDatabaseModel.supply(model -> getPreviews(model, slice));
+        } else if (index == 0) {
+            query = asyncDatabaseModel.supply(model -> model.getPagePreviewsAfter(Integer.MIN_VALUE, WINDOW_SIZE));
+        } else if (previous != null && previous.size() > 0) {
+            int afterPageId = previous.lastPageId();
+            query = asyncDatabaseModel.supply(model -> model.getPagePreviewsAfter(afterPageId, WINDOW_SIZE));
+        } else {
+            query = asyncDatabaseModel.supply(model -> model.getPagePreviewsAt(index * WINDOW_SIZE, WINDOW_SIZE));
+        }
+
+        CompletableFuture<Window> future = query.handleAsync((pages, ex) -> {
+            // Drop windows that were fetched before the table was refreshed
+            if (currentGeneration != generation) return null;
+            pendingWindows.remove(index);
+            if (ex != null) return null;
+
+            Window window = new Window(pages);
+            windows.put(index, window);
+
+            int firstRow = index * WINDOW_SIZE;
+            int lastRow = Math.min(firstRow + WINDOW_SIZE, getRowCount()) - 1;
+            if (lastRow >= firstRow) fireTableRowsUpdated(firstRow, lastRow);
+            return window;
+        }, AsyncDatabaseModel.SWING_EXECUTOR);
+
+        pendingWindows.put(index, future);
+        return future;
+    }
+
+    /**
+     * Fetches pages by id and truncates their bodies like the store's previews.
+     * @param model store to fetch the pages from
+     * @param pageIds ids of the pages
+     * @return the pages in the given order, with an empty body for pages that no longer exist
+     */
+    private static ArrayList<Page> getPreviews(GamebookStore model, int[] pageIds) {
+        ArrayList<Integer> ids = new ArrayList<>(pageIds.length);
+        for (int pageId : pageIds) ids.add(pageId);
+
+        HashMap<Integer, Page> pagesById = new HashMap<>();
+        for (Page page : model.getPages(ids)) pagesById.put(page.getId(), page);
+
+        ArrayList<Page> previews = new ArrayList<>(pageIds.length);
+        for (int pageId : pageIds) {
+            Page page = pagesById.get(pageId);
+            String body = page != null && page.getBody() != null ? page.getBody() : "";
+            if (body.length() > GamebookStore.PREVIEW_LENGTH) body = body.substring(0, GamebookStore.PREVIEW_LENGTH);
+            previews.add(new Page(pageId, body, page != null && page.isEnding()));
+        }
+        return previews;
+    }
+}
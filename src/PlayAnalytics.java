@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records which links players choose and where they stop playing, without slowing down page turns. Events go into a
+ * fixed-size ring buffer of primitive arrays: a player thread claims a slot with a compare-and-set, writes the event
+ * and publishes it, without locks or allocation. If the buffer is full the event is dropped and counted rather than
+ * making the player wait.
+ * <p>
+ * A background thread drains the buffer every few milliseconds, adds the events up per page and per link, and every
+ * gamebook.analyticsFlushMillis milliseconds appends the counts since the last flush to a text file as one batch. The
+ * file only ever grows by appending, so several players can share it; AnalyticsCounts adds up its batches.
+ */
+public class PlayAnalytics {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final long DEFAULT_FLUSH_MILLIS = 1000;
+    private static final long DRAIN_MILLIS = 10;
+    private static final Logger LOGGER = Logger.getLogger(PlayAnalytics.class.getName());
+
+    private final Path file;
+    private final int mask;
+    private final long[] timestamps;
+    private final int[] fromPageIds;
+    private final int[] linkIds;
+    private final int[] toPageIds;
+    // Sequence number + 1 of the event in each slot, set once the event has been written
+    private final AtomicLongArray published;
+    private final AtomicLong head;
+    private final AtomicLong dropped;
+    private volatile long tail;
+
+    // Counts since the last flush, guarded by this; a failed flush keeps them for the next one
+    private final HashMap<Integer, long[]> pageCounts;
+    private final HashMap<Integer, long[]> linkCounts;
+    private long batchEvents;
+    private long batchFirstMillis;
+    private long batchLastMillis;
+    private long lastFlushMillis;
+
+    private final long flushMillis;
+    private final ScheduledExecutorService drainer;
+
+    /**
+     * Constructs a recorder that appends to a file, and starts draining in the background.
+     * @param file file to append the counts to, which is created if it doesn't exist
+     */
+    public PlayAnalytics(Path file) {
+        this.file = file;
+        int size = Integer.highestOneBit(Math.max(2, Integer.getInteger("gamebook.analyticsBufferSize",
+                DEFAULT_BUFFER_SIZE)));
+        mask = size - 1;
+        timestamps = new long[size];
+        fromPageIds = new int[size];
+        linkIds = new int[size];
+        toPageIds = new int[size];
+        published = new AtomicLongArray(size);
+        head = new AtomicLong();
+        dropped = new AtomicLong();
+        pageCounts = new HashMap<>();
+        linkCounts = new HashMap<>();
+        flushMillis = Long.getLong("gamebook.analyticsFlushMillis", DEFAULT_FLUSH_MILLIS);
+        lastFlushMillis = System.currentTimeMillis();
+
+        drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "play-analytics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainer.scheduleWithFixedDelay(this::drainInBackground, DRAIN_MILLIS, DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records that a player moved from one page to another. Doesn't block or allocate.
+     * @param fromPageId id of the page the player left, or -1 if the player started playing
+     * @param linkId id of the link the player chose, or -1 if the player didn't follow a link (such as going back)
+     * @param toPageId id of the page the player moved to, or -1 if the player stopped playing
+     * @return whether the event was recorded; false if the buffer was full and the event was dropped
+     */
+    public boolean record(int fromPageId, int linkId, int toPageId) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= timestamps.length) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        timestamps[slot] = System.currentTimeMillis();
+        fromPageIds[slot] = fromPageId;
+        linkIds[slot] = linkId;
+        toPageIds[slot] = toPageId;
+        // Release the slot's fields to the draining thread, which reads them after seeing the sequence number
+        published.lazySet(slot, sequence + 1);
+        return true;
+    }
+
+    /**
+     * Records that a player started playing on a page.
+     * @param pageId id of the first page
+     * @return whether the event was recorded
+     */
+    public boolean recordStart(int pageId) {
+        return record(-1, -1, pageId);
+    }
+
+    /**
+     * Records that a player stopped playing on a page without reaching an ending.
+     * @param pageId id of the page the player left
+     * @return whether the event was recorded
+     */
+    public boolean recordExit(int pageId) {
+        return record(pageId, -1, -1);
+    }
+
+    /**
+     * @return number of events dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Drains the buffer and appends the counts since the last flush to the file.
+     * @throws IOException if the file couldn't be written
+     */
+    public synchronized void flush() throws IOException {
+        drain();
+        if (batchEvents == 0) return;
+
+        StringBuilder batch = new StringBuilder(64 + 24 * (pageCounts.size() + linkCounts.size()));
+        batch.append(String.format("batch %d %d %d%n", batchFirstMillis, batchLastMillis, batchEvents));
+        for (Map.Entry<Integer, long[]> entry : pageCounts.entrySet()) {
+            long[] counts = entry.getValue();
+            if (counts[0] > 0) batch.append(String.format("visit %d %d%n", entry.getKey(), counts[0]));
+            if (counts[1] > 0) batch.append(String.format("exit %d %d%n", entry.getKey(), counts[1]));
+        }
+        for (Map.Entry<Integer, long[]> entry : linkCounts.entrySet()) {
+            batch.append(String.format("link %d %d%n", entry.getKey(), entry.getValue()[0]));
+        }
+
+        // One write per batch, so that appends from several processes don't interleave within a batch
+        Files.write(file, batch.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        pageCounts.clear();
+        linkCounts.clear();
+        batchEvents = 0;
+    }
+
+    /**
+     * Stops draining in the background and flushes the remaining events.
+     */
+    public void close() {
+        drainer.shutdown();
+        try {
+            drainer.awaitTermination(10, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't write the last play analytics", ex);
+        }
+    }
+
+    /**
+     * Adds up the published events and frees their slots.
+     */
+    private synchronized void drain() {
+        long next = tail;
+        while (published.get((int) next & mask) == next + 1) {
+            int slot = (int) next & mask;
+            long timestamp = timestamps[slot];
+            int fromPageId = fromPageIds[slot];
+            int linkId = linkIds[slot];
+            int toPageId = toPageIds[slot];
+            next++;
+
+            if (batchEvents == 0) {
+                batchFirstMillis = timestamp;
+                batchLastMillis = timestamp;
+            }
+            batchLastMillis = Math.max(batchLastMillis, timestamp);
+            batchEvents++;
+            if (toPageId != -1) pageCounts.computeIfAbsent(toPageId, id -> new long[2])[0]++;
+            if (toPageId == -1 && fromPageId != -1) pageCounts.computeIfAbsent(fromPageId, id -> new long[2])[1]++;
+            if (linkId != -1) linkCounts.computeIfAbsent(linkId, id -> new long[1])[0]++;
+        }
+        tail = next;
+    }
+
+    /**
+     * Drains on the background thread, and flushes when it is time to.
+     */
+    private void drainInBackground() {
+        drain();
+
+        long now = System.currentTimeMillis();
+        if (now - lastFlushMillis < flushMillis) return;
+        lastFlushMillis = now;
+        try {
+            flush();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't write play analytics", ex);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local load generator for PlayServer. Simulates readers that each keep their own session cookie, follow a random
+ * link on every page, and play again at an ending or a page without links. Prints requests per second and latency
+ * percentiles measured after a warmup.
+ * <p>
+ * Usage: PlayLoadGenerator [--url http://localhost:8080] [--readers 200] [--seconds 10] [--warmup 3]
+ * [--generate pages]. With --generate, a server playing a generated book is started in this JVM instead of
+ * connecting to a running one.
+ */
+public class PlayLoadGenerator {
+    private final HttpClient client;
+    private final String baseUrl;
+    private final LatencyHistogram latency;
+    private final LongAdder requests;
+    private final LongAdder errors;
+    private volatile boolean measuring;
+    private volatile boolean running;
+
+    /**
+     * Constructs a load generator.
+     * @param baseUrl URL of the server, without a trailing slash
+     */
+    public PlayLoadGenerator(String baseUrl) {
+        this.baseUrl = baseUrl;
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        latency = new LatencyHistogram();
+        requests = new LongAdder();
+        errors = new LongAdder();
+    }
+
+    /**
+     * Runs readers against the server and prints the results.
+     * @param readers number of simultaneous readers, each on a thread of its own
+     * @param warmupSeconds seconds to run before measuring
+     * @param seconds seconds to measure
+     */
+    public void run(int readers, int warmupSeconds, int seconds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(readers, runnable -> {
+            Thread thread = new Thread(runnable, "load-generator-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        running = true;
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int reader = 0; reader < readers; reader++) {
+            long seed = reader;
+            futures.add(executor.submit(() -> read(new SplittableRandom(seed))));
+        }
+
+        Thread.sleep(warmupSeconds * 1000L);
+        measuring = true;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        measuring = false;
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+
+        for (Future<?> future : futures) future.get();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        System.out.printf("%d readers, %,d requests in %.1f s: %,.0f requests/s, %,d errors%n", readers,
+                requests.sum(), elapsedSeconds, requests.sum() / elapsedSeconds, errors.sum());
+        System.out.printf("Latency: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms%n",
+                latency.getPercentileMicros(50) / 1000.0, latency.getPercentileMicros(90) / 1000.0,
+                latency.getPercentileMicros(99) / 1000.0, latency.getPercentileMicros(99.9) / 1000.0);
+    }
+
+    /**
+     * Plays like a reader until the run is over.
+     */
+    private void read(SplittableRandom random) {
+        String cookie = null;
+        String path = "/play";
+
+        while (running) {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .timeout(Duration.ofSeconds(30));
+            if (cookie != null) request.header("Cookie", cookie);
+
+            long start = System.nanoTime();
+            HttpResponse<String> response;
+            try {
+                response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            } catch (IOException ex) {
+                if (measuring) errors.increment();
+                path = "/play";
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+
+            if (measuring) {
+                requests.increment();
+                latency.record(nanos);
+                if (response.statusCode() != 200) errors.increment();
+            }
+
+            Optional<String> setCookie = response.headers().firstValue("Set-Cookie");
+            if (setCookie.isPresent()) cookie = setCookie.get().split(";", 2)[0];
+
+            path = nextPath(response.body(), random);
+        }
+    }
+
+    /**
+     * Picks what a reader does next on a rendered page: a random link, or Play Again if there are none.
+     */
+    private static String nextPath(String html, SplittableRandom random) {
+        String marker = "href=\"/play/choose?index=";
+        int choices = 0;
+        for (int i = html.indexOf(marker); i != -1; i = html.indexOf(marker, i + 1)) choices++;
+
+        return choices == 0 ? "/play/restart" : "/play/choose?index=" + random.nextInt(choices);
+    }
+
+    /**
+     * Entry point for the load generator.
+     * @param args options, see the class documentation
+     */
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080";
+        int readers = 200;
+        int seconds = 10;
+        int warmupSeconds = 3;
+        int generatePages = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url":
+                    url = args[++i];
+                    break;
+                case "--readers":
+                    readers = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--generate":
+                    generatePages = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        PlayServer server = null;
+        if (generatePages > 0) {
+            server = new PlayServer(SyntheticBookGenerator.generate(generatePages, 3, 40, 42));
+            server.start(0);
+            url = "http://localhost:" + server.getPort();
+        }
+
+        new PlayLoadGenerator(url).run(readers, warmupSeconds, seconds);
+        if (server != null) {
+            System.out.printf("%,d sessions on the server%n", server.getSessionCount());
+            server.stop();
+        }
+    }
+}
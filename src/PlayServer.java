@@ -0,0 +1,582 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Headless play server: lets any number of readers play the gamebook in a web browser at the same time. Navigation
+ * follows the Gamebook Player through PlayerSession: a new reader starts on page 1, follows links, and gets Play
+ * Again and Quit on an ending.
+ * <p>
+ * A session is only a current page id and a last-seen time in a concurrent map, keyed by a random id in a cookie, so
+ * thousands of readers take a few hundred kilobytes. Pages are read through the store's page cache, which all
+ * sessions share, so database connections are bounded by the store's connection pool rather than the number of
+ * readers. Requests run on a virtual thread each when the JVM supports them (Java 21 and later), and otherwise on a
+ * bounded pool of gamebook.serverThreads threads.
+ * <p>
+ * Clients that render pages themselves can read them from /api/pages/{id} as gzip-compressed JSON with a strong ETag,
+ * from a PageContentCache. The store's change listener evicts pages that change, for example in the Gamebook Editor,
+ * from the content cache, once the store has evicted them from its page cache.
+ * <p>
+ * With a PlayAnalytics, every start, chosen link and reader who quits or stops coming back before an ending is
+ * recorded for the Gamebook Editor's heatmaps.
+ */
+public class PlayServer {
+    private static final Logger LOGGER = Logger.getLogger("gamebook.server");
+    private static final String COOKIE_NAME = "gamebook-session";
+    private static final long SESSION_TIMEOUT_MILLIS = 30 * 60 * 1000;
+    private static final int DEFAULT_THREADS = 200;
+    private static final String CONTENT_PATH = "/api/pages/";
+
+    static {
+        // The JDK's server otherwise waits for a delayed ACK before sending small responses, about 40 ms each
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final GamebookStore store;
+    private final ReadOnlyBook book;
+    private final ConcurrentHashMap<Long, Session> sessions;
+    private final SecureRandom random;
+    private final LatencyHistogram latency;
+    private final LongAdder requests;
+    private final PageContentCache contentCache;
+    private SaveGameJournal saveGames;
+    private PlayAnalytics analytics;
+    private HttpServer server;
+    private ExecutorService requestExecutor;
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * State of one reader.
+     */
+    private static class Session {
+        private volatile int pageId = GraphAnalyzer.START_PAGE_ID;
+        private volatile long lastSeenMillis = System.currentTimeMillis();
+        private volatile boolean isFinished;
+    }
+
+    /**
+     * Constructs a server that reads pages from a store, through its page cache.
+     * @param store model that handles reading from the gamebook's storage
+     */
+    public PlayServer(GamebookStore store) {
+        this(store, null);
+    }
+
+    /**
+     * Constructs a server that reads pages from a read-only book.
+     * @param book read-only book to play, such as an in-memory snapshot or a memory-mapped gamebook file
+     */
+    public PlayServer(ReadOnlyBook book) {
+        this(null, book);
+    }
+
+    private PlayServer(GamebookStore store, ReadOnlyBook book) {
+        this.store = store;
+        this.book = book;
+        sessions = new ConcurrentHashMap<>();
+        random = new SecureRandom();
+        latency = new LatencyHistogram();
+        requests = new LongAdder();
+        contentCache = new PageContentCache();
+        if (store != null) store.addChangeListener(this::evictChangedPages);
+    }
+
+    /**
+     * Makes readers' progress durable: every move is recorded in a save game journal, and a reader whose session
+     * isn't in memory, for example after a restart of the server, continues from their save game.
+     * @param saveGames journal to record moves in, which the caller closes after stopping the server
+     */
+    public void setSaveGameJournal(SaveGameJournal saveGames) {
+        this.saveGames = saveGames;
+    }
+
+    /**
+     * Records what readers do for the Gamebook Editor's heatmaps.
+     * @param analytics recorder to record in, which the caller closes after stopping the server
+     */
+    public void setAnalytics(PlayAnalytics analytics) {
+        this.analytics = analytics;
+    }
+
+    /**
+     * Starts serving on a port. Expired sessions are removed in the background.
+     * @param port port to listen on, or 0 for any free port
+     */
+    public synchronized void start(int port) throws IOException {
+        if (server != null) throw new IllegalStateException("Server is already running");
+
+        requestExecutor = newRequestExecutor();
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(requestExecutor);
+        server.createContext("/play", this::handlePlay);
+        server.createContext("/stats", this::handleStats);
+        server.createContext(CONTENT_PATH, this::handleContent);
+        server.start();
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "play-server-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::removeExpiredSessions, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops serving, waiting at most a second for requests in flight. The store or book is left open.
+     */
+    public synchronized void stop() {
+        if (server == null) return;
+
+        server.stop(1);
+        requestExecutor.shutdown();
+        sweeper.shutdown();
+        server = null;
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return number of readers with a session
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Handles /play (show the current page), /play/choose?index=n (follow a link), /play/restart (Play Again) and
+     * /play/quit (Quit).
+     */
+    private void handlePlay(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String path = exchange.getRequestURI().getPath();
+            long sessionId = getSessionId(exchange);
+            Session session = sessionId == 0 ? null : sessions.get(sessionId);
+            if (session == null && sessionId != 0 && saveGames != null) session = restoreSession(sessionId);
+
+            if (path.equals("/play/quit")) {
+                if (session != null) sessions.remove(sessionId);
+                if (session != null && saveGames != null) saveGames.remove(sessionId);
+                if (session != null && analytics != null && !session.isFinished) analytics.recordExit(session.pageId);
+                respond(exchange, 200, "text/html", renderMessage("Thanks for playing!"));
+                return;
+            }
+
+            boolean isNewSession = session == null;
+            if (isNewSession) {
+                do {
+                    sessionId = random.nextLong();
+                } while (sessionId == 0 || sessions.putIfAbsent(sessionId, session = new Session()) != null);
+                exchange.getResponseHeaders().add("Set-Cookie", COOKIE_NAME + "=" + Long.toHexString(sessionId)
+                        + "; Path=/; HttpOnly; SameSite=Lax");
+            }
+            session.lastSeenMillis = System.currentTimeMillis();
+
+            PlayerSession playerSession = book != null ? new PlayerSession(book) : new PlayerSession(store);
+            boolean restarted = false;
+            boolean moved = false;
+            int fromPageId = -1;
+            int linkId = -1;
+            if (path.equals("/play/restart") || !playerSession.enter(playerSession.fetchPage(session.pageId))) {
+                // Play Again, or the reader's page has been deleted since: start over like the Player does
+                playerSession.restart();
+                restarted = true;
+            } else if (path.equals("/play/choose")) {
+                int choice = getChoice(exchange);
+                Page page = playerSession.getCurrentPage();
+                if (choice >= 0 && choice < page.getLinks().size()) {
+                    fromPageId = page.getId();
+                    linkId = page.getLinks().get(choice).getId();
+                    playerSession.choose(choice);
+                    moved = true;
+                }
+            } else if (!path.equals("/play")) {
+                respond(exchange, 404, "text/html", renderMessage("Not found"));
+                return;
+            }
+
+            Page page = playerSession.getCurrentPage();
+            if (page == null) {
+                respond(exchange, 503, "text/html", renderMessage("The gamebook has no first page yet."));
+                return;
+            }
+            session.pageId = page.getId();
+            session.isFinished = page.isEnding();
+            if (analytics != null) {
+                if (restarted || isNewSession) analytics.recordStart(page.getId());
+                if (moved) analytics.record(fromPageId, linkId, page.getId());
+            }
+            if (saveGames != null) {
+                if (restarted) saveGames.recordRestart(sessionId);
+                if (restarted || moved || isNewSession) saveGames.recordVisit(sessionId, page.getId());
+            }
+            respond(exchange, 200, "text/html", renderPage(page));
+        } finally {
+            exchange.close();
+            requests.increment();
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Brings back a session from its save game.
+     * @return the session, or null if there is no save game for the id
+     */
+    private Session restoreSession(long sessionId) {
+        SaveGameJournal.SaveGame save = saveGames.restore(sessionId);
+        if (save == null) return null;
+
+        Session session = new Session();
+        session.pageId = save.getPageId();
+        Session existing = sessions.putIfAbsent(sessionId, session);
+        return existing != null ? existing : session;
+    }
+
+    /**
+     * Handles /api/pages/{id}: the page's body, links and ending flag as JSON. The payload is sent compressed to
+     * clients that accept gzip, and a request whose If-None-Match has the page's ETag gets 304 Not Modified.
+     */
+    private void handleContent(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            int pageId;
+            try {
+                pageId = Integer.parseInt(exchange.getRequestURI().getPath().substring(CONTENT_PATH.length()));
+            } catch (NumberFormatException ex) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            PageContentCache.Payload payload = contentCache.get(pageId, book != null ? book::getPage
+                    : store::getCachedPage);
+            if (payload == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            // Clients may keep the payload but have to revalidate it, so that edits show up at once
+            exchange.getResponseHeaders().set("ETag", payload.getEtag());
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            if (matchesEtag(exchange.getRequestHeaders().get("If-None-Match"), payload.getEtag())) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            byte[] bytes = payload.getGzippedJson();
+            if (acceptsGzip(exchange.getRequestHeaders().get("Accept-Encoding"))) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            } else {
+                try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                    bytes = input.readAllBytes();
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(bytes);
+            }
+        } finally {
+            exchange.close();
+            requests.increment();
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Handles /stats: sessions, requests and latency percentiles as plain text.
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("sessions %d%n", sessions.size()));
+            text.append(String.format("requests %d%n", requests.sum()));
+            text.append(String.format("latency_p50_us %d%n", latency.getPercentileMicros(50)));
+            text.append(String.format("latency_p99_us %d%n", latency.getPercentileMicros(99)));
+            if (store != null) {
+                PageCache cache = store.getPageCache();
+                text.append(String.format("page_cache_hits %d%npage_cache_misses %d%n", cache.getHits(),
+                        cache.getMisses()));
+            }
+            text.append(String.format("content_cache_hits %d%ncontent_cache_misses %d%ncontent_cache_bytes %d%n",
+                    contentCache.getHits(), contentCache.getMisses(), contentCache.getSizeBytes()));
+            respond(exchange, 200, "text/plain", text.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return id in the session cookie, or 0 if there is none
+     */
+    private static long getSessionId(HttpExchange exchange) {
+        List<String> headers = exchange.getRequestHeaders().get("Cookie");
+        if (headers == null) return 0;
+
+        for (String header : headers) {
+            for (String cookie : header.split(";")) {
+                String[] parts = cookie.trim().split("=", 2);
+                if (parts.length < 2 || !parts[0].equals(COOKIE_NAME)) continue;
+                try {
+                    return Long.parseUnsignedLong(parts[1], 16);
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return whether an If-None-Match header lists an ETag, or is *
+     */
+    private static boolean matchesEtag(List<String> headers, String etag) {
+        if (headers == null) return false;
+
+        for (String header : headers) {
+            for (String tag : header.split(",")) {
+                String trimmed = tag.trim();
+                if (trimmed.equals(etag) || trimmed.equals("*")) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether an Accept-Encoding header allows gzip
+     */
+    private static boolean acceptsGzip(List<String> headers) {
+        if (headers == null) return false;
+
+        for (String header : headers) {
+            for (String coding : header.split(",")) {
+                // "gzip;q=0" means that gzip must not be used
+                String[] parts = coding.replace(" ", "").split(";");
+                if (parts[0].equalsIgnoreCase("gzip") && !(parts.length > 1 && parts[1].matches("q=0(\\.0*)?"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return value of the index query parameter, or -1 if it is missing or not a number
+     */
+    private static int getChoice(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return -1;
+
+        for (String parameter : query.split("&")) {
+            if (!parameter.startsWith("index=")) continue;
+            try {
+                return Integer.parseInt(parameter.substring("index=".length()));
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Renders a page with a link for every choice, and Play Again and Quit on an ending.
+     */
+    private static String renderPage(Page page) {
+        StringBuilder html = new StringBuilder(512);
+        html.append("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>Gamebook</title></head><body>\n");
+        html.append("<p>").append(escape(page.getBody()).replace("\n", "<br>")).append("</p>\n<ul>\n");
+        for (int i = 0; i < page.getLinks().size(); i++) {
+            html.append("<li><a href=\"/play/choose?index=").append(i).append("\">")
+                    .append(escape(page.getLinks().get(i).getText())).append("</a></li>\n");
+        }
+        html.append("</ul>\n");
+        if (page.isEnding()) {
+            html.append("<p><a href=\"/play/restart\">Play Again</a> <a href=\"/play/quit\">Quit</a></p>\n");
+        }
+        return html.append("</body></html>\n").toString();
+    }
+
+    /**
+     * Renders a message with a link back to the first page.
+     */
+    private static String renderMessage(String message) {
+        return "<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>Gamebook</title></head><body>\n<p>"
+                + escape(message) + "</p>\n<p><a href=\"/play/restart\">Play</a></p>\n</body></html>\n";
+    }
+
+    /**
+     * @return text with the characters that are special in HTML escaped
+     */
+    private static String escape(String text) {
+        if (text == null) return "";
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Sends a complete response.
+     */
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Removes sessions that haven't been used for SESSION_TIMEOUT_MILLIS.
+     */
+    private void removeExpiredSessions() {
+        long cutoff = System.currentTimeMillis() - SESSION_TIMEOUT_MILLIS;
+        sessions.values().removeIf(session -> {
+            if (session.lastSeenMillis >= cutoff) return false;
+
+            // A reader who stops coming back before an ending has dropped off there
+            if (analytics != null && !session.isFinished) analytics.recordExit(session.pageId);
+            return true;
+        });
+    }
+
+    /**
+     * Evicts changed pages from the content cache. Called by the store, which has already evicted them from its page
+     * cache, for changes made by this or any other process, such as the Gamebook Editor. Changes to links are
+     * reported as changes to the page that they point from.
+     * @param pageIds ids of the changed pages, or null if any page may have changed
+     */
+    private void evictChangedPages(Set<Integer> pageIds) {
+        if (pageIds == null) {
+            contentCache.invalidateAll();
+            return;
+        }
+        for (int pageId : pageIds) contentCache.invalidate(pageId);
+    }
+
+    /**
+     * Creates an executor that runs every request on a virtual thread of its own if the JVM has them, or a bounded
+     * pool of platform threads otherwise. Virtual threads are looked up reflectively, since the project is built for
+     * Java 11.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.info("Handling requests on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException ex) {
+            int threads = Integer.getInteger("gamebook.serverThreads", DEFAULT_THREADS);
+            LOGGER.info("Virtual threads aren't available, handling requests on " + threads + " threads");
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "play-server-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Entry point for the play server.
+     * @param args "--port" followed by the port to listen on (default 8080), and optionally "--local" followed by the
+     *             directory of a local gamebook store, "--file" followed by the path of a gamebook file, or
+     *             "--generate" followed by a number of pages to play a generated book instead of the database;
+     *             "--saves" followed by a directory keeps readers' progress in a save game journal there, and
+     *             "--analytics" followed by a file records play counts in it
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        GamebookStore store = null;
+        ReadOnlyBook book = null;
+        SaveGameJournal saveGames = null;
+        PlayAnalytics analytics = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--local":
+                    store = LocalGamebookStore.open(Paths.get(args[++i]));
+                    break;
+                case "--file":
+                    book = MappedGamebook.open(Paths.get(args[++i]));
+                    break;
+                case "--generate":
+                    book = SyntheticBookGenerator.generate(Integer.parseInt(args[++i]), 3, 40, 42);
+                    break;
+                case "--saves":
+                    saveGames = SaveGameJournal.open(Paths.get(args[++i]));
+                    break;
+                case "--analytics":
+                    analytics = new PlayAnalytics(Paths.get(args[++i]));
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        if (book == null && store == null) store = new DatabaseModel();
+        PlayServer playServer = book != null ? new PlayServer(book) : new PlayServer(store);
+        playServer.setSaveGameJournal(saveGames);
+        playServer.setAnalytics(analytics);
+        playServer.start(port);
+
+        GamebookStore finalStore = store;
+        ReadOnlyBook finalBook = book;
+        SaveGameJournal finalSaveGames = saveGames;
+        PlayAnalytics finalAnalytics = analytics;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            playServer.stop();
+            if (finalAnalytics != null) finalAnalytics.close();
+            if (finalSaveGames != null) {
+                try {
+                    finalSaveGames.close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "Couldn't close the save game journal", ex);
+                }
+            }
+            if (finalStore != null) finalStore.closeConnection();
+            if (finalBook != null) finalBook.close();
+        }));
+        System.out.printf("Serving the gamebook on http://localhost:%d/play%n", playServer.getPort());
+    }
+}
@@ -3,42 +3,163 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 
 /**
- * MVC controller for the Gamebook Player that handles all communication between PlayerView (MVC view) and
- * DatabaseModel (MVC model).
+ * MVC controller for the Gamebook Player that handles all communication between PlayerView (MVC view) and a
+ * GamebookStore (MVC model). In offline mode, pages are served from a ReadOnlyBook (an in-memory snapshot or a
+ * memory-mapped gamebook file) instead of a store. Navigation state lives in a PlayerSession, which can also be used
+ * without a UI.
+ * <p>
+ * Progress is kept in a SaveGameJournal in the gamebook.savesDirectory directory (default "saves"), under save slot
+ * gamebook.saveSlot. Closing the window and starting the Player again resumes on the same page, with the same pages to
+ * go back to.
+ * <p>
+ * Which links are chosen and where players stop playing is recorded by PlayAnalytics in the gamebook.analyticsFile
+ * file (default "analytics.log"), which the Gamebook Editor shows as heatmaps.
  */
 public class PlayerController {
-    private final DatabaseModel databaseModel;
+    private static final int PREFETCH_DEPTH = Integer.getInteger("gamebook.prefetchDepth", 1);
+    private static final int PREFETCH_MAX_IN_FLIGHT = Integer.getInteger("gamebook.prefetchMaxInFlight", 16);
+    private static final long SAVE_SLOT = Long.getLong("gamebook.saveSlot", 1);
+
+    /**
+     * How the player arrived at a page, which decides how the back-history and the save game change.
+     */
+    private enum Navigation {
+        FORWARD, BACK, RESTART, RESUME
+    }
+
+    private final PlayerSession session;
+    private final AsyncDatabaseModel asyncDatabaseModel;
+    private final PagePrefetcher pagePrefetcher;
     private final PlayerView playerView;
-    private int currentPageId;
+    private final SaveGameJournal saveGames;
+    private final PlayAnalytics analytics;
+    // Pages that the "Back" button returns to, the previous page first
+    private final ArrayDeque<Integer> history;
 
     /**
      * Constructs the controller, populates the UI and sets up listeners.
-     * @param databaseModel model that handles reading from and writing to a MySQL database
+     * @param store model that handles reading from and writing to the gamebook's storage
      * @param playerView view for the Gamebook Player app
      */
-    public PlayerController(DatabaseModel databaseModel, PlayerView playerView) {
-        this.databaseModel = databaseModel;
+    public PlayerController(GamebookStore store, PlayerView playerView) {
+        this(store, null, playerView);
+    }
+
+    /**
+     * Constructs the controller in offline mode, where all pages are served without a store. Populates the UI
+     * and sets up listeners.
+     * @param book read-only book to play, such as an in-memory snapshot or a memory-mapped gamebook file
+     * @param playerView view for the Gamebook Player app
+     */
+    public PlayerController(ReadOnlyBook book, PlayerView playerView) {
+        this(null, book, playerView);
+    }
+
+    /**
+     * Constructs the controller with either a store or a read-only book as the source of pages.
+     */
+    private PlayerController(GamebookStore store, ReadOnlyBook book, PlayerView playerView) {
         this.playerView = playerView;
-        currentPageId = -1;
+        if (store != null) {
+            session = new PlayerSession(store);
+            asyncDatabaseModel = new AsyncDatabaseModel(store);
+            asyncDatabaseModel.setLoadingListener(playerView::setLoading);
+            pagePrefetcher = new PagePrefetcher(store, PREFETCH_DEPTH, PREFETCH_MAX_IN_FLIGHT);
+        } else {
+            session = new PlayerSession(book);
+            asyncDatabaseModel = null;
+            pagePrefetcher = null;
+        }
 
-        goToPage(1);
+        history = new ArrayDeque<>();
+        analytics = new PlayAnalytics(Paths.get(System.getProperty("gamebook.analyticsFile", "analytics.log")));
+        saveGames = openSaveGames();
+        SaveGameJournal.SaveGame save = saveGames == null ? null : saveGames.restore(SAVE_SLOT);
+        if (save != null) {
+            for (int pageId : save.getHistory()) history.push(pageId);
+            goToPage(save.getPageId(), Navigation.RESUME);
+        } else {
+            goToPage(1, Navigation.RESTART);
+        }
 
         // Set up listeners
+        this.playerView.addBackButtonListener(new PlayerController.BackButtonListener());
         this.playerView.addPlayAgainButtonListener(new PlayerController.PlayAgainButtonListener());
         this.playerView.addQuitButtonListener(new PlayerController.QuitButtonListener());
         this.playerView.addWindowCloseListener(new PlayerController.WindowCloseListener());
     }
 
     /**
-     * Populates the UI with the latest page body and links from the database.
+     * Populates the UI with the page body and links of a page. Pages that have been visited before are served from
+     * the page cache without querying the database; other pages are fetched in the background and shown once they
+     * have loaded.
      * @param pageId id of the page whose data to populate with
      */
     public void goToPage(int pageId) {
-        Page page = databaseModel.getPage(pageId);
+        goToPage(pageId, Navigation.FORWARD);
+    }
 
-        currentPageId = pageId;
+    /**
+     * Populates the UI with the page body and links of a page.
+     * @param pageId id of the page whose data to populate with
+     * @param navigation how the player arrived at the page
+     */
+    private void goToPage(int pageId, Navigation navigation) {
+        Page page = session.peekPage(pageId);
+        if (page != null || !session.usesStore()) {
+            showPage(page, navigation);
+            return;
+        }
+
+        asyncDatabaseModel.getCachedPage(pageId).thenAcceptAsync(fetchedPage -> showPage(fetchedPage, navigation),
+                AsyncDatabaseModel.SWING_EXECUTOR);
+    }
+
+    /**
+     * Populates the UI with the page body and links of a page, and records the move in the back-history and the save
+     * game. Must be called on the event dispatch thread.
+     * @param page page to show, or null if it couldn't be fetched
+     * @param navigation how the player arrived at the page
+     */
+    private void showPage(Page page, Navigation navigation) {
+        if (page == null && navigation == Navigation.RESUME) {
+            // The saved page has been deleted since the game was saved
+            goToPage(1, Navigation.RESTART);
+            return;
+        }
+
+        int previousPageId = session.getCurrentPageId();
+        if (!session.enter(page)) return;
+
+        switch (navigation) {
+            case FORWARD:
+                if (previousPageId != -1) history.push(previousPageId);
+                // Keep no more than the save game does, so that both go back to the same pages
+                if (saveGames != null && history.size() > saveGames.getHistoryLength()) history.removeLast();
+                if (saveGames != null) saveGames.recordVisit(SAVE_SLOT, page.getId());
+                break;
+            case BACK:
+                history.pop();
+                if (saveGames != null) saveGames.recordBack(SAVE_SLOT);
+                analytics.record(previousPageId, -1, page.getId());
+                break;
+            case RESTART:
+                history.clear();
+                analytics.recordStart(page.getId());
+                if (saveGames != null) {
+                    saveGames.recordRestart(SAVE_SLOT);
+                    saveGames.recordVisit(SAVE_SLOT, page.getId());
+                }
+                break;
+            case RESUME:
+                break;
+        }
+        playerView.setBackButtonVisible(!history.isEmpty());
 
         playerView.setBodyContent(page.getBody());
 
@@ -48,14 +169,51 @@ public class PlayerController {
         }
 
         playerView.setEndButtonsVisible(page.isEnding());
+
+        // Load the pages behind the link buttons while the player is reading
+        if (pagePrefetcher != null) pagePrefetcher.prefetch(page);
     }
 
     /**
-     * Exits the program safely by closing the database connection.
+     * Opens the save game journal.
+     * @return the journal, or null if it couldn't be opened, in which case the game isn't saved
+     */
+    private static SaveGameJournal openSaveGames() {
+        try {
+            return SaveGameJournal.open(Paths.get(System.getProperty("gamebook.savesDirectory", "saves")));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Exits the program safely by closing the database connection once pending database work has finished. The save
+     * game is kept unless the player has reached an ending, so that the next game starts from the beginning.
      */
     private void quit() {
-        databaseModel.closeConnection();
-        playerView.getFrame().dispose();
+        if (!session.isFinished() && session.getCurrentPageId() != -1) {
+            analytics.recordExit(session.getCurrentPageId());
+        }
+        analytics.close();
+
+        if (saveGames != null) {
+            if (session.isFinished()) saveGames.remove(SAVE_SLOT);
+            try {
+                saveGames.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        if (!session.usesStore()) {
+            session.close();
+            playerView.getFrame().dispose();
+            return;
+        }
+
+        pagePrefetcher.close();
+        asyncDatabaseModel.close().thenRunAsync(playerView.getFrame()::dispose, AsyncDatabaseModel.SWING_EXECUTOR);
     }
 
     /**
@@ -69,11 +227,26 @@ public class PlayerController {
         public void actionPerformed(ActionEvent actionEvent) {
             JButton button = (JButton) actionEvent.getSource();
             int pageId = Integer.parseInt(button.getName());
+            int linkId = (Integer) button.getClientProperty(PlayerView.LINK_ID_PROPERTY);
 
+            analytics.record(session.getCurrentPageId(), linkId, pageId);
             goToPage(pageId);
         }
     }
 
+    /**
+     * Custom listener based on ActionListener that detects when the "Back" button has been clicked by the user.
+     */
+    private class BackButtonListener implements ActionListener {
+        /**
+         * Returns to the previous page after the "Back" button has been clicked by the user.
+         * @param actionEvent event that invokes the listener
+         */
+        public void actionPerformed(ActionEvent actionEvent) {
+            if (!history.isEmpty()) goToPage(history.peek(), Navigation.BACK);
+        }
+    }
+
     /**
      * Custom listener based on ActionListener that detects when the "Play Again" button has been clicked by the user.
      */
@@ -83,7 +256,7 @@ public class PlayerController {
          * @param actionEvent event that invokes the listener
          */
         public void actionPerformed(ActionEvent actionEvent) {
-            goToPage(1);
+            goToPage(1, Navigation.RESTART);
         }
     }
 
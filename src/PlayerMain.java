@@ -1,13 +1,54 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /**
  * Contains the main() method which is the entry point for the Gamebook Player app.
  */
 public class PlayerMain {
     /**
      * Entry point for the Gamebook Player app.
-     * @param args unused arguments
+     * @param args "--snapshot" to load the whole book into memory at startup and play without the database,
+     *             "--file" followed by the path of a gamebook file to play without the database, or "--local"
+     *             followed by the directory of a local gamebook store to play without a MySQL server
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1 && args[0].equals("--local")) {
+            LocalGamebookStore store = LocalGamebookStore.open(Paths.get(args[1]));
+            PlayerView playerView = new PlayerView("Gamebook Player");
+            new PlayerController(store, playerView);
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("--file")) {
+            long start = System.nanoTime();
+            MappedGamebook book = MappedGamebook.open(Paths.get(args[1]));
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.printf("Opened gamebook file with %,d pages and %,d links in %,d ms%n",
+                    book.getPageCount(), book.getLinkCount(), elapsedMillis);
+
+            PlayerView playerView = new PlayerView("Gamebook Player");
+            new PlayerController(book, playerView);
+            return;
+        }
+
         DatabaseModel databaseModel = new DatabaseModel();
+
+        if (args.length > 0 && args[0].equals("--snapshot")) {
+            long start = System.nanoTime();
+            BookSnapshot snapshot = BookSnapshot.load(databaseModel);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            databaseModel.closeConnection();
+
+            System.out.printf("Loaded snapshot of %,d pages and %,d links in %,d ms (~%,d KB in memory)%n",
+                    snapshot.getPageCount(), snapshot.getLinkCount(), elapsedMillis,
+                    snapshot.estimateSizeBytes() / 1024);
+
+            PlayerView playerView = new PlayerView("Gamebook Player");
+            new PlayerController(snapshot, playerView);
+            return;
+        }
+
         PlayerView playerView = new PlayerView("Gamebook Player");
         new PlayerController(databaseModel, playerView);
     }
@@ -0,0 +1,125 @@
+/**
+ * Headless state of one playthrough: which page the player is on and where the pages come from. Used by
+ * PlayerController to drive the Gamebook Player, and usable without a UI, for example in benchmarks.
+ */
+public class PlayerSession {
+    private final GamebookStore store;
+    private final ReadOnlyBook book;
+    private Page currentPage;
+
+    /**
+     * Constructs a session that reads pages from a store, through its page cache.
+     * @param store model that handles reading from the gamebook's storage
+     */
+    public PlayerSession(GamebookStore store) {
+        this(store, null);
+    }
+
+    /**
+     * Constructs a session that reads pages from a read-only book.
+     * @param book read-only book to play, such as an in-memory snapshot or a memory-mapped gamebook file
+     */
+    public PlayerSession(ReadOnlyBook book) {
+        this(null, book);
+    }
+
+    private PlayerSession(GamebookStore store, ReadOnlyBook book) {
+        this.store = store;
+        this.book = book;
+    }
+
+    /**
+     * @return whether pages are read from a store (which may block) rather than from a read-only book
+     */
+    public boolean usesStore() {
+        return store != null;
+    }
+
+    /**
+     * Returns a page if it can be had without querying a store, that is from a read-only book or the store's page
+     * cache.
+     * @param pageId id of the desired page
+     * @return the page, or null if it would have to be fetched
+     */
+    public Page peekPage(int pageId) {
+        if (book != null) return book.getPage(pageId);
+        return store.getPageCache().getIfPresent(pageId);
+    }
+
+    /**
+     * Returns a page, querying the store if the page isn't cached. May block.
+     * @param pageId id of the desired page
+     * @return the page, or null if there is no such page or it couldn't be fetched
+     */
+    public Page fetchPage(int pageId) {
+        if (book != null) return book.getPage(pageId);
+        return store.getCachedPage(pageId);
+    }
+
+    /**
+     * Moves the player to a page that has already been fetched.
+     * @param page page to move to, or null if it couldn't be fetched
+     * @return whether the player moved
+     */
+    public boolean enter(Page page) {
+        if (page == null) return false;
+
+        currentPage = page;
+        return true;
+    }
+
+    /**
+     * Fetches a page and moves the player to it. May block.
+     * @param pageId id of the page to move to
+     * @return the page the player is on afterwards, which is the previous page if the new one couldn't be fetched
+     */
+    public Page goToPage(int pageId) {
+        enter(fetchPage(pageId));
+        return currentPage;
+    }
+
+    /**
+     * Moves the player along a link on the current page.
+     * @param choice index of the link on the current page
+     * @return the page the player is on afterwards
+     */
+    public Page choose(int choice) {
+        return goToPage(currentPage.getLinks().get(choice).getToPageId());
+    }
+
+    /**
+     * Moves the player back to the first page of the gamebook.
+     * @return the page the player is on afterwards
+     */
+    public Page restart() {
+        return goToPage(1);
+    }
+
+    /**
+     * @return page the player is on, or null before the first page has been entered
+     */
+    public Page getCurrentPage() {
+        return currentPage;
+    }
+
+    /**
+     * @return id of the page the player is on, or -1 before the first page has been entered
+     */
+    public int getCurrentPageId() {
+        return currentPage == null ? -1 : currentPage.getId();
+    }
+
+    /**
+     * @return whether the player has reached an ending of the gamebook
+     */
+    public boolean isFinished() {
+        return currentPage != null && currentPage.isEnding();
+    }
+
+    /**
+     * Releases the read-only book, if any. A store is left open, since it is owned by the caller.
+     */
+    public void close() {
+        if (book != null) book.close();
+    }
+}
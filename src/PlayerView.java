@@ -1,14 +1,22 @@
 import javax.swing.*;
+import java.awt.*;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowListener;
 
 public class PlayerView {
+    /**
+     * Client property of a link button that holds the id of its link.
+     */
+    public static final String LINK_ID_PROPERTY = "linkId";
+
     private final JFrame frame;
     private JPanel panel;
     private JTextArea bodyTextArea;
     private JPanel buttonsPanel;
+    private JButton backButton;
     private JButton playAgainButton;
     private JButton quitButton;
+    private JLabel loadingLabel;
 
     /**
      * Constructs a player view, sets up UI components and displays the frame.
@@ -21,6 +29,8 @@ public class PlayerView {
         frame.pack();
 
         buttonsPanel.setLayout(new BoxLayout(buttonsPanel, BoxLayout.Y_AXIS));
+        loadingLabel.setVisible(false);
+        backButton.setVisible(false);
 
         frame.setVisible(true);
     }
@@ -52,6 +62,7 @@ public class PlayerView {
         button.setText(linkText);
 
         button.setName(String.valueOf(link.getToPageId()));
+        button.putClientProperty(LINK_ID_PROPERTY, link.getId());
         button.addActionListener(actionListener);
 
         buttonsPanel.add(button);
@@ -77,6 +88,37 @@ public class PlayerView {
         quitButton.setVisible(isVisible);
     }
 
+    /**
+     * Sets the visible state of the "Back" button.
+     * @param isVisible visible state
+     */
+    public void setBackButtonVisible(boolean isVisible) {
+        backButton.setVisible(isVisible);
+    }
+
+    /**
+     * Shows or hides the loading state while a page is being fetched. Link buttons are disabled while loading so that
+     * the user can't follow a link from a page that is about to be replaced.
+     * @param isLoading whether a page is being fetched
+     */
+    public void setLoading(boolean isLoading) {
+        loadingLabel.setVisible(isLoading);
+        frame.setCursor(isLoading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
+
+        for (Component component : buttonsPanel.getComponents()) {
+            component.setEnabled(!isLoading);
+        }
+        backButton.setEnabled(!isLoading);
+    }
+
+    /**
+     * Adds a listener for detecting when the user clicks the "Back" button.
+     * @param actionListener listener that gets attached when this method is called from PlayerController
+     */
+    public void addBackButtonListener(ActionListener actionListener) {
+        backButton.addActionListener(actionListener);
+    }
+
     /**
      * Adds a listener for detecting when the user clicks the "Play Again" button.
      * @param actionListener listener that gets attached when this method is called from EditorController
@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays a gamebook many times without a UI, choosing links uniformly at random, to estimate how likely each ending is
+ * and how long playthroughs take. Navigation follows PlayerSession: a playthrough starts on page 1, a link to a page
+ * that doesn't exist leaves the player where they are, and it ends on an ending, on a page without links, or when a
+ * hop limit is reached so that loops can't run forever.
+ *
+ * Playthroughs are split evenly between worker threads, each with its own random number generator split from one
+ * seed and its own counters, so workers share nothing while they run and the results only depend on the seed and
+ * the number of threads. Stepping works on BookGraph's arrays and doesn't allocate.
+ */
+public class PlaythroughSimulator {
+    private final BookGraph graph;
+    private final int threads;
+
+    /**
+     * Counters of one worker.
+     */
+    private static class Tally {
+        private final long[] visits;
+        private final long[] lengths;
+        private long deadEnds;
+        private long hopLimited;
+
+        Tally(int pageCount, int hopLimit) {
+            visits = new long[pageCount];
+            lengths = new long[hopLimit + 1];
+        }
+
+        void add(Tally other) {
+            for (int i = 0; i < visits.length; i++) visits[i] += other.visits[i];
+            for (int i = 0; i < lengths.length; i++) lengths[i] += other.lengths[i];
+            deadEnds += other.deadEnds;
+            hopLimited += other.hopLimited;
+        }
+    }
+
+    /**
+     * Constructs a simulator that uses one thread per available processor.
+     * @param graph graph of the book to play
+     */
+    public PlaythroughSimulator(BookGraph graph) {
+        this(graph, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a simulator.
+     * @param graph graph of the book to play
+     * @param threads number of worker threads
+     */
+    public PlaythroughSimulator(BookGraph graph, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+
+        this.graph = graph;
+        this.threads = threads;
+    }
+
+    /**
+     * Runs playthroughs and collects their outcomes. Blocks until all of them are done.
+     * @param playthroughs number of playthroughs
+     * @param hopLimit maximum number of links to follow in one playthrough
+     * @param seed seed of the random link choices
+     * @return outcomes of the playthroughs
+     */
+    public SimulationReport simulate(long playthroughs, int hopLimit, long seed) {
+        int pageCount = graph.getPageCount();
+        int start = graph.indexOf(GraphAnalyzer.START_PAGE_ID);
+        if (start == -1 || playthroughs <= 0) {
+            return new SimulationReport(graph, 0, new long[pageCount], new long[hopLimit + 1], 0, 0, hopLimit, 0);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "playthrough-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long startNanos = System.nanoTime();
+        SplittableRandom root = new SplittableRandom(seed);
+        ArrayList<Callable<Tally>> workers = new ArrayList<>();
+        for (int worker = 0; worker < threads; worker++) {
+            long share = playthroughs / threads + (worker < playthroughs % threads ? 1 : 0);
+            SplittableRandom random = root.split();
+            workers.add(() -> play(start, share, hopLimit, random));
+        }
+
+        Tally total = new Tally(pageCount, hopLimit);
+        try {
+            for (Future<Tally> result : executor.invokeAll(workers)) total.add(result.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Simulation was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Simulation failed", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        return new SimulationReport(graph, playthroughs, total.visits, total.lengths, total.deadEnds,
+                total.hopLimited, hopLimit, elapsedNanos);
+    }
+
+    /**
+     * Runs a worker's share of the playthroughs.
+     */
+    private Tally play(int start, long playthroughs, int hopLimit, SplittableRandom random) {
+        int[] offsets = graph.offsets();
+        int[] targets = graph.targets();
+        Tally tally = new Tally(graph.getPageCount(), hopLimit);
+        long[] visits = tally.visits;
+
+        for (long i = 0; i < playthroughs; i++) {
+            int page = start;
+            int hops = 0;
+            visits[page]++;
+
+            while (!graph.isEnding(page)) {
+                int first = offsets[page];
+                int linkCount = offsets[page + 1] - first;
+                if (linkCount == 0) {
+                    tally.deadEnds++;
+                    break;
+                }
+                if (hops == hopLimit) {
+                    tally.hopLimited++;
+                    break;
+                }
+
+                hops++;
+                int target = targets[first + random.nextInt(linkCount)];
+                // Like in the player, a link to a page that doesn't exist leaves the player on the same page
+                if (target != -1) {
+                    page = target;
+                    visits[page]++;
+                }
+            }
+
+            if (graph.isEnding(page)) tally.lengths[hops]++;
+        }
+        return tally;
+    }
+}
@@ -0,0 +1,192 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Call counts, error counts, row counts and latency histograms per DatabaseModel operation, together with the hit
+ * ratio of the page cache. Recording is lock-free, so it can be done on every query. The metrics are exposed as a JMX
+ * MBean, can be logged periodically, and calls slower than a threshold are logged with their SQL.
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+    private static final Logger LOGGER = Logger.getLogger("gamebook.metrics");
+
+    private final ConcurrentHashMap<String, OperationStats> operations;
+    private final PageCache pageCache;
+    private volatile long slowQueryThresholdMillis;
+    private ScheduledExecutorService reporter;
+    private ObjectName objectName;
+
+    /**
+     * Metrics of one operation.
+     */
+    private static class OperationStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    /**
+     * Constructs empty metrics.
+     * @param pageCache page cache whose hit ratio to report
+     * @param slowQueryThresholdMillis calls that take at least this many milliseconds are logged; 0 turns it off
+     */
+    public QueryMetrics(PageCache pageCache, long slowQueryThresholdMillis) {
+        this.pageCache = pageCache;
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+        operations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records a call of an operation.
+     * @param operation name of the operation
+     * @param nanos how long the call took
+     * @param rows number of rows that the call returned or changed
+     * @param failed whether the call failed with an SQL error
+     * @param sql last SQL statement that the call prepared, or null
+     */
+    public void record(String operation, long nanos, int rows, boolean failed, String sql) {
+        OperationStats stats = operations.computeIfAbsent(operation, name -> new OperationStats());
+        stats.calls.increment();
+        if (failed) stats.errors.increment();
+        stats.rows.add(rows);
+        stats.latency.record(nanos);
+
+        long threshold = slowQueryThresholdMillis;
+        if (threshold > 0 && nanos >= threshold * 1_000_000) {
+            LOGGER.warning(String.format("Slow %s: %.1f ms, %d rows: %s", operation, nanos / 1e6, rows, sql));
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under gamebook:type=QueryMetrics,name=[name].
+     * @param name name that is unique among the metrics in this JVM
+     */
+    public synchronized void register(String name) {
+        try {
+            objectName = ObjectName.getInstance("gamebook:type=QueryMetrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        } catch (JMException ex) {
+            objectName = null;
+            LOGGER.log(Level.WARNING, "Couldn't register query metrics with JMX", ex);
+        }
+    }
+
+    /**
+     * Logs a summary of the metrics on a background thread at a fixed period.
+     * @param periodSeconds seconds between summaries
+     */
+    public synchronized void startReporter(long periodSeconds) {
+        if (reporter != null) return;
+
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> LOGGER.info("Query metrics\n" + getSummary()), periodSeconds,
+                periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the reporter and unregisters the MBean.
+     */
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ex) {
+                LOGGER.log(Level.WARNING, "Couldn't unregister query metrics from JMX", ex);
+            }
+            objectName = null;
+        }
+    }
+
+    public String[] getOperationNames() {
+        return new TreeMap<>(operations).keySet().toArray(new String[0]);
+    }
+
+    public long getTotalCalls() {
+        long total = 0;
+        for (OperationStats stats : operations.values()) total += stats.calls.sum();
+        return total;
+    }
+
+    public long getTotalErrors() {
+        long total = 0;
+        for (OperationStats stats : operations.values()) total += stats.errors.sum();
+        return total;
+    }
+
+    public double getPageCacheHitRatio() {
+        long hits = pageCache.getHits();
+        long lookups = hits + pageCache.getMisses();
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    public void setSlowQueryThresholdMillis(long millis) {
+        slowQueryThresholdMillis = millis;
+    }
+
+    public long getCalls(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats == null ? 0 : stats.calls.sum();
+    }
+
+    public long getErrors(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats == null ? 0 : stats.errors.sum();
+    }
+
+    public long getRows(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats == null ? 0 : stats.rows.sum();
+    }
+
+    public double getLatencyMillis(String operation, double percentile) {
+        OperationStats stats = operations.get(operation);
+        return stats == null ? 0 : stats.latency.getPercentileMicros(percentile) / 1000.0;
+    }
+
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder(String.format("%-22s %10s %8s %12s %10s %10s %10s%n",
+                "operation", "calls", "errors", "rows", "p50 ms", "p95 ms", "p99 ms"));
+
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(operations).entrySet()) {
+            OperationStats stats = entry.getValue();
+            summary.append(String.format("%-22s %,10d %,8d %,12d %10.2f %10.2f %10.2f%n", entry.getKey(),
+                    stats.calls.sum(), stats.errors.sum(), stats.rows.sum(),
+                    stats.latency.getPercentileMicros(50) / 1000.0,
+                    stats.latency.getPercentileMicros(95) / 1000.0,
+                    stats.latency.getPercentileMicros(99) / 1000.0));
+        }
+
+        summary.append(String.format("Page cache hit ratio: %.1f %%", getPageCacheHitRatio() * 100));
+        return summary.toString();
+    }
+
+    public void reset() {
+        operations.clear();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * JMX management interface of QueryMetrics, shown in tools such as JConsole and VisualVM.
+ */
+public interface QueryMetricsMBean {
+    /**
+     * @return names of the operations that have been called, in alphabetical order
+     */
+    String[] getOperationNames();
+
+    /**
+     * @return number of calls of all operations
+     */
+    long getTotalCalls();
+
+    /**
+     * @return number of calls of all operations that failed with an SQL error
+     */
+    long getTotalErrors();
+
+    /**
+     * @return fraction of page lookups that were served from the page cache, or NaN before the first lookup
+     */
+    double getPageCacheHitRatio();
+
+    /**
+     * @return calls that take at least this many milliseconds are logged with their SQL
+     */
+    long getSlowQueryThresholdMillis();
+
+    /**
+     * @param millis calls that take at least this many milliseconds are logged with their SQL; 0 turns logging off
+     */
+    void setSlowQueryThresholdMillis(long millis);
+
+    /**
+     * @param operation name of the operation
+     * @return number of calls of the operation
+     */
+    long getCalls(String operation);
+
+    /**
+     * @param operation name of the operation
+     * @return number of calls of the operation that failed with an SQL error
+     */
+    long getErrors(String operation);
+
+    /**
+     * @param operation name of the operation
+     * @return number of rows that the operation has returned or changed
+     */
+    long getRows(String operation);
+
+    /**
+     * @param operation name of the operation
+     * @param percentile percentile between 0 and 100
+     * @return latency percentile of the operation in milliseconds
+     */
+    double getLatencyMillis(String operation, double percentile);
+
+    /**
+     * @return table with calls, errors, rows and latency percentiles of every operation
+     */
+    String getSummary();
+
+    /**
+     * Forgets all recorded calls.
+     */
+    void reset();
+}
@@ -0,0 +1,79 @@
+import java.sql.*;
+
+/**
+ * Prints the MySQL query plans of the hottest queries against the database in the DatabaseLoginData class, optionally
+ * after importing a generated book so that the plans reflect a large table. Run it once with
+ * -Dgamebook.skipMigrations=true on a database created from gamebook.sql and once without to compare the plans
+ * before and after the schema migrations.
+ */
+public class QueryPlanReport {
+    private static final String[] QUERIES = {
+            "SELECT link_id, text, to_page_id FROM links WHERE from_page_id = %1$d ORDER BY link_id",
+            "SELECT p.page_id, p.body, p.is_ending, l.link_id, l.text, l.to_page_id " +
+                    "FROM pages p LEFT JOIN links l ON l.from_page_id = p.page_id " +
+                    "WHERE p.page_id = %1$d ORDER BY l.link_id",
+            "SELECT DISTINCT from_page_id FROM links WHERE to_page_id = %1$d",
+            "SELECT link_id, text, from_page_id, to_page_id FROM links ORDER BY from_page_id, link_id"
+    };
+
+    /**
+     * Entry point for the report.
+     * @param args optional number of generated pages to import first (the pages and links are left in the database)
+     */
+    public static void main(String[] args) throws SQLException {
+        int importPages = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+
+        DatabaseModel databaseModel = new DatabaseModel();
+        try (Connection connection = DriverManager.getConnection(DatabaseModel.getConnectionUrl(),
+                DatabaseLoginData.username, DatabaseLoginData.password)) {
+            if (importPages > 0) {
+                BookSnapshot book = SyntheticBookGenerator.generate(importPages, 3, 40, 42);
+                databaseModel.importBook(book::streamPages, book::streamLinks, 1000);
+            }
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ANALYZE TABLE pages, links");
+
+                // Look up a page in the middle of the book, so that the plans aren't skewed by the first rows
+                int pageId;
+                try (ResultSet resultSet = statement.executeQuery(
+                        "SELECT page_id FROM pages ORDER BY page_id LIMIT 1 OFFSET " +
+                                databaseModel.getPageCount() / 2)) {
+                    pageId = resultSet.next() ? resultSet.getInt(1) : 1;
+                }
+
+                System.out.printf("%,d pages, %,d links%n", databaseModel.getPageCount(), countLinks(statement));
+                for (String query : QUERIES) {
+                    String sql = String.format(query, pageId);
+                    System.out.println();
+                    System.out.println(sql);
+                    try (ResultSet resultSet = statement.executeQuery("EXPLAIN " + sql)) {
+                        printPlan(resultSet);
+                    }
+                }
+            }
+        } finally {
+            databaseModel.closeConnection();
+        }
+    }
+
+    /**
+     * Counts the links in the database.
+     */
+    private static int countLinks(Statement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM links")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Prints the access type, chosen index, estimated rows and extra information of every table in a plan.
+     */
+    private static void printPlan(ResultSet plan) throws SQLException {
+        System.out.printf("  %-6s %-8s %-16s %10s  %s%n", "table", "type", "key", "rows", "extra");
+        while (plan.next()) {
+            System.out.printf("  %-6s %-8s %-16s %,10d  %s%n", plan.getString("table"), plan.getString("type"),
+                    plan.getString("key"), plan.getLong("rows"), plan.getString("Extra"));
+        }
+    }
+}
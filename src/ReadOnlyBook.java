@@ -0,0 +1,27 @@
+/**
+ * A gamebook that can be played but not edited, such as an in-memory snapshot or a memory-mapped gamebook file.
+ */
+public interface ReadOnlyBook {
+    /**
+     * Builds a Page object (including links) for a page in the book.
+     * @param pageId id of the desired page
+     * @return the desired page, or null if there is no page with that id
+     */
+    Page getPage(int pageId);
+
+    /**
+     * @return number of pages in the book
+     */
+    int getPageCount();
+
+    /**
+     * @return number of links in the book
+     */
+    int getLinkCount();
+
+    /**
+     * Releases any resources held by the book. Does nothing by default.
+     */
+    default void close() {
+    }
+}
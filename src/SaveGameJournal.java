@@ -0,0 +1,545 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Durable save games for any number of play sessions, each identified by a long id. Every navigation event is
+ * appended to a binary journal, and the latest position and back-history of every session is kept in memory, so a
+ * save game is restored without reading the journal.
+ * <p>
+ * Events are fixed-size records with a sequence number and a CRC-32 checksum. They are collected in memory and a
+ * background thread writes and forces them to disk together every gamebook.journalFlushMillis milliseconds, so one
+ * fsync covers every event of every session in that interval; an event that hasn't been flushed yet is lost if the
+ * process crashes. When the journal grows large, and when the journal is closed, the state of every session is
+ * written to a snapshot, which replaces the previous snapshot atomically, and a new journal file is started. On
+ * opening, the snapshot is loaded and only the journal records that it doesn't cover are replayed; a torn record at
+ * the end of a journal file is discarded.
+ * <p>
+ * Only one program at a time can open the journal in a directory, since the sequence numbers and journal files of
+ * two programs would get mixed up.
+ */
+public class SaveGameJournal implements Closeable {
+    private static final String SNAPSHOT_FILE = "saves.snapshot";
+    private static final String JOURNAL_PREFIX = "saves-";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final int SNAPSHOT_MAGIC = 0x47425347; // "GBSG"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long SNAPSHOT_THRESHOLD_BYTES = 4 * 1024 * 1024;
+    private static final long DEFAULT_FLUSH_MILLIS = 50;
+    private static final int DEFAULT_HISTORY_LENGTH = 100;
+    private static final Logger LOGGER = Logger.getLogger(SaveGameJournal.class.getName());
+
+    // checksum, sequence number, session id, kind and page id
+    private static final int RECORD_SIZE = 4 + 8 + 8 + 1 + 4;
+    private static final byte VISIT = 1;
+    private static final byte BACK = 2;
+    private static final byte RESTART = 3;
+    private static final byte REMOVE = 4;
+
+    private final Path directory;
+    private final DirectoryLock directoryLock;
+    private final int historyLength;
+    private final HashMap<Long, SessionState> sessions;
+    private final Object flushLock;
+    private final ScheduledExecutorService flusher;
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private long lastSequenceNumber;
+
+    // Only used while holding flushLock
+    private FileChannel journal;
+    private long journalNumber;
+
+    /**
+     * Position and back-history of a session, as restored from the journal.
+     */
+    public static class SaveGame {
+        private final int pageId;
+        private final int[] history;
+
+        private SaveGame(int pageId, int[] history) {
+            this.pageId = pageId;
+            this.history = history;
+        }
+
+        /**
+         * @return id of the page the session is on
+         */
+        public int getPageId() {
+            return pageId;
+        }
+
+        /**
+         * @return ids of the pages that Back returns to, oldest first, so that the last one is the previous page
+         */
+        public int[] getHistory() {
+            return history;
+        }
+    }
+
+    /**
+     * Current page of a session and a bounded ring of the pages before it.
+     */
+    private static class SessionState {
+        private int pageId = -1;
+        private int[] history;
+        private int historyEnd;
+        private int historySize;
+
+        SessionState(int historyLength) {
+            // Most sessions are short, so the ring starts small and grows up to the history length
+            history = new int[Math.max(1, Math.min(4, historyLength))];
+        }
+
+        void visit(int newPageId, int historyLength) {
+            if (pageId != -1 && historyLength > 0) {
+                if (historySize < historyLength && historySize == history.length) {
+                    // Unroll the ring into a larger array; the oldest entry is at historyEnd when the ring is full
+                    int[] grown = new int[Math.min(historyLength, history.length * 2)];
+                    for (int i = 0; i < historySize; i++) grown[i] = history[(historyEnd + i) % history.length];
+                    history = grown;
+                    historyEnd = historySize;
+                }
+                history[historyEnd] = pageId;
+                historyEnd = (historyEnd + 1) % history.length;
+                historySize = Math.min(historySize + 1, history.length);
+            }
+            pageId = newPageId;
+        }
+
+        void back() {
+            if (historySize == 0) return;
+
+            historyEnd = (historyEnd - 1 + history.length) % history.length;
+            pageId = history[historyEnd];
+            historySize--;
+        }
+
+        int[] copyHistory() {
+            int[] copy = new int[historySize];
+            int first = historyEnd - historySize + history.length;
+            for (int i = 0; i < historySize; i++) copy[i] = history[(first + i) % history.length];
+            return copy;
+        }
+    }
+
+    private SaveGameJournal(Path directory) throws IOException {
+        this.directory = directory;
+        historyLength = Integer.getInteger("gamebook.saveHistoryLength", DEFAULT_HISTORY_LENGTH);
+        sessions = new HashMap<>();
+        flushLock = new Object();
+        pending = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        spare = ByteBuffer.allocate(RECORD_SIZE * 1024);
+
+        directoryLock = DirectoryLock.acquire(directory, "save games");
+        try {
+            readSnapshot();
+            long[] journalNumbers = listJournals();
+            for (long number : journalNumbers) replayJournal(number);
+            journalNumber = journalNumbers.length == 0 ? 1 : journalNumbers[journalNumbers.length - 1];
+            journal = openJournal(journalNumber);
+        } catch (IOException | RuntimeException ex) {
+            directoryLock.close();
+            throw ex;
+        }
+
+        long flushMillis = Long.getLong("gamebook.journalFlushMillis", DEFAULT_FLUSH_MILLIS);
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "save-game-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushInBackground, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the journal in a directory, creating the directory if it doesn't exist. The latest snapshot is loaded and
+     * the journal records after it are replayed.
+     * @param directory directory that holds the journal's files
+     * @return the opened journal
+     * @throws IOException if the journal's files couldn't be read or created, or if another program has the journal
+     *                     open
+     */
+    public static SaveGameJournal open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new SaveGameJournal(directory);
+    }
+
+    /**
+     * Records that a session moved forward to a page. The page it was on is added to its back-history.
+     * @param sessionId id of the session
+     * @param pageId id of the page the session moved to
+     */
+    public void recordVisit(long sessionId, int pageId) {
+        record(sessionId, VISIT, pageId);
+    }
+
+    /**
+     * Records that a session went back to the previous page in its back-history.
+     * @param sessionId id of the session
+     */
+    public void recordBack(long sessionId) {
+        record(sessionId, BACK, 0);
+    }
+
+    /**
+     * Records that a session started over, which clears its position and back-history. The session's next visit is
+     * its new starting point.
+     * @param sessionId id of the session
+     */
+    public void recordRestart(long sessionId) {
+        record(sessionId, RESTART, 0);
+    }
+
+    /**
+     * Deletes a session's save game.
+     * @param sessionId id of the session
+     */
+    public void remove(long sessionId) {
+        record(sessionId, REMOVE, 0);
+    }
+
+    /**
+     * Looks up a session's save game. Includes events that haven't been flushed yet.
+     * @param sessionId id of the session
+     * @return position and back-history of the session, or null if it has no save game
+     */
+    public synchronized SaveGame restore(long sessionId) {
+        SessionState state = sessions.get(sessionId);
+        if (state == null || state.pageId == -1) return null;
+        return new SaveGame(state.pageId, state.copyHistory());
+    }
+
+    /**
+     * @return maximum number of pages kept in a session's back-history, set by the gamebook.saveHistoryLength system
+     *         property
+     */
+    public int getHistoryLength() {
+        return historyLength;
+    }
+
+    /**
+     * @return number of sessions with a save game
+     */
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Writes the events recorded so far to the journal and forces them to disk.
+     * @throws IOException if the journal couldn't be written
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            ByteBuffer batch = takePending();
+            try {
+                writeFully(journal, batch);
+                journal.force(false);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the state of every session to a new snapshot and starts a new journal file. Journal files that the
+     * snapshot covers are deleted.
+     * @throws IOException if the snapshot couldn't be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (flushLock) {
+            long sequenceNumber;
+            HashMap<Long, SaveGame> saves = new HashMap<>();
+            ByteBuffer batch;
+            synchronized (this) {
+                // Copy the state and the events behind it at the same instant; later events go to the new journal
+                batch = takePending();
+                sequenceNumber = lastSequenceNumber;
+                for (Map.Entry<Long, SessionState> entry : sessions.entrySet()) {
+                    SessionState state = entry.getValue();
+                    if (state.pageId != -1) saves.put(entry.getKey(), new SaveGame(state.pageId, state.copyHistory()));
+                }
+            }
+
+            try {
+                writeFully(journal, batch);
+                journal.force(false);
+            } finally {
+                batch.clear();
+            }
+            journal.close();
+            long coveredJournalNumber = journalNumber;
+            journalNumber++;
+            journal = openJournal(journalNumber);
+
+            writeSnapshot(sequenceNumber, saves);
+            for (long number : listJournals()) {
+                if (number <= coveredJournalNumber) Files.deleteIfExists(journalPath(number));
+            }
+        }
+    }
+
+    /**
+     * Stops the background flushing, writes a final snapshot, closes the journal and releases the directory.
+     * @throws IOException if the snapshot couldn't be written
+     */
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (flushLock) {
+            try {
+                snapshot();
+                journal.close();
+            } finally {
+                directoryLock.close();
+            }
+        }
+    }
+
+    /**
+     * Applies an event to a session's state and queues it for the journal.
+     */
+    private synchronized void record(long sessionId, byte kind, int pageId) {
+        apply(sessionId, kind, pageId);
+        lastSequenceNumber++;
+
+        if (pending.remaining() < RECORD_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+
+        int start = pending.position();
+        pending.position(start + 4);
+        pending.putLong(lastSequenceNumber);
+        pending.putLong(sessionId);
+        pending.put(kind);
+        pending.putInt(pageId);
+
+        CRC32 crc = new CRC32();
+        crc.update(pending.array(), start + 4, RECORD_SIZE - 4);
+        pending.putInt(start, (int) crc.getValue());
+    }
+
+    /**
+     * Applies an event to the in-memory state of a session.
+     */
+    private void apply(long sessionId, byte kind, int pageId) {
+        switch (kind) {
+            case VISIT:
+                sessions.computeIfAbsent(sessionId, id -> new SessionState(historyLength)).visit(pageId, historyLength);
+                break;
+            case BACK:
+                SessionState state = sessions.get(sessionId);
+                if (state != null) state.back();
+                break;
+            case RESTART:
+            case REMOVE:
+                sessions.remove(sessionId);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown event kind " + kind);
+        }
+    }
+
+    /**
+     * Swaps the buffer of pending events for the empty spare one.
+     * @return the events recorded since the last swap, ready to be written; must be cleared once written
+     */
+    private synchronized ByteBuffer takePending() {
+        ByteBuffer batch = pending;
+        pending = spare.capacity() >= batch.capacity() ? spare : ByteBuffer.allocate(batch.capacity());
+        spare = batch;
+        batch.flip();
+        return batch;
+    }
+
+    /**
+     * Flushes on the background thread, and snapshots when the journal has grown large.
+     */
+    private void flushInBackground() {
+        try {
+            synchronized (flushLock) {
+                flush();
+                if (journal.size() > SNAPSHOT_THRESHOLD_BYTES) snapshot();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't write the save game journal", ex);
+        }
+    }
+
+    /**
+     * Replays the records of a journal file that the snapshot doesn't cover. Stops at the first incomplete or corrupt
+     * record and cuts the file there.
+     */
+    private void replayJournal(long number) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalPath(number), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            long position = 0;
+            CRC32 crc = new CRC32();
+
+            replay:
+            while (position < size) {
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) <= 0) break;
+                }
+                buffer.flip();
+                if (buffer.remaining() < RECORD_SIZE) break;
+
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    int start = buffer.position();
+                    int checksum = buffer.getInt();
+                    crc.reset();
+                    crc.update(buffer.array(), start + 4, RECORD_SIZE - 4);
+                    if ((int) crc.getValue() != checksum) break replay;
+
+                    long sequenceNumber = buffer.getLong();
+                    long sessionId = buffer.getLong();
+                    byte kind = buffer.get();
+                    int pageId = buffer.getInt();
+                    if (sequenceNumber > lastSequenceNumber) {
+                        apply(sessionId, kind, pageId);
+                        lastSequenceNumber = sequenceNumber;
+                    }
+                    position += RECORD_SIZE;
+                }
+            }
+
+            if (position < size) {
+                LOGGER.warning("Discarding " + (size - position) + " bytes of incomplete journal records");
+                channel.truncate(position);
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file and moves it in place of the previous one.
+     */
+    private void writeSnapshot(long sequenceNumber, HashMap<Long, SaveGame> saves) throws IOException {
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        Path temporaryPath = directory.resolve(SNAPSHOT_FILE + ".tmp");
+
+        try (FileOutputStream fileOutput = new FileOutputStream(temporaryPath.toFile());
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput, 1 << 16))) {
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeLong(sequenceNumber);
+
+            output.writeInt(saves.size());
+            for (Map.Entry<Long, SaveGame> entry : saves.entrySet()) {
+                SaveGame save = entry.getValue();
+                output.writeLong(entry.getKey());
+                output.writeInt(save.pageId);
+                output.writeInt(save.history.length);
+                for (int pageId : save.history) output.writeInt(pageId);
+            }
+
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    private void readSnapshot() throws IOException {
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshotPath)) return;
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotPath), 1 << 16))) {
+            if (input.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a save game snapshot");
+            int version = input.readInt();
+            if (version != SNAPSHOT_VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+            lastSequenceNumber = input.readLong();
+            int sessionCount = input.readInt();
+            for (int i = 0; i < sessionCount; i++) {
+                long sessionId = input.readLong();
+                int pageId = input.readInt();
+                int[] history = new int[input.readInt()];
+                for (int j = 0; j < history.length; j++) history[j] = input.readInt();
+
+                // Replaying the history as visits rebuilds the ring, trimmed to the current history length
+                SessionState state = new SessionState(historyLength);
+                for (int j = Math.max(0, history.length - historyLength); j < history.length; j++) {
+                    state.visit(history[j], historyLength);
+                }
+                state.visit(pageId, historyLength);
+                sessions.put(sessionId, state);
+            }
+        }
+    }
+
+    /**
+     * @return numbers of the journal files in the directory, in ascending order
+     */
+    private long[] listJournals() throws IOException {
+        ArrayList<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length(),
+                            name.length() - JOURNAL_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    // Not one of ours
+                }
+            }
+        }
+
+        long[] sorted = numbers.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private Path journalPath(long number) {
+        return directory.resolve(String.format("%s%010d%s", JOURNAL_PREFIX, number, JOURNAL_SUFFIX));
+    }
+
+    private FileChannel openJournal(long number) throws IOException {
+        FileChannel channel = FileChannel.open(journalPath(number), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        syncDirectory();
+        return channel;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Makes a new or renamed file in the journal's directory durable. Not every platform can sync a directory, in
+     * which case it is left to the file system.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // Directories can't be opened for syncing on Windows
+        }
+    }
+}
@@ -0,0 +1,242 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.logging.Logger;
+
+/**
+ * Brings the database schema up to date by running versioned migrations on top of the schema in gamebook.sql. Applied
+ * versions are recorded in the schema_migrations table, so every migration runs once per database. A named lock keeps
+ * two programs that start at the same time from migrating concurrently.
+ * <p>
+ * MySQL commits DDL statements implicitly, so a migration can't be rolled back. Each migration is therefore either a
+ * single ALTER TABLE or made of statements that can safely run again if the migration is interrupted. Migrations
+ * must never be edited or reordered once released; add a new one instead.
+ */
+public class SchemaMigrator {
+    private static final String LOCK_NAME = "gamebook.schema_migrations";
+    private static final int LOCK_TIMEOUT_SECONDS = 30;
+    private static final Logger LOGGER = Logger.getLogger(SchemaMigrator.class.getName());
+
+    private static final String CREATE_MIGRATIONS_TABLE =
+            "CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                    "version int unsigned NOT NULL, " +
+                    "description varchar(255) NOT NULL, " +
+                    "applied_at timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                    "PRIMARY KEY (version))";
+    private static final String SELECT_VERSIONS = "SELECT version FROM schema_migrations";
+    private static final String INSERT_VERSION = "INSERT INTO schema_migrations (version, description) VALUES (?, ?)";
+    private static final String GET_LOCK = "SELECT GET_LOCK(?, ?)";
+    private static final String RELEASE_LOCK = "SELECT RELEASE_LOCK(?)";
+
+    // Every insert and update stamps the row with the next revision from revision_counter, and every delete leaves a
+    // tombstone with its own revision, so that the Editor can fetch only the rows that changed since the last revision
+    // it has seen. The counter row stays locked until the writing transaction commits, so revisions become visible in
+    // increasing order.
+    private static final String BUMP_REVISION = "UPDATE revision_counter SET revision = revision + 1 WHERE id = 1; ";
+    private static final String STAMP_REVISION =
+            "SET NEW.revision = (SELECT revision FROM revision_counter WHERE id = 1); ";
+
+    private static final Migration[] MIGRATIONS = {
+            new Migration(1, "Add revision column to pages",
+                    "ALTER TABLE pages ADD COLUMN revision bigint unsigned NOT NULL DEFAULT '0', " +
+                            "ADD KEY pages_revision (revision)"),
+            new Migration(2, "Add revision column to links",
+                    "ALTER TABLE links ADD COLUMN revision bigint unsigned NOT NULL DEFAULT '0', " +
+                            "ADD KEY links_revision (revision)"),
+            new Migration(3, "Add revision counter, tombstones and change tracking triggers",
+                    "CREATE TABLE IF NOT EXISTS revision_counter (" +
+                            "id tinyint unsigned NOT NULL, " +
+                            "revision bigint unsigned NOT NULL, " +
+                            "PRIMARY KEY (id))",
+                    "INSERT IGNORE INTO revision_counter VALUES (1, 0)",
+                    "CREATE TABLE IF NOT EXISTS tombstones (" +
+                            "revision bigint unsigned NOT NULL, " +
+                            "table_name enum('pages','links') NOT NULL, " +
+                            "row_id int unsigned NOT NULL, " +
+                            "PRIMARY KEY (revision))",
+                    "DROP TRIGGER IF EXISTS pages_before_insert",
+                    "CREATE TRIGGER pages_before_insert BEFORE INSERT ON pages FOR EACH ROW BEGIN " +
+                            BUMP_REVISION + STAMP_REVISION + "END",
+                    "DROP TRIGGER IF EXISTS pages_before_update",
+                    "CREATE TRIGGER pages_before_update BEFORE UPDATE ON pages FOR EACH ROW BEGIN " +
+                            BUMP_REVISION + STAMP_REVISION + "END",
+                    "DROP TRIGGER IF EXISTS pages_after_delete",
+                    "CREATE TRIGGER pages_after_delete AFTER DELETE ON pages FOR EACH ROW BEGIN " +
+                            BUMP_REVISION +
+                            "INSERT INTO tombstones (revision, table_name, row_id) " +
+                            "SELECT revision, 'pages', OLD.page_id FROM revision_counter WHERE id = 1; END",
+                    "DROP TRIGGER IF EXISTS links_before_insert",
+                    "CREATE TRIGGER links_before_insert BEFORE INSERT ON links FOR EACH ROW BEGIN " +
+                            BUMP_REVISION + STAMP_REVISION + "END",
+                    "DROP TRIGGER IF EXISTS links_before_update",
+                    "CREATE TRIGGER links_before_update BEFORE UPDATE ON links FOR EACH ROW BEGIN " +
+                            BUMP_REVISION + STAMP_REVISION + "END",
+                    "DROP TRIGGER IF EXISTS links_after_delete",
+                    "CREATE TRIGGER links_after_delete AFTER DELETE ON links FOR EACH ROW BEGIN " +
+                            BUMP_REVISION +
+                            "INSERT INTO tombstones (revision, table_name, row_id) " +
+                            "SELECT revision, 'links', OLD.link_id FROM revision_counter WHERE id = 1; END"),
+            // getLinksFromPage and the page joins look links up by from_page_id in link_id order, and deleting a page
+            // looks up the links that point to it
+            new Migration(4, "Index links by source page and by target page",
+                    "ALTER TABLE links ADD KEY links_from_page (from_page_id, link_id), " +
+                            "ADD KEY links_to_page (to_page_id)"),
+            // A link belongs to the page it is on, so it goes away with the page. A link to a deleted page is kept
+            // without a target, so that the author can point it somewhere else. Foreign key actions don't fire
+            // triggers, so DatabaseModel.deletePage() deletes and unlinks the links itself to record the changes.
+            new Migration(5, "Add foreign keys from links to pages",
+                    "DELETE FROM links WHERE from_page_id IS NULL " +
+                            "OR from_page_id NOT IN (SELECT page_id FROM pages)",
+                    "UPDATE links SET to_page_id = NULL WHERE to_page_id NOT IN (SELECT page_id FROM pages)",
+                    "ALTER TABLE links " +
+                            "ADD CONSTRAINT links_from_page_fk FOREIGN KEY (from_page_id) REFERENCES pages (page_id) " +
+                            "ON DELETE CASCADE, " +
+                            "ADD CONSTRAINT links_to_page_fk FOREIGN KEY (to_page_id) REFERENCES pages (page_id) " +
+                            "ON DELETE SET NULL"),
+            // Each change is also logged with the page whose cached copy it affects, for ChangeLogPoller. Links are
+            // logged with the page they are on, which a tombstone doesn't record. The log entry takes the revision of
+            // the change as its sequence number, so entries become visible in order and without gaps. Inserts are
+            // logged after the row has been written, once an inserted page has its id.
+            new Migration(6, "Add change log table and triggers",
+                    "CREATE TABLE IF NOT EXISTS changes (" +
+                            "seq bigint unsigned NOT NULL, " +
+                            "table_name enum('pages','links') NOT NULL, " +
+                            "row_id int unsigned NOT NULL, " +
+                            "page_id int unsigned DEFAULT NULL, " +
+                            "changed_at timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (seq), " +
+                            "KEY changes_changed_at (changed_at))",
+                    "DROP TRIGGER IF EXISTS pages_after_insert",
+                    "CREATE TRIGGER pages_after_insert AFTER INSERT ON pages FOR EACH ROW " +
+                            "INSERT INTO changes (seq, table_name, row_id, page_id) " +
+                            "VALUES (NEW.revision, 'pages', NEW.page_id, NEW.page_id)",
+                    "DROP TRIGGER IF EXISTS pages_after_update",
+                    "CREATE TRIGGER pages_after_update AFTER UPDATE ON pages FOR EACH ROW " +
+                            "INSERT INTO changes (seq, table_name, row_id, page_id) " +
+                            "VALUES (NEW.revision, 'pages', NEW.page_id, NEW.page_id)",
+                    "DROP TRIGGER IF EXISTS pages_after_delete",
+                    "CREATE TRIGGER pages_after_delete AFTER DELETE ON pages FOR EACH ROW BEGIN " +
+                            BUMP_REVISION +
+                            "INSERT INTO tombstones (revision, table_name, row_id) " +
+                            "SELECT revision, 'pages', OLD.page_id FROM revision_counter WHERE id = 1; " +
+                            "INSERT INTO changes (seq, table_name, row_id, page_id) " +
+                            "SELECT revision, 'pages', OLD.page_id, OLD.page_id FROM revision_counter WHERE id = 1; " +
+                            "END",
+                    "DROP TRIGGER IF EXISTS links_after_insert",
+                    "CREATE TRIGGER links_after_insert AFTER INSERT ON links FOR EACH ROW " +
+                            "INSERT INTO changes (seq, table_name, row_id, page_id) " +
+                            "VALUES (NEW.revision, 'links', NEW.link_id, NEW.from_page_id)",
+                    "DROP TRIGGER IF EXISTS links_after_update",
+                    "CREATE TRIGGER links_after_update AFTER UPDATE ON links FOR EACH ROW " +
+                            "INSERT INTO changes (seq, table_name, row_id, page_id) " +
+                            "VALUES (NEW.revision, 'links', NEW.link_id, NEW.from_page_id)",
+                    "DROP TRIGGER IF EXISTS links_after_delete",
+                    "CREATE TRIGGER links_after_delete AFTER DELETE ON links FOR EACH ROW BEGIN " +
+                            BUMP_REVISION +
+                            "INSERT INTO tombstones (revision, table_name, row_id) " +
+                            "SELECT revision, 'links', OLD.link_id FROM revision_counter WHERE id = 1; " +
+                            "INSERT INTO changes (seq, table_name, row_id, page_id) " +
+                            "SELECT revision, 'links', OLD.link_id, OLD.from_page_id " +
+                            "FROM revision_counter WHERE id = 1; " +
+                            "END")
+    };
+
+    /**
+     * A numbered change to the schema.
+     */
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+
+    /**
+     * Runs all migrations that haven't been applied to the database yet, in order of version.
+     * @param connection connection to the database, with auto-commit enabled
+     * @return number of migrations that were applied
+     * @throws SQLException if a migration fails; migrations before it stay applied
+     */
+    public static int migrate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_MIGRATIONS_TABLE);
+        }
+
+        lock(connection);
+        try {
+            HashSet<Integer> appliedVersions = new HashSet<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(SELECT_VERSIONS)) {
+                while (resultSet.next()) appliedVersions.add(resultSet.getInt(1));
+            }
+
+            int appliedCount = 0;
+            for (Migration migration : MIGRATIONS) {
+                if (appliedVersions.contains(migration.version)) continue;
+
+                apply(connection, migration);
+                appliedCount++;
+            }
+            return appliedCount;
+        } finally {
+            unlock(connection);
+        }
+    }
+
+    /**
+     * @return version of the newest migration
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS[MIGRATIONS.length - 1].version;
+    }
+
+    /**
+     * Runs the statements of a migration and records its version.
+     */
+    private static void apply(Connection connection, Migration migration) throws SQLException {
+        LOGGER.info("Applying schema migration " + migration.version + ": " + migration.description);
+
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : migration.statements) statement.execute(sql);
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_VERSION)) {
+            statement.setInt(1, migration.version);
+            statement.setString(2, migration.description);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Takes the named migration lock, waiting for another program to finish migrating if necessary.
+     */
+    private static void lock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(GET_LOCK)) {
+            statement.setString(1, LOCK_NAME);
+            statement.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for the schema migration lock");
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the named migration lock.
+     */
+    private static void unlock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(RELEASE_LOCK)) {
+            statement.setString(1, LOCK_NAME);
+            statement.executeQuery().close();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over page bodies and link texts, for searching the Gamebook Editor's pages. Words are
+ * split on anything that isn't a letter or digit and lowercased by Swedish rules; å, ä and ö are kept as letters of
+ * their own rather than folded into a, a and o, since they make different words in Swedish. Every word in a query
+ * has to match, either exactly or as the start of a longer word, so "spring" finds "springer" while the user is
+ * still typing. Results are ranked by BM25, with exact matches weighing more than prefix matches.
+ * <p>
+ * The index is updated one page at a time as pages are edited. It isn't thread-safe: after build() it must only be
+ * used from one thread, which in the editor is the event dispatch thread.
+ */
+public class SearchIndex {
+    private static final Locale SWEDISH = Locale.forLanguageTag("sv-SE");
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double PREFIX_WEIGHT = 0.5;
+    private static final int[] NO_TERMS = new int[0];
+
+    // Terms in sorted order, so that all terms with a given prefix are found in one range
+    private final TreeMap<String, Integer> termIds;
+    private final ArrayList<Postings> postings;
+    private final HashMap<Integer, Integer> docOf;
+    private int[] pageIds;
+    private int[][] docTerms;
+    private int docCount;
+    private int liveDocCount;
+    private long totalLength;
+
+    // Scratch space of search(), kept between searches so that they don't allocate and clear it every time
+    private float[] scores;
+    private int[] matchedWords;
+    private float[] norms;
+
+    /**
+     * Pages that contain a term, in order of document number, with how many times they contain it.
+     */
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int doc, int frequency) {
+            int position = Arrays.binarySearch(docs, 0, size, doc);
+            if (position >= 0) {
+                frequencies[position] += frequency;
+                return;
+            }
+
+            position = -position - 1;
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            System.arraycopy(docs, position, docs, position + 1, size - position);
+            System.arraycopy(frequencies, position, frequencies, position + 1, size - position);
+            docs[position] = doc;
+            frequencies[position] = frequency;
+            size++;
+        }
+
+        void remove(int doc) {
+            int position = Arrays.binarySearch(docs, 0, size, doc);
+            if (position < 0) return;
+
+            System.arraycopy(docs, position + 1, docs, position, size - position - 1);
+            System.arraycopy(frequencies, position + 1, frequencies, position, size - position - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Constructs an empty index.
+     */
+    public SearchIndex() {
+        termIds = new TreeMap<>();
+        postings = new ArrayList<>();
+        docOf = new HashMap<>();
+        pageIds = new int[1024];
+        docTerms = new int[1024][];
+    }
+
+    /**
+     * Builds an index of every page and link in a store.
+     * @param store store to read the book from
+     * @return the index
+     */
+    public static SearchIndex build(GamebookStore store) {
+        SearchIndex index = new SearchIndex();
+
+        // Links are streamed after the pages, so their words are collected first and the pages indexed at the end
+        store.streamAllPages(page -> index.docTerms[index.newDoc(page.getId())] = index.toTermIds(page.getBody()));
+        store.streamAllLinks(link -> {
+            Integer doc = index.docOf.get(link.getFromPageId());
+            if (doc == null) return;
+
+            int[] words = index.toTermIds(link.getText());
+            int[] terms = index.docTerms[doc];
+            int[] merged = Arrays.copyOf(terms, terms.length + words.length);
+            System.arraycopy(words, 0, merged, terms.length, words.length);
+            index.docTerms[doc] = merged;
+        });
+
+        for (int doc = 0; doc < index.docCount; doc++) index.addPostings(doc);
+        return index;
+    }
+
+    /**
+     * Splits text into lowercase words.
+     * @param text text to split, or null
+     * @return the words in order
+     */
+    public static ArrayList<String> tokenize(String text) {
+        ArrayList<String> words = new ArrayList<>();
+        if (text == null) return words;
+
+        // Composed form, so that an "ä" typed as "a" and a combining diaeresis is one letter
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean isWordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (isWordChar && start == -1) {
+                start = i;
+            } else if (!isWordChar && start != -1) {
+                words.add(normalized.substring(start, i).toLowerCase(SWEDISH));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Indexes a page, replacing what was indexed for it before.
+     * @param page page with its full body and all of its links
+     */
+    public void updatePage(Page page) {
+        Integer existing = docOf.get(page.getId());
+        int doc;
+        if (existing != null) {
+            doc = existing;
+            removePostings(doc);
+        } else {
+            doc = newDoc(page.getId());
+        }
+
+        int[] terms = toTermIds(page.getBody());
+        if (page.getLinks() != null) {
+            for (Link link : page.getLinks()) {
+                int[] words = toTermIds(link.getText());
+                int length = terms.length;
+                terms = Arrays.copyOf(terms, length + words.length);
+                System.arraycopy(words, 0, terms, length, words.length);
+            }
+        }
+        docTerms[doc] = terms;
+        addPostings(doc);
+    }
+
+    /**
+     * Removes a page from the index.
+     * @param pageId id of the deleted page
+     */
+    public void removePage(int pageId) {
+        Integer doc = docOf.remove(pageId);
+        if (doc == null) return;
+
+        removePostings(doc);
+        docTerms[doc] = null;
+        pageIds[doc] = -1;
+        liveDocCount--;
+    }
+
+    /**
+     * @return number of indexed pages
+     */
+    public int getPageCount() {
+        return liveDocCount;
+    }
+
+    /**
+     * Finds the pages that contain every word of a query, or a word that starts with it.
+     * @param query words to search for
+     * @return ids of the matching pages, best match first; empty if the query has no words
+     */
+    public int[] search(String query) {
+        ArrayList<String> words = tokenize(query);
+        if (words.isEmpty() || liveDocCount == 0) return new int[0];
+
+        if (scores == null || scores.length < docCount) {
+            scores = new float[pageIds.length];
+            matchedWords = new int[pageIds.length];
+            norms = null;
+        }
+        if (norms == null) {
+            // Depends on the average length, which every update changes, so it is recomputed lazily
+            norms = new float[pageIds.length];
+            double averageLength = (double) totalLength / liveDocCount;
+            for (int doc = 0; doc < docCount; doc++) {
+                if (docTerms[doc] == null) continue;
+                norms[doc] = (float) (K1 * (1 - B + B * docTerms[doc].length / averageLength));
+            }
+        }
+
+        for (int word = 0; word < words.size(); word++) {
+            String prefix = words.get(word);
+            for (Map.Entry<String, Integer> term : termIds.subMap(prefix, true, prefix + Character.MAX_VALUE, true)
+                    .entrySet()) {
+                Postings list = postings.get(term.getValue());
+                if (list.size == 0) continue;
+
+                double weight = term.getKey().length() == prefix.length() ? 1 : PREFIX_WEIGHT;
+                float factor = (float) (weight * Math.log(1 + (liveDocCount - list.size + 0.5) / (list.size + 0.5))
+                        * (K1 + 1));
+                for (int i = 0; i < list.size; i++) {
+                    int doc = list.docs[i];
+                    // Every earlier word has to have matched, and each word is only counted once per page
+                    if (matchedWords[doc] < word) continue;
+                    if (matchedWords[doc] == word) matchedWords[doc]++;
+
+                    int frequency = list.frequencies[i];
+                    scores[doc] += factor * frequency / (frequency + norms[doc]);
+                }
+            }
+        }
+
+        // Collect the matches in order of document number (which follows page id), resetting the scratch arrays
+        int count = 0;
+        int[] docs = new int[docCount];
+        int[] keys = new int[docCount];
+        for (int doc = 0; doc < docCount; doc++) {
+            if (matchedWords[doc] == words.size()) {
+                docs[count] = doc;
+                // Scores are positive, so their bits sort like them; subtracting makes the best come first
+                keys[count] = Integer.MAX_VALUE - Float.floatToIntBits(scores[doc]);
+                count++;
+            }
+            matchedWords[doc] = 0;
+            scores[doc] = 0;
+        }
+        radixSort(keys, docs, count);
+
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) result[i] = pageIds[docs[i]];
+        return result;
+    }
+
+    /**
+     * Stable least-significant-digit radix sort of non-negative keys, moving values along with them. Sorting a
+     * hundred thousand matches this way is several times faster than a comparison sort.
+     */
+    private static void radixSort(int[] keys, int[] values, int count) {
+        int[] keyBuffer = new int[count];
+        int[] valueBuffer = new int[count];
+        int[] counts = new int[257];
+
+        for (int shift = 0; shift < 32; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) counts[(keys[i] >>> shift & 0xFF) + 1]++;
+            for (int i = 0; i < 256; i++) counts[i + 1] += counts[i];
+            for (int i = 0; i < count; i++) {
+                int slot = counts[keys[i] >>> shift & 0xFF]++;
+                keyBuffer[slot] = keys[i];
+                valueBuffer[slot] = values[i];
+            }
+            System.arraycopy(keyBuffer, 0, keys, 0, count);
+            System.arraycopy(valueBuffer, 0, values, 0, count);
+        }
+    }
+
+    /**
+     * Assigns the next document number to a page.
+     */
+    private int newDoc(int pageId) {
+        if (docCount == pageIds.length) {
+            pageIds = Arrays.copyOf(pageIds, docCount * 2);
+            docTerms = Arrays.copyOf(docTerms, docCount * 2);
+        }
+        pageIds[docCount] = pageId;
+        docTerms[docCount] = NO_TERMS;
+        docOf.put(pageId, docCount);
+        liveDocCount++;
+        return docCount++;
+    }
+
+    /**
+     * Splits text into words and looks up their term ids, adding new terms to the vocabulary.
+     */
+    private int[] toTermIds(String text) {
+        ArrayList<String> words = tokenize(text);
+        int[] ids = new int[words.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = termIds.computeIfAbsent(words.get(i), word -> {
+                postings.add(new Postings());
+                return postings.size() - 1;
+            });
+        }
+        return ids;
+    }
+
+    /**
+     * Adds a document's terms to the postings.
+     */
+    private void addPostings(int doc) {
+        int[] terms = docTerms[doc];
+        for (int term : terms) postings.get(term).add(doc, 1);
+        totalLength += terms.length;
+        norms = null;
+    }
+
+    /**
+     * Removes a document's terms from the postings.
+     */
+    private void removePostings(int doc) {
+        int[] terms = docTerms[doc];
+        for (int term : terms) postings.get(term).remove(doc);
+        totalLength -= terms.length;
+        norms = null;
+    }
+}
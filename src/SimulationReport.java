@@ -0,0 +1,194 @@
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Result of PlaythroughSimulator: how often each ending was reached, how long the playthroughs that reached an ending
+ * were, and how often each page was visited.
+ */
+public class SimulationReport {
+    private final BookGraph graph;
+    private final long playthroughs;
+    private final long[] visits;
+    private final long[] lengths;
+    private final long deadEnds;
+    private final long hopLimited;
+    private final int hopLimit;
+    private final long elapsedNanos;
+
+    /**
+     * Constructs a report. Used by PlaythroughSimulator.
+     */
+    SimulationReport(BookGraph graph, long playthroughs, long[] visits, long[] lengths, long deadEnds,
+                     long hopLimited, int hopLimit, long elapsedNanos) {
+        this.graph = graph;
+        this.playthroughs = playthroughs;
+        this.visits = visits;
+        this.lengths = lengths;
+        this.deadEnds = deadEnds;
+        this.hopLimited = hopLimited;
+        this.hopLimit = hopLimit;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return number of playthroughs
+     */
+    public long getPlaythroughs() {
+        return playthroughs;
+    }
+
+    /**
+     * @return number of playthroughs that reached an ending
+     */
+    public long getEndedCount() {
+        return playthroughs - deadEnds - hopLimited;
+    }
+
+    /**
+     * @return number of playthroughs that got stuck on a page without links that isn't an ending
+     */
+    public long getDeadEndCount() {
+        return deadEnds;
+    }
+
+    /**
+     * @return number of playthroughs that were stopped by the hop limit
+     */
+    public long getHopLimitedCount() {
+        return hopLimited;
+    }
+
+    /**
+     * @param pageId id of an ending
+     * @return share of the playthroughs that reached the ending
+     */
+    public double getEndingProbability(int pageId) {
+        int index = graph.indexOf(pageId);
+        if (index == -1 || !graph.isEnding(index) || playthroughs == 0) return 0;
+        // A playthrough stops at the first ending it enters, so visits to an ending are playthroughs that reached it
+        return (double) visits[index] / playthroughs;
+    }
+
+    /**
+     * @return ids of the endings that were reached, most likely first
+     */
+    public int[] getReachedEndingPageIds() {
+        return sortedByVisits(IntStream.range(0, visits.length).filter(i -> graph.isEnding(i) && visits[i] > 0),
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param pageId id of a page
+     * @return number of times the page was entered, including the start of every playthrough for page 1
+     */
+    public long getVisits(int pageId) {
+        int index = graph.indexOf(pageId);
+        return index == -1 ? 0 : visits[index];
+    }
+
+    /**
+     * @param count maximum number of pages to return
+     * @return ids of the most visited pages, most visited first
+     */
+    public int[] getMostVisitedPageIds(int count) {
+        return sortedByVisits(IntStream.range(0, visits.length).filter(i -> visits[i] > 0), count);
+    }
+
+    /**
+     * @return number of playthroughs that reached an ending after following each number of links, indexed by the
+     *         number of links; not copied, so must not be modified
+     */
+    public long[] getLengthHistogram() {
+        return lengths;
+    }
+
+    /**
+     * @return average number of links followed in playthroughs that reached an ending
+     */
+    public double getMeanLength() {
+        long ended = getEndedCount();
+        if (ended == 0) return Double.NaN;
+
+        double sum = 0;
+        for (int length = 0; length < lengths.length; length++) sum += (double) length * lengths[length];
+        return sum / ended;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return number of links followed that the given share of the playthroughs that reached an ending didn't exceed
+     */
+    public int getLengthPercentile(double percentile) {
+        long ended = getEndedCount();
+        if (ended == 0) return -1;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * ended));
+        long seen = 0;
+        for (int length = 0; length < lengths.length; length++) {
+            seen += lengths[length];
+            if (seen >= rank) return length;
+        }
+        return lengths.length - 1;
+    }
+
+    /**
+     * @return playthroughs per second of wall-clock time
+     */
+    public double getPlaythroughsPerSecond() {
+        return elapsedNanos == 0 ? 0 : playthroughs * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Formats the report as text for people to read.
+     * @param maxListed maximum number of endings and pages to list
+     * @return the report
+     */
+    public String format(int maxListed) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%,d playthroughs in %,d ms (%,.0f per second)%n", playthroughs,
+                elapsedNanos / 1_000_000, getPlaythroughsPerSecond()));
+        text.append(String.format("Reached an ending: %,d (%.2f %%)%n", getEndedCount(), percentOf(getEndedCount())));
+        text.append(String.format("Stuck on a page without links: %,d (%.2f %%)%n", deadEnds, percentOf(deadEnds)));
+        text.append(String.format("Stopped after %,d links: %,d (%.2f %%)%n", hopLimit, hopLimited,
+                percentOf(hopLimited)));
+        text.append(System.lineSeparator());
+
+        if (getEndedCount() > 0) {
+            text.append(String.format("Links followed to an ending: mean %.1f, median %d, p90 %d, p99 %d, max %d%n",
+                    getMeanLength(), getLengthPercentile(50), getLengthPercentile(90), getLengthPercentile(99),
+                    getLengthPercentile(100)));
+        }
+
+        int[] endings = getReachedEndingPageIds();
+        text.append(String.format("Endings reached: %,d%n", endings.length));
+        for (int i = 0; i < Math.min(maxListed, endings.length); i++) {
+            text.append(String.format("  Page %d: %.3f %%%n", endings[i], getEndingProbability(endings[i]) * 100));
+        }
+        if (endings.length > maxListed) text.append("  ...").append(System.lineSeparator());
+
+        text.append("Most visited pages:").append(System.lineSeparator());
+        for (int pageId : getMostVisitedPageIds(maxListed)) {
+            text.append(String.format("  Page %d: %,d visits%n", pageId, getVisits(pageId)));
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * @return a count as a percentage of the playthroughs
+     */
+    private double percentOf(long count) {
+        return playthroughs == 0 ? 0 : count * 100.0 / playthroughs;
+    }
+
+    /**
+     * @return ids of the first pages in order of descending visits
+     */
+    private int[] sortedByVisits(IntStream indices, int count) {
+        return indices.boxed()
+                .sorted(Comparator.comparingLong((Integer index) -> visits[index]).reversed())
+                .limit(count)
+                .mapToInt(graph::getPageId)
+                .toArray();
+    }
+}
@@ -0,0 +1,82 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of prepared statements belonging to one database connection. Each SQL string is prepared the first time
+ * it is requested and the same PreparedStatement is handed out on every later request, so that the server only has
+ * to parse it once per connection.
+ */
+public class StatementRegistry {
+    private static final Logger LOGGER = Logger.getLogger(StatementRegistry.class.getName());
+
+    private final Connection connection;
+    private final HashMap<String, PreparedStatement> statements;
+    private String lastSql;
+
+    /**
+     * Constructs an empty registry for a connection.
+     * @param connection connection on which the statements are prepared
+     */
+    public StatementRegistry(Connection connection) {
+        this.connection = connection;
+        statements = new HashMap<>();
+    }
+
+    /**
+     * Returns the prepared statement for an SQL string, preparing it if this is the first request. Parameters and
+     * batched commands left by a previous user of the statement are cleared.
+     * @param sql SQL with ? placeholders for all parameters
+     * @return prepared statement that is ready for binding parameters
+     * @throws SQLException if the statement couldn't be prepared
+     */
+    public synchronized PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        lastSql = sql;
+
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Returns the SQL of the statement that was requested last and forgets it, so that the next caller only sees
+     * its own statements.
+     * @return SQL of the statement that was requested last, or null if none has been requested since the last call
+     */
+    public synchronized String takeLastSql() {
+        String sql = lastSql;
+        lastSql = null;
+        return sql;
+    }
+
+    /**
+     * @return number of statements that have been prepared on the connection
+     */
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all prepared statements in the registry. Doesn't close the connection itself.
+     */
+    public synchronized void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                LOGGER.log(Level.WARNING, "Couldn't close a prepared statement", ex);
+            }
+        }
+        statements.clear();
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ * Strongly connected components of a BookGraph, found with Tarjan's algorithm. The depth-first search keeps its own
+ * stack instead of recursing, so long chains of pages can't overflow the thread's stack. Components are numbered in
+ * reverse topological order: every link that leaves a component points to a component with a lower number.
+ */
+public class StronglyConnectedComponents {
+    private final int[] componentOf;
+    private final int[] sizes;
+
+    private StronglyConnectedComponents(int[] componentOf, int[] sizes) {
+        this.componentOf = componentOf;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Finds the components of a graph. Dangling links are ignored.
+     * @param graph graph to search
+     * @return components of the graph
+     */
+    public static StronglyConnectedComponents of(BookGraph graph) {
+        return of(graph, false);
+    }
+
+    /**
+     * Finds the components of a graph. Dangling links are ignored.
+     * @param graph graph to search
+     * @param stopAtEndings whether to ignore the links on endings too, as a playthrough stops at the first ending
+     * @return components of the graph
+     */
+    public static StronglyConnectedComponents of(BookGraph graph, boolean stopAtEndings) {
+        int pageCount = graph.getPageCount();
+        int[] order = new int[pageCount];
+        int[] low = new int[pageCount];
+        int[] componentOf = new int[pageCount];
+        Arrays.fill(order, -1);
+
+        int[] componentStack = new int[pageCount];
+        boolean[] onStack = new boolean[pageCount];
+        int componentStackSize = 0;
+
+        int[] callStack = new int[pageCount];
+        int[] nextLink = new int[pageCount];
+        int callStackSize = 0;
+
+        int visited = 0;
+        int componentCount = 0;
+        int[] sizes = new int[16];
+
+        for (int root = 0; root < pageCount; root++) {
+            if (order[root] != -1) continue;
+
+            order[root] = low[root] = visited++;
+            componentStack[componentStackSize++] = root;
+            onStack[root] = true;
+            callStack[callStackSize] = root;
+            nextLink[callStackSize] = graph.getFirstLink(root);
+            callStackSize++;
+
+            while (callStackSize > 0) {
+                int page = callStack[callStackSize - 1];
+                int link = nextLink[callStackSize - 1];
+
+                if (link < graph.getEndLink(page) && !(stopAtEndings && graph.isEnding(page))) {
+                    nextLink[callStackSize - 1]++;
+                    int target = graph.getTarget(link);
+                    if (target == -1) continue;
+
+                    if (order[target] == -1) {
+                        // Descend into the target, like a recursive call would
+                        order[target] = low[target] = visited++;
+                        componentStack[componentStackSize++] = target;
+                        onStack[target] = true;
+                        callStack[callStackSize] = target;
+                        nextLink[callStackSize] = graph.getFirstLink(target);
+                        callStackSize++;
+                    } else if (onStack[target]) {
+                        low[page] = Math.min(low[page], order[target]);
+                    }
+                    continue;
+                }
+
+                // All links of the page are done, so return to the page that descended into it
+                callStackSize--;
+                if (low[page] == order[page]) {
+                    if (componentCount == sizes.length) sizes = Arrays.copyOf(sizes, componentCount * 2);
+
+                    int member;
+                    do {
+                        member = componentStack[--componentStackSize];
+                        onStack[member] = false;
+                        componentOf[member] = componentCount;
+                        sizes[componentCount]++;
+                    } while (member != page);
+                    componentCount++;
+                }
+                if (callStackSize > 0) {
+                    int parent = callStack[callStackSize - 1];
+                    low[parent] = Math.min(low[parent], low[page]);
+                }
+            }
+        }
+
+        return new StronglyConnectedComponents(componentOf, Arrays.copyOf(sizes, componentCount));
+    }
+
+    /**
+     * @return number of components
+     */
+    public int getComponentCount() {
+        return sizes.length;
+    }
+
+    /**
+     * @param index index of a page in the graph
+     * @return number of the component that the page belongs to
+     */
+    public int getComponent(int index) {
+        return componentOf[index];
+    }
+
+    /**
+     * @param component number of a component
+     * @return number of pages in the component
+     */
+    public int getSize(int component) {
+        return sizes[component];
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.SplittableRandom;
+
+/**
+ * Generates large random gamebooks for measuring how the program scales. Pages are numbered from 1, most links
+ * point a short distance forward (like in a real gamebook), some point anywhere, and about one page in twenty is an
+ * ending without links.
+ */
+public class SyntheticBookGenerator {
+    private static final String[] WORDS = {
+            "du", "ankan", "vattnet", "springer", "mot", "skogen", "och", "ser", "en", "svan", "över", "staketet",
+            "hundarna", "flyger", "bort", "tyst", "natten", "kommer", "hem", "till", "dammen", "där", "solen", "skiner"
+    };
+
+    /**
+     * Generates a book.
+     * @param pageCount number of pages
+     * @param averageLinks average number of links on pages that aren't endings
+     * @param averageBodyWords average number of words in a page body
+     * @param seed random seed, so that the same arguments always generate the same book
+     * @return snapshot of the generated book
+     */
+    public static BookSnapshot generate(int pageCount, int averageLinks, int averageBodyWords, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        BookSnapshot.Builder builder = new BookSnapshot.Builder();
+        StringBuilder body = new StringBuilder();
+        int linkId = 1;
+
+        for (int pageId = 1; pageId <= pageCount; pageId++) {
+            boolean isEnding = pageId == pageCount || random.nextInt(20) == 0;
+
+            body.setLength(0);
+            int words = 1 + random.nextInt(2 * averageBodyWords);
+            for (int i = 0; i < words; i++) {
+                if (i > 0) body.append(' ');
+                body.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            builder.addPage(pageId, body.toString(), isEnding);
+
+            if (isEnding) continue;
+
+            int links = 1 + random.nextInt(2 * averageLinks - 1);
+            for (int i = 0; i < links; i++) {
+                int toPageId = random.nextInt(10) == 0
+                        ? 1 + random.nextInt(pageCount)
+                        : Math.min(pageCount, pageId + 1 + random.nextInt(20));
+                builder.addLink(linkId++, pageId, toPageId, "Val " + (i + 1));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a book and reports how long it took and how much memory its snapshot occupies.
+     * @param args optional number of pages (default 1,000,000)
+     */
+    public static void main(String[] args) {
+        int pageCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long start = System.nanoTime();
+        BookSnapshot snapshot = generate(pageCount, 3, 40, 42);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("Generated %,d pages and %,d links in %,d ms (~%,d KB in memory)%n",
+                snapshot.getPageCount(), snapshot.getLinkCount(), elapsedMillis,
+                snapshot.estimateSizeBytes() / 1024);
+    }
+}
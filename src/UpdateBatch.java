@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A set of pending updates to pages and links, keyed by id so that repeated updates to the same attribute of the same
+ * page or link coalesce into one. Used by WriteBehindStore to collect updates that are written in a single batch.
+ */
+public class UpdateBatch {
+    private final LinkedHashMap<Integer, String> pageBodies;
+    private final LinkedHashMap<Integer, Boolean> pageEndings;
+    private final LinkedHashMap<Integer, String> linkTexts;
+    private final LinkedHashMap<Integer, Integer> linkTargets;
+    private final LinkedHashMap<Integer, Integer> linkFromPageIds;
+
+    /**
+     * Constructs an empty batch.
+     */
+    public UpdateBatch() {
+        pageBodies = new LinkedHashMap<>();
+        pageEndings = new LinkedHashMap<>();
+        linkTexts = new LinkedHashMap<>();
+        linkTargets = new LinkedHashMap<>();
+        linkFromPageIds = new LinkedHashMap<>();
+    }
+
+    /**
+     * @return new body texts by page id
+     */
+    public Map<Integer, String> getPageBodies() {
+        return pageBodies;
+    }
+
+    /**
+     * @return new ending attributes by page id
+     */
+    public Map<Integer, Boolean> getPageEndings() {
+        return pageEndings;
+    }
+
+    /**
+     * @return new link texts by link id
+     */
+    public Map<Integer, String> getLinkTexts() {
+        return linkTexts;
+    }
+
+    /**
+     * @return new target page ids by link id
+     */
+    public Map<Integer, Integer> getLinkTargets() {
+        return linkTargets;
+    }
+
+    /**
+     * @return ids of the pages that the updated links point from, by link id
+     */
+    public Map<Integer, Integer> getLinkFromPageIds() {
+        return linkFromPageIds;
+    }
+
+    /**
+     * @param pageId id of the page
+     * @param body new body text to update with
+     */
+    public void putPageBody(int pageId, String body) {
+        pageBodies.put(pageId, body);
+    }
+
+    /**
+     * @param pageId id of the page
+     * @param isEnding whether to treat the page as an ending of the gamebook
+     */
+    public void putPageIsEnding(int pageId, boolean isEnding) {
+        pageEndings.put(pageId, isEnding);
+    }
+
+    /**
+     * @param link link to update
+     * @param text new text to update with
+     */
+    public void putLinkText(Link link, String text) {
+        linkTexts.put(link.getId(), text);
+        linkFromPageIds.put(link.getId(), link.getFromPageId());
+    }
+
+    /**
+     * @param link link to update
+     * @param toPageId new target page id to update with
+     */
+    public void putLinkToPageId(Link link, int toPageId) {
+        linkTargets.put(link.getId(), toPageId);
+        linkFromPageIds.put(link.getId(), link.getFromPageId());
+    }
+
+    /**
+     * Adds all updates of a newer batch to this batch. Updates in the newer batch win.
+     * @param newer batch with updates made after the updates in this batch
+     */
+    public void putAll(UpdateBatch newer) {
+        pageBodies.putAll(newer.pageBodies);
+        pageEndings.putAll(newer.pageEndings);
+        linkTexts.putAll(newer.linkTexts);
+        linkTargets.putAll(newer.linkTargets);
+        linkFromPageIds.putAll(newer.linkFromPageIds);
+    }
+
+    /**
+     * Splits the batch into batches of one update each, so that they can be applied one at a time.
+     * @return one batch for each update in this batch
+     */
+    public ArrayList<UpdateBatch> split() {
+        ArrayList<UpdateBatch> updates = new ArrayList<>();
+        for (Map.Entry<Integer, String> update : pageBodies.entrySet()) {
+            UpdateBatch single = new UpdateBatch();
+            single.pageBodies.put(update.getKey(), update.getValue());
+            updates.add(single);
+        }
+        for (Map.Entry<Integer, Boolean> update : pageEndings.entrySet()) {
+            UpdateBatch single = new UpdateBatch();
+            single.pageEndings.put(update.getKey(), update.getValue());
+            updates.add(single);
+        }
+        for (Map.Entry<Integer, String> update : linkTexts.entrySet()) {
+            UpdateBatch single = new UpdateBatch();
+            single.linkTexts.put(update.getKey(), update.getValue());
+            single.linkFromPageIds.put(update.getKey(), linkFromPageIds.get(update.getKey()));
+            updates.add(single);
+        }
+        for (Map.Entry<Integer, Integer> update : linkTargets.entrySet()) {
+            UpdateBatch single = new UpdateBatch();
+            single.linkTargets.put(update.getKey(), update.getValue());
+            single.linkFromPageIds.put(update.getKey(), linkFromPageIds.get(update.getKey()));
+            updates.add(single);
+        }
+        return updates;
+    }
+
+    /**
+     * @return what the batch updates, such as "the text of link 3", or the number of updates if there are several
+     */
+    public String describe() {
+        if (size() != 1) return size() + " updates";
+        if (!pageBodies.isEmpty()) return "the body of page " + pageBodies.keySet().iterator().next();
+        if (!pageEndings.isEmpty()) return "the ending attribute of page " + pageEndings.keySet().iterator().next();
+        if (!linkTexts.isEmpty()) return "the text of link " + linkTexts.keySet().iterator().next();
+        return "the target page of link " + linkTargets.keySet().iterator().next();
+    }
+
+    /**
+     * Applies the updates in this batch to a page that was read from a store, so that reads reflect updates that
+     * haven't been written yet. Links in the page are updated too.
+     * @param page page to update in place
+     */
+    public void applyTo(Page page) {
+        if (pageBodies.containsKey(page.getId())) page.setBody(pageBodies.get(page.getId()));
+        if (pageEndings.containsKey(page.getId())) page.setEnding(pageEndings.get(page.getId()));
+
+        for (Link link : page.getLinks()) applyTo(link);
+    }
+
+    /**
+     * Applies the updates in this batch to a link that was read from a store.
+     * @param link link to update in place
+     */
+    public void applyTo(Link link) {
+        if (linkTexts.containsKey(link.getId())) link.setText(linkTexts.get(link.getId()));
+        if (linkTargets.containsKey(link.getId())) link.setToPageId(linkTargets.get(link.getId()));
+    }
+
+    /**
+     * @return total number of updates in the batch
+     */
+    public int size() {
+        return pageBodies.size() + pageEndings.size() + linkTexts.size() + linkTargets.size();
+    }
+
+    /**
+     * @return whether the batch has no updates
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
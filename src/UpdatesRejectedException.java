@@ -0,0 +1,16 @@
+/**
+ * Thrown by GamebookStore.applyUpdates() when the store rejects a batch for a reason that retrying can't fix, such as
+ * a link text that is too long for the store or a link target that doesn't exist. A failure that may go away, such as
+ * a lost connection, is reported by returning false instead.
+ */
+public class UpdatesRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message why the store rejected the updates
+     * @param cause error that the store reported, or null
+     */
+    public UpdatesRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,342 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind store that sits in front of another store. Updates to page bodies, ending attributes, link texts and
+ * link targets return immediately: they are collected in a batch, where repeated updates to the same page or link
+ * coalesce, and the batch is written to the underlying store in one transaction on a timer, before any structural
+ * change (creating or deleting pages and links) and when the store is closed.
+ * <p>
+ * Reads go to the underlying store, with the pending updates applied on top, so the UI shows its own edits right away.
+ * If a batch can't be written because the store is unreachable, its updates are kept and retried with the next flush.
+ * If the store rejects a batch, its updates are applied one at a time, so that one bad update, such as a link text
+ * that is too long, can't hold back the others; the updates that the store rejects on their own are dropped and
+ * reported to the rejection listener.
+ */
+public class WriteBehindStore implements GamebookStore {
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 2000;
+    private static final int CLOSE_FLUSH_ATTEMPTS = 3;
+    private static final long CLOSE_RETRY_DELAY_MILLIS = 1000;
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindStore.class.getName());
+
+    private final GamebookStore store;
+    private final ScheduledExecutorService flushExecutor;
+    private final Object flushLock = new Object();
+    private UpdateBatch pending;
+    private UpdateBatch flushing;
+    private volatile Consumer<String> rejectionListener;
+
+    /**
+     * Constructs a write-behind store that flushes on a timer.
+     * @param store store to write the updates to
+     * @param flushIntervalMillis milliseconds between flushes
+     */
+    public WriteBehindStore(GamebookStore store, long flushIntervalMillis) {
+        this.store = store;
+        pending = new UpdateBatch();
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs a write-behind store with the default flush interval, which can be changed with the
+     * gamebook.flushIntervalMillis system property.
+     * @param store store to write the updates to
+     */
+    public WriteBehindStore(GamebookStore store) {
+        this(store, Long.getLong("gamebook.flushIntervalMillis", DEFAULT_FLUSH_INTERVAL_MILLIS));
+    }
+
+    /**
+     * Sets a listener that is told about each update that the underlying store rejected and that has been dropped.
+     * @param rejectionListener listener to call from the flushing thread with a message for the user, or null
+     */
+    public void setRejectionListener(Consumer<String> rejectionListener) {
+        this.rejectionListener = rejectionListener;
+    }
+
+    /**
+     * Writes all pending updates to the underlying store in one batch. Flushes never overlap.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            UpdateBatch batch;
+            synchronized (this) {
+                if (pending.isEmpty()) return;
+                batch = pending;
+                flushing = batch;
+                pending = new UpdateBatch();
+            }
+
+            UpdateBatch failed = batch;
+            try {
+                if (store.applyUpdates(batch)) failed = new UpdateBatch();
+            } catch (UpdatesRejectedException ex) {
+                failed = applyOneByOne(batch);
+            }
+
+            synchronized (this) {
+                flushing = null;
+                if (!failed.isEmpty()) {
+                    // Keep the failed updates, with any newer updates on top, for the next flush
+                    failed.putAll(pending);
+                    pending = failed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the updates of a rejected batch one at a time. Updates that the store rejects on their own are dropped
+     * and reported.
+     * @return updates that couldn't be applied now but may be later
+     */
+    private UpdateBatch applyOneByOne(UpdateBatch batch) {
+        UpdateBatch failed = new UpdateBatch();
+        for (UpdateBatch update : batch.split()) {
+            try {
+                if (!store.applyUpdates(update)) failed.putAll(update);
+            } catch (UpdatesRejectedException ex) {
+                String message = "Couldn't save " + update.describe() + ". " + ex.getMessage();
+                LOGGER.log(Level.WARNING, message + " The update was dropped.", ex);
+                Consumer<String> listener = rejectionListener;
+                if (listener != null) listener.accept(message);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @return number of updates that haven't been written to the underlying store yet
+     */
+    public synchronized int getPendingCount() {
+        return pending.size() + (flushing == null ? 0 : flushing.size());
+    }
+
+    public ArrayList<Page> getPagesCache() {
+        return store.getPagesCache();
+    }
+
+    public ArrayList<Link> getLinksCache() {
+        return store.getLinksCache();
+    }
+
+    public PageCache getPageCache() {
+        return store.getPageCache();
+    }
+
+    public void addChangeListener(ChangeLogPoller.Listener listener) {
+        store.addChangeListener(listener);
+    }
+
+    public ArrayList<Page> getAllPages() {
+        ArrayList<Page> pages = store.getAllPages();
+        for (Page page : pages) overlay(page);
+        return pages;
+    }
+
+    public int getPageCount() {
+        return store.getPageCount();
+    }
+
+    public ArrayList<Page> getPagePreviewsAfter(int afterPageId, int limit) {
+        return overlayPreviews(store.getPagePreviewsAfter(afterPageId, limit));
+    }
+
+    public ArrayList<Page> getPagePreviewsAt(int offset, int limit) {
+        return overlayPreviews(store.getPagePreviewsAt(offset, limit));
+    }
+
+    public boolean pageExists(int pageId) {
+        return store.pageExists(pageId);
+    }
+
+    public int getMaxPageId() {
+        return store.getMaxPageId();
+    }
+
+    public long getRevision() {
+        return store.getRevision();
+    }
+
+    /**
+     * Flushes the pending updates and fetches the changes from the underlying store, so that the changes include
+     * this store's own updates.
+     * @param revision revision that the client has already seen
+     * @return changes since the revision, or null if they couldn't be fetched
+     */
+    public BookChanges getChangesSince(long revision) {
+        flush();
+        return store.getChangesSince(revision);
+    }
+
+    public void streamAllPages(Consumer<Page> consumer) {
+        flush();
+        store.streamAllPages(consumer);
+    }
+
+    public void streamAllLinks(Consumer<Link> consumer) {
+        flush();
+        store.streamAllLinks(consumer);
+    }
+
+    public Page getPage(int pageId) {
+        Page page = store.getPage(pageId);
+        if (page != null) overlay(page);
+        return page;
+    }
+
+    public ArrayList<Page> getPages(Collection<Integer> pageIds) {
+        ArrayList<Page> pages = store.getPages(pageIds);
+        for (Page page : pages) overlay(page);
+        return pages;
+    }
+
+    public Page getCachedPage(int pageId) {
+        return getPageCache().get(pageId, this::getPage);
+    }
+
+    public ArrayList<Link> getLinksFromPage(int fromPageId) {
+        ArrayList<Link> links = store.getLinksFromPage(fromPageId);
+        synchronized (this) {
+            for (Link link : links) {
+                if (flushing != null) flushing.applyTo(link);
+                pending.applyTo(link);
+            }
+        }
+        return links;
+    }
+
+    public void createPage() {
+        flush();
+        store.createPage();
+    }
+
+    public void createLink(int fromPageId) {
+        flush();
+        store.createLink(fromPageId);
+    }
+
+    public void updatePageBody(int pageId, String body) {
+        synchronized (this) {
+            pending.putPageBody(pageId, body);
+        }
+        getPageCache().invalidate(pageId);
+    }
+
+    public void updatePageIsEnding(int pageId, boolean isEnding) {
+        synchronized (this) {
+            pending.putPageIsEnding(pageId, isEnding);
+        }
+        getPageCache().invalidate(pageId);
+    }
+
+    /**
+     * Queues an update of a link's text and applies it to the link in the links cache right away.
+     * @param index index of the link in the links cache
+     * @param text new text to update with
+     */
+    public void updateLinkText(int index, String text) {
+        Link link = getLinksCache().get(index);
+        synchronized (this) {
+            pending.putLinkText(link, text);
+        }
+        link.setText(text);
+        getPageCache().invalidate(link.getFromPageId());
+    }
+
+    /**
+     * Queues an update of a link's target page id and applies it to the link in the links cache right away.
+     * @param index index of the link in the links cache
+     * @param toPageId new target page id to update with
+     */
+    public void updateLinkToPageId(int index, int toPageId) {
+        Link link = getLinksCache().get(index);
+        synchronized (this) {
+            pending.putLinkToPageId(link, toPageId);
+        }
+        link.setToPageId(toPageId);
+        getPageCache().invalidate(link.getFromPageId());
+    }
+
+    /**
+     * Applies a batch of updates directly to the underlying store, after the pending updates.
+     * @param batch updates to apply
+     * @return whether the updates were applied
+     * @throws UpdatesRejectedException if the underlying store rejected the updates
+     */
+    public boolean applyUpdates(UpdateBatch batch) {
+        flush();
+        return store.applyUpdates(batch);
+    }
+
+    public void deletePage(int pageId) {
+        flush();
+        store.deletePage(pageId);
+    }
+
+    public void deleteLink(int index) {
+        flush();
+        store.deleteLink(index);
+    }
+
+    /**
+     * Writes all pending updates, then stops the flush timer and closes the underlying store. A failed write is
+     * retried a few times. If updates still can't be written, the store is left open with the updates pending, so
+     * that they aren't lost and closing can be tried again. Updates that the store rejects are dropped, so they never
+     * keep the store from closing.
+     * @throws IllegalStateException if some updates couldn't be written
+     */
+    public void closeConnection() {
+        for (int attempt = 1; ; attempt++) {
+            flush();
+            if (getPendingCount() == 0) break;
+
+            if (attempt == CLOSE_FLUSH_ATTEMPTS) {
+                String message = "Couldn't write " + getPendingCount() + " pending updates";
+                LOGGER.log(Level.WARNING, message);
+                throw new IllegalStateException(message);
+            }
+            try {
+                Thread.sleep(CLOSE_RETRY_DELAY_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while writing " + getPendingCount() + " pending updates");
+            }
+        }
+
+        flushExecutor.shutdown();
+        store.closeConnection();
+    }
+
+    /**
+     * Applies the updates that haven't been written yet to a page read from the underlying store.
+     */
+    private synchronized void overlay(Page page) {
+        if (flushing != null) flushing.applyTo(page);
+        pending.applyTo(page);
+    }
+
+    /**
+     * Applies pending body and ending updates to page previews, truncating updated bodies like the store does.
+     */
+    private ArrayList<Page> overlayPreviews(ArrayList<Page> pages) {
+        for (Page page : pages) {
+            overlay(page);
+            String body = page.getBody();
+            if (body != null && body.length() > PREVIEW_LENGTH) page.setBody(body.substring(0, PREVIEW_LENGTH));
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Tests for LocalGamebookStore: crash recovery (log replay, torn and corrupt records, compaction) and how deleting a
+ * page cascades to its links. A crash is simulated by copying the store's files to a new directory while the store is
+ * still open, which leaves exactly what a crash would leave on disk, since every mutation is forced to disk before it
+ * returns.
+ * <p>
+ * Runs without a test framework or a database; exits with status 1 if a test fails.
+ */
+public class LocalGamebookStoreTest {
+    private static final String LOG_FILE = "book.log";
+    private static final String SNAPSHOT_FILE = "book.snapshot";
+
+    private interface Test {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) {
+        int failed = 0;
+        failed += run("replaysLogAfterCrash", LocalGamebookStoreTest::replaysLogAfterCrash);
+        failed += run("discardsTornRecord", LocalGamebookStoreTest::discardsTornRecord);
+        failed += run("discardsCorruptRecord", LocalGamebookStoreTest::discardsCorruptRecord);
+        failed += run("compactionKeepsTriggeringMutation", LocalGamebookStoreTest::compactionKeepsTriggeringMutation);
+        failed += run("replaysLogOnTopOfSnapshot", LocalGamebookStoreTest::replaysLogOnTopOfSnapshot);
+        failed += run("deletePageDeletesAndUnlinksLinks", LocalGamebookStoreTest::deletePageDeletesAndUnlinksLinks);
+        failed += run("directoryCanOnlyBeOpenedOnce", LocalGamebookStoreTest::directoryCanOnlyBeOpenedOnce);
+
+        System.out.println(failed == 0 ? "All tests passed" : failed + " tests failed");
+        if (failed > 0) System.exit(1);
+    }
+
+    private static int run(String name, Test test) {
+        try {
+            test.run();
+            System.out.println("PASS " + name);
+            return 0;
+        } catch (Throwable ex) {
+            System.out.println("FAIL " + name);
+            ex.printStackTrace(System.out);
+            return 1;
+        }
+    }
+
+    private static void replaysLogAfterCrash() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore store = LocalGamebookStore.open(directory);
+            store.createPage();
+            store.createPage();
+            store.updatePageBody(1, "First page");
+            store.updatePageIsEnding(2, true);
+            store.createLink(1);
+            store.getPage(1);
+            store.updateLinkText(0, "Go on");
+            store.updateLinkToPageId(0, 2);
+
+            LocalGamebookStore recovered = LocalGamebookStore.open(crashCopy(directory));
+            Page page = recovered.getPage(1);
+            check(recovered.getPageCount() == 2, "both pages are recovered");
+            check("First page".equals(page.getBody()), "the body update is recovered");
+            check(recovered.getPage(2).isEnding(), "the ending update is recovered");
+            check(page.getLinks().size() == 1, "the link is recovered");
+            check("Go on".equals(page.getLinks().get(0).getText()), "the link text is recovered");
+            check(page.getLinks().get(0).getToPageId() == 2, "the link target is recovered");
+            check(recovered.getRevision() == store.getRevision(), "the revision is recovered");
+            recovered.closeConnection();
+            store.closeConnection();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void discardsTornRecord() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore store = LocalGamebookStore.open(directory);
+            store.createPage();
+            store.updatePageBody(1, "Kept");
+            store.closeConnection();
+
+            // A record whose header promises more bytes than were written before the crash
+            LocalGamebookStore crashed = LocalGamebookStore.open(directory);
+            Path copy = crashCopy(directory);
+            crashed.closeConnection();
+            ByteBuffer torn = ByteBuffer.allocate(12).putInt(100).putInt(0).putInt(42);
+            torn.flip();
+            try (FileChannel log = FileChannel.open(copy.resolve(LOG_FILE), StandardOpenOption.APPEND)) {
+                log.write(torn);
+            }
+
+            LocalGamebookStore recovered = LocalGamebookStore.open(copy);
+            check("Kept".equals(recovered.getPage(1).getBody()), "records before the torn one are kept");
+            check(Files.size(copy.resolve(LOG_FILE)) == 0, "the torn record is cut off");
+
+            recovered.updatePageBody(1, "Written after recovery");
+            LocalGamebookStore reopened = LocalGamebookStore.open(crashCopy(copy));
+            check("Written after recovery".equals(reopened.getPage(1).getBody()),
+                    "records appended after recovery are replayed");
+            reopened.closeConnection();
+            recovered.closeConnection();
+            delete(copy);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void discardsCorruptRecord() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore store = LocalGamebookStore.open(directory);
+            store.createPage();
+            store.updatePageBody(1, "Kept");
+            long goodSize = Files.size(directory.resolve(LOG_FILE));
+            store.updatePageBody(1, "Corrupted");
+            Path copy = crashCopy(directory);
+            store.closeConnection();
+
+            // Flip the last byte of the last record, so that its checksum no longer matches
+            try (FileChannel log = FileChannel.open(copy.resolve(LOG_FILE), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                log.read(last, log.size() - 1);
+                last.put(0, (byte) ~last.get(0));
+                last.rewind();
+                log.write(last, log.size() - 1);
+            }
+
+            LocalGamebookStore recovered = LocalGamebookStore.open(copy);
+            check("Kept".equals(recovered.getPage(1).getBody()), "the corrupt record isn't applied");
+            check(Files.size(copy.resolve(LOG_FILE)) == goodSize, "the log is cut before the corrupt record");
+            recovered.closeConnection();
+            delete(copy);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void compactionKeepsTriggeringMutation() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore store = LocalGamebookStore.open(directory);
+            store.createPage();
+
+            // Each body takes 1.5 MB in the log, so the third update takes the log past the compaction threshold
+            String lastBody = null;
+            for (char c = 'a'; c <= 'c'; c++) {
+                lastBody = String.valueOf(c).repeat(1_500_000);
+                store.updatePageBody(1, lastBody);
+            }
+            check(Files.size(directory.resolve(LOG_FILE)) == 0, "the log was compacted");
+
+            LocalGamebookStore recovered = LocalGamebookStore.open(crashCopy(directory));
+            check(lastBody.equals(recovered.getPage(1).getBody()),
+                    "the mutation that triggered compaction is in the snapshot");
+            check(recovered.getRevision() == store.getRevision(), "the snapshot has the latest revision");
+            recovered.closeConnection();
+            store.closeConnection();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void replaysLogOnTopOfSnapshot() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore store = LocalGamebookStore.open(directory);
+            store.createPage();
+            store.updatePageBody(1, "In the snapshot");
+            store.closeConnection();
+
+            store = LocalGamebookStore.open(directory);
+            store.createPage();
+            store.updatePageBody(2, "In the log");
+            store.deletePage(1);
+
+            LocalGamebookStore recovered = LocalGamebookStore.open(crashCopy(directory));
+            check(!recovered.pageExists(1), "the delete in the log is applied to the snapshot");
+            check("In the log".equals(recovered.getPage(2).getBody()), "the log is replayed on the snapshot");
+            recovered.createPage();
+            check(recovered.getMaxPageId() == 3, "page ids continue after the recovered ones");
+            recovered.closeConnection();
+            store.closeConnection();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void deletePageDeletesAndUnlinksLinks() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore store = LocalGamebookStore.open(directory);
+            store.createPage();
+            store.createPage();
+            store.createLink(1);
+            store.getPage(1);
+            store.updateLinkToPageId(0, 2);
+            store.createLink(2);
+            long revision = store.getRevision();
+            store.deletePage(2);
+
+            for (LocalGamebookStore checked : new LocalGamebookStore[] {store,
+                    LocalGamebookStore.open(crashCopy(directory))}) {
+                ArrayList<Link> links = checked.getPage(1).getLinks();
+                check(!checked.pageExists(2), "the page is deleted");
+                check(links.size() == 1 && links.get(0).getToPageId() == 0, "the link to the page has no target");
+                ArrayList<Link> allLinks = new ArrayList<>();
+                checked.streamAllLinks(allLinks::add);
+                check(allLinks.size() == 1, "the link on the page is deleted");
+            }
+
+            BookChanges changes = store.getChangesSince(revision);
+            check(changes.getDeletedPageIds().contains(2), "the deleted page is a change");
+            check(changes.getDeletedLinkIds().contains(2), "the deleted link is a change");
+            check(changes.getChangedLinks().size() == 1, "the unlinked link is a change");
+            store.closeConnection();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void directoryCanOnlyBeOpenedOnce() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore store = LocalGamebookStore.open(directory);
+            boolean opened;
+            try {
+                LocalGamebookStore.open(directory).closeConnection();
+                opened = true;
+            } catch (IOException ex) {
+                opened = false;
+            }
+            check(!opened, "a store that is already open can't be opened again");
+
+            store.createPage();
+            store.closeConnection();
+            LocalGamebookStore reopened = LocalGamebookStore.open(directory);
+            check(reopened.getPageCount() == 1, "the store can be opened again once it has been closed");
+            reopened.closeConnection();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Copies the files of a store that is still open to a new directory, as a crash would leave them.
+     */
+    private static Path crashCopy(Path directory) throws IOException {
+        Path copy = Files.createTempDirectory("gamebook-test-crash");
+        for (String file : new String[] {SNAPSHOT_FILE, LOG_FILE}) {
+            if (Files.exists(directory.resolve(file))) Files.copy(directory.resolve(file), copy.resolve(file));
+        }
+        return copy;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError("Expected that " + message);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        ArrayList<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(paths::add);
+        }
+        for (Path path : paths) Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Tests for WriteBehindStore: updates that the underlying store rejects are dropped and reported without holding back
+ * other updates or closing, and updates that fail for a reason that may go away are kept and retried. The underlying
+ * store is a LocalGamebookStore behind a proxy that rejects link texts longer than the links table allows and fails
+ * every batch while it is offline.
+ * <p>
+ * Runs without a test framework or a database; exits with status 1 if a test fails.
+ */
+public class WriteBehindStoreTest {
+    private static final int MAX_LINK_TEXT_LENGTH = 64;
+    private static final long NO_TIMER_FLUSH_MILLIS = 60 * 60 * 1000;
+
+    private interface Test {
+        void run() throws Exception;
+    }
+
+    /**
+     * Underlying store that fails the way a database does.
+     */
+    private static class FailingStore {
+        private final LocalGamebookStore store;
+        private final GamebookStore proxy;
+        private volatile boolean offline;
+
+        FailingStore(LocalGamebookStore store) {
+            this.store = store;
+            proxy = (GamebookStore) Proxy.newProxyInstance(GamebookStore.class.getClassLoader(),
+                    new Class<?>[] {GamebookStore.class}, (object, method, args) -> {
+                        if (method.getName().equals("applyUpdates")) return applyUpdates((UpdateBatch) args[0]);
+                        try {
+                            return method.invoke(store, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        }
+                    });
+        }
+
+        private synchronized boolean applyUpdates(UpdateBatch batch) {
+            if (offline) return false;
+            for (String text : batch.getLinkTexts().values()) {
+                if (text.length() > MAX_LINK_TEXT_LENGTH) {
+                    throw new UpdatesRejectedException("Data too long for column 'text'", null);
+                }
+            }
+            return store.applyUpdates(batch);
+        }
+    }
+
+    public static void main(String[] args) {
+        int failed = 0;
+        failed += run("rejectedUpdateIsDroppedAndReported", WriteBehindStoreTest::rejectedUpdateIsDroppedAndReported);
+        failed += run("rejectedUpdateDoesNotBlockLaterEdits",
+                WriteBehindStoreTest::rejectedUpdateDoesNotBlockLaterEdits);
+        failed += run("failedUpdatesAreKeptAndRetried", WriteBehindStoreTest::failedUpdatesAreKeptAndRetried);
+
+        System.out.println(failed == 0 ? "All tests passed" : failed + " tests failed");
+        if (failed > 0) System.exit(1);
+    }
+
+    private static int run(String name, Test test) {
+        try {
+            test.run();
+            System.out.println("PASS " + name);
+            return 0;
+        } catch (Throwable ex) {
+            System.out.println("FAIL " + name);
+            ex.printStackTrace(System.out);
+            return 1;
+        }
+    }
+
+    private static void rejectedUpdateIsDroppedAndReported() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore local = LocalGamebookStore.open(directory);
+            FailingStore failing = new FailingStore(local);
+            WriteBehindStore store = new WriteBehindStore(failing.proxy, NO_TIMER_FLUSH_MILLIS);
+            ArrayList<String> rejections = new ArrayList<>();
+            store.setRejectionListener(rejections::add);
+
+            store.createPage();
+            store.createLink(1);
+            store.getPage(1);
+            store.updatePageBody(1, "Saved");
+            store.updateLinkText(0, "x".repeat(MAX_LINK_TEXT_LENGTH + 1));
+            store.flush();
+
+            check(store.getPendingCount() == 0, "the rejected update isn't kept");
+            check(rejections.size() == 1, "the rejected update is reported once");
+            check(rejections.get(0).contains("the text of link 1"), "the report names the rejected update");
+            check("Saved".equals(local.getPage(1).getBody()), "the other update in the batch is written");
+            check(local.getPage(1).getLinks().get(0).getText() == null ||
+                    local.getPage(1).getLinks().get(0).getText().length() <= MAX_LINK_TEXT_LENGTH,
+                    "the rejected update isn't written");
+
+            store.closeConnection();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void rejectedUpdateDoesNotBlockLaterEdits() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore local = LocalGamebookStore.open(directory);
+            FailingStore failing = new FailingStore(local);
+            WriteBehindStore store = new WriteBehindStore(failing.proxy, NO_TIMER_FLUSH_MILLIS);
+            ArrayList<String> rejections = new ArrayList<>();
+            store.setRejectionListener(rejections::add);
+
+            store.createPage();
+            store.createLink(1);
+            store.getPage(1);
+            store.updateLinkText(0, "x".repeat(MAX_LINK_TEXT_LENGTH + 1));
+            store.flush();
+            for (int i = 1; i <= 3; i++) {
+                store.updatePageBody(1, "Edit " + i);
+                store.flush();
+                check(store.getPendingCount() == 0, "edit " + i + " after the rejected update is written");
+            }
+            check("Edit 3".equals(local.getPage(1).getBody()), "the latest edit is written");
+            check(rejections.size() == 1, "the rejected update is only reported once");
+
+            // Closing must not wait for, or fail on, the rejected update
+            store.closeConnection();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void failedUpdatesAreKeptAndRetried() throws IOException {
+        Path directory = Files.createTempDirectory("gamebook-test");
+        try {
+            LocalGamebookStore local = LocalGamebookStore.open(directory);
+            FailingStore failing = new FailingStore(local);
+            WriteBehindStore store = new WriteBehindStore(failing.proxy, NO_TIMER_FLUSH_MILLIS);
+            ArrayList<String> rejections = new ArrayList<>();
+            store.setRejectionListener(rejections::add);
+
+            store.createPage();
+            failing.offline = true;
+            store.updatePageBody(1, "Written once online");
+            store.flush();
+            check(store.getPendingCount() == 1, "an update that failed while offline is kept");
+            check("Written once online".equals(store.getPage(1).getBody()), "reads show the kept update");
+
+            boolean closed;
+            try {
+                store.closeConnection();
+                closed = true;
+            } catch (IllegalStateException ex) {
+                closed = false;
+            }
+            check(!closed, "the store doesn't close while updates can't be written");
+
+            failing.offline = false;
+            store.flush();
+            check(store.getPendingCount() == 0, "the kept update is written once the store is back");
+            check("Written once online".equals(local.getPage(1).getBody()), "the kept update reaches the store");
+            check(rejections.isEmpty(), "an update that failed while offline isn't reported as rejected");
+            store.closeConnection();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError("Expected that " + message);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        ArrayList<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(paths::add);
+        }
+        for (Path path : paths) Files.deleteIfExists(path);
+    }
+}